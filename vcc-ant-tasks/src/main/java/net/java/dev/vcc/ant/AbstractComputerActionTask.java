@@ -45,11 +45,13 @@ public abstract class AbstractComputerActionTask extends AbstractDatacenterTask
             }
         }
         Map<String, Future<Success>> results = new LinkedHashMap<String, Future<Success>>();
-        for (Computer c : datacenter.getAllComputers()) {
-            if (targets.contains(c.getName())) {
+        for (Iterator<String> it = targets.iterator(); it.hasNext();) {
+            String name = it.next();
+            for (Computer c : datacenter.getComputersByName(name)) {
                 log("Computer " + c.getName() + " is in state " + c.getState(), Project.MSG_DEBUG);
                 results.put(c.getName(), doAction(c));
-                targets.remove(c.getName());
+                it.remove();
+                break;
             }
         }
         if (!targets.isEmpty()) {
@@ -1,5 +1,7 @@
 package net.java.dev.vcc.api;
 
+import net.java.dev.vcc.util.FutureReference;
+
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -114,6 +116,35 @@ public abstract class Command<RESULT> implements Future<RESULT> {
         }
     }
 
+    /**
+     * Runs a task once this command has completed, if the future it was submitted with can say when that is.
+     *
+     * @param listener the task, which is run on the thread that completes the command, or at once if the command has
+     *                 already completed.
+     *
+     * @return {@code false} if the command has not been submitted, or cannot say when it completes, in which case the
+     *         task is not run.
+     */
+    @SuppressWarnings("unchecked")
+    public final boolean whenDone(Runnable listener) {
+        Future<RESULT> delegate;
+        synchronized (internalLock) {
+            delegate = this.delegate;
+        }
+        if (delegate == null) {
+            return false;
+        }
+        if (delegate instanceof FutureReference) {
+            ((FutureReference<RESULT>) delegate).whenDone(listener);
+            return true;
+        }
+        if (delegate.isDone()) {
+            listener.run();
+            return true;
+        }
+        return false;
+    }
+
     /**
      * {@inheritDoc}
      */
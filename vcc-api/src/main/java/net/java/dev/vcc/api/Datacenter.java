@@ -1,5 +1,7 @@
 package net.java.dev.vcc.api;
 
+import net.java.dev.vcc.api.commands.Batch;
+
 import java.util.Set;
 
 /**
@@ -25,6 +27,55 @@ public interface Datacenter
      */
     Set<PowerState> getAllowedStates(PowerState from);
 
+    /**
+     * Gets a computer by ID.
+     *
+     * @param id the ID of the computer.
+     * @return the computer or {@code null} if there is no such computer in this datacenter.
+     */
+    Computer getComputer(ManagedObjectId<Computer> id);
+
+    /**
+     * Gets all the computers with a specific name.
+     *
+     * @param name the name.
+     * @return the computers with the name.
+     */
+    Set<Computer> getComputersByName(String name);
+
+    /**
+     * Gets all the computers in a specific power state.
+     *
+     * @param state the power state.
+     * @return the computers in the power state.
+     */
+    Set<Computer> getComputersByState(PowerState state);
+
+    /**
+     * Gets all the computers running on, or assigned to, a specific host.
+     *
+     * @param host the host.
+     * @return the computers on the host.
+     */
+    Set<Computer> getComputersByHost(Host host);
+
+    /**
+     * Gets a consistent view of how the objects in this datacenter are currently arranged. Use this rather than
+     * walking the datacenter when reading many objects at once.
+     *
+     * @return the snapshot.
+     */
+    DatacenterSnapshot snapshot();
+
+    /**
+     * Executes a batch of commands, each against its own managed object, within the limits set on the batch. Returns
+     * straight away; the commands are executed in the background.
+     *
+     * @param batch the commands to execute.
+     * @return the batch parameter, which completes once all its commands have completed.
+     */
+    Batch executeAll(Batch batch);
+
     /**
      * Closes the connection releasing any handles.
      */
@@ -0,0 +1,103 @@
+package net.java.dev.vcc.api;
+
+import java.util.Set;
+
+/**
+ * An immutable view of how the objects in a {@link Datacenter} were arranged at one point in time. Unlike walking the
+ * datacenter itself, every query on a snapshot sees the same version of the arrangement, however the datacenter
+ * changes in the meantime, and no query takes a lock. Only the arrangement is captured: the objects returned are the
+ * live objects of the datacenter.
+ * <p/>
+ * Not to be confused with a {@link ComputerSnapshot}, which is a saved state of a single computer.
+ */
+public interface DatacenterSnapshot {
+
+    /**
+     * Gets the version of the arrangement. Versions increase as the datacenter changes.
+     *
+     * @return the version, or {@code 0} if the datacenter does not version its arrangement.
+     */
+    long getVersion();
+
+    /**
+     * Gets the datacenter that this is a snapshot of.
+     *
+     * @return the datacenter.
+     */
+    Datacenter getDatacenter();
+
+    /**
+     * Gets the object that directly contained an object.
+     *
+     * @param object the object.
+     *
+     * @return the container or {@code null} if the object was not contained in the datacenter.
+     */
+    ManagedObject<?> getParent(ManagedObject<?> object);
+
+    /**
+     * Gets the computers directly contained in an object.
+     *
+     * @param container the datacenter, host or resource group.
+     *
+     * @return the computers.
+     */
+    Set<Computer> getComputers(ManagedObject<?> container);
+
+    /**
+     * Gets the computer templates directly contained in an object.
+     *
+     * @param container the datacenter, host or resource group.
+     *
+     * @return the computer templates.
+     */
+    Set<ComputerTemplate> getComputerTemplates(ManagedObject<?> container);
+
+    /**
+     * Gets the hosts directly contained in an object.
+     *
+     * @param container the datacenter or resource group.
+     *
+     * @return the hosts.
+     */
+    Set<Host> getHosts(ManagedObject<?> container);
+
+    /**
+     * Gets the host resource groups directly contained in an object.
+     *
+     * @param container the host or resource group.
+     *
+     * @return the host resource groups.
+     */
+    Set<HostResourceGroup> getHostResourceGroups(ManagedObject<?> container);
+
+    /**
+     * Gets the datacenter resource groups directly contained in an object.
+     *
+     * @param container the datacenter or resource group.
+     *
+     * @return the datacenter resource groups.
+     */
+    Set<DatacenterResourceGroup> getDatacenterResourceGroups(ManagedObject<?> container);
+
+    /**
+     * Gets all the computers in the datacenter.
+     *
+     * @return the computers.
+     */
+    Set<Computer> getAllComputers();
+
+    /**
+     * Gets all the computer templates in the datacenter.
+     *
+     * @return the computer templates.
+     */
+    Set<ComputerTemplate> getAllComputerTemplates();
+
+    /**
+     * Gets all the hosts in the datacenter.
+     *
+     * @return the hosts.
+     */
+    Set<Host> getAllHosts();
+}
@@ -0,0 +1,120 @@
+package net.java.dev.vcc.api.commands;
+
+import net.java.dev.vcc.api.Command;
+import net.java.dev.vcc.api.Datacenter;
+import net.java.dev.vcc.api.ManagedObject;
+import net.java.dev.vcc.api.Success;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A number of commands, each to be executed against its own {@link ManagedObject}, that are handed to
+ * {@link Datacenter#executeAll(Batch)} together. The datacenter executes them in the order they were added, keeping
+ * no more than {@link #getMaxConcurrent()} of them outstanding and executing no more than {@link #getMaxRate()} of
+ * them per second, so that a large batch does not trip the server's throttling.
+ * <p/>
+ * Each command completes with its own result. The batch completes once they all have, and fails if any of them
+ * failed.
+ */
+public final class Batch extends Command<Success> {
+
+    private final List<Command<?>> commands = new ArrayList<Command<?>>();
+
+    private final Map<Command<?>, ManagedObject<?>> targets = new IdentityHashMap<Command<?>, ManagedObject<?>>();
+
+    private int maxConcurrent = 0;
+
+    private double maxRate = 0;
+
+    /**
+     * Adds a command to the batch.
+     *
+     * @param target  the managed object to execute the command against.
+     * @param command the command, which must not have been submitted.
+     * @param <T>     the type of the command.
+     *
+     * @return the command parameter (to support method chaining).
+     */
+    public <T extends Command<?>> T add(ManagedObject<?> target, T command) {
+        checkNotSubmitted();
+        target.getClass(); // throw NPE if null
+        if (command.isSubmitted()) {
+            throw new IllegalArgumentException("The command has already been submitted");
+        }
+        if (targets.containsKey(command)) {
+            throw new IllegalArgumentException("The command is already in the batch");
+        }
+        commands.add(command);
+        targets.put(command, target);
+        return command;
+    }
+
+    /**
+     * Gets the commands in the batch.
+     *
+     * @return the commands in the order they were added.
+     */
+    public List<Command<?>> getCommands() {
+        return Collections.unmodifiableList(commands);
+    }
+
+    /**
+     * Gets the managed object a command is to be executed against.
+     *
+     * @param command the command.
+     *
+     * @return the managed object, or {@code null} if the command is not in the batch.
+     */
+    public ManagedObject<?> getTarget(Command<?> command) {
+        return targets.get(command);
+    }
+
+    /**
+     * Gets the number of commands that may be outstanding at once.
+     *
+     * @return the number of commands that may be outstanding at once, or {@code 0} if there is no limit.
+     */
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * Sets the number of commands that may be outstanding at once. A command is outstanding from when it is executed
+     * until it completes.
+     *
+     * @param maxConcurrent the number of commands that may be outstanding at once, or {@code 0} for no limit.
+     */
+    public void setMaxConcurrent(int maxConcurrent) {
+        checkNotSubmitted();
+        if (maxConcurrent < 0) {
+            throw new IllegalArgumentException("The limit must not be negative");
+        }
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    /**
+     * Gets the number of commands that may be executed per second.
+     *
+     * @return the number of commands that may be executed per second, or {@code 0} if there is no limit.
+     */
+    public double getMaxRate() {
+        return maxRate;
+    }
+
+    /**
+     * Sets the number of commands that may be executed per second.
+     *
+     * @param maxRate the number of commands that may be executed per second, or {@code 0} for no limit.
+     */
+    public void setMaxRate(double maxRate) {
+        checkNotSubmitted();
+        if (maxRate < 0 || Double.isNaN(maxRate)) {
+            throw new IllegalArgumentException("The rate must not be negative");
+        }
+        this.maxRate = maxRate;
+    }
+}
@@ -0,0 +1,66 @@
+package net.java.dev.vcc.api.commands;
+
+import net.java.dev.vcc.api.Command;
+import net.java.dev.vcc.api.Computer;
+import net.java.dev.vcc.api.Datacenter;
+import net.java.dev.vcc.api.Success;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Starts a number of {@link Computer}s of a {@link Datacenter} at once. Execute it against the datacenter, which may
+ * start them all with one request to the server. Each computer is also given its own {@link StartComputer}, which
+ * completes when that computer has started; this command completes once they all have, and fails if any of them
+ * failed.
+ */
+public final class StartComputers extends Command<Success> {
+
+    private Map<Computer, StartComputer> commands = Collections.emptyMap();
+
+    /**
+     * Gets the computers to start.
+     *
+     * @return the computers to start, in the order they were given.
+     */
+    public Set<Computer> getComputers() {
+        return commands.keySet();
+    }
+
+    /**
+     * Sets the computers to start.
+     *
+     * @param computers the computers to start.
+     */
+    public void setComputers(Collection<? extends Computer> computers) {
+        checkNotSubmitted();
+        Map<Computer, StartComputer> commands = new LinkedHashMap<Computer, StartComputer>();
+        for (Computer computer : computers) {
+            commands.put(computer, new StartComputer());
+        }
+        this.commands = Collections.unmodifiableMap(commands);
+    }
+
+    /**
+     * Gets the command that starts one of the computers.
+     *
+     * @param computer the computer.
+     *
+     * @return the command that starts the computer, or {@code null} if the computer is not one of those to start.
+     */
+    public StartComputer getCommand(Computer computer) {
+        return commands.get(computer);
+    }
+
+    /**
+     * Gets the commands that start each of the computers.
+     *
+     * @return the commands that start each of the computers, in the order the computers were given.
+     */
+    public Collection<StartComputer> getCommands() {
+        return commands.values();
+    }
+}
@@ -6,12 +6,17 @@ import net.java.dev.vcc.api.Computer;
 import net.java.dev.vcc.api.ComputerTemplate;
 import net.java.dev.vcc.api.Datacenter;
 import net.java.dev.vcc.api.DatacenterResourceGroup;
+import net.java.dev.vcc.api.DatacenterSnapshot;
 import net.java.dev.vcc.api.Host;
 import net.java.dev.vcc.api.HostResourceGroup;
 import net.java.dev.vcc.api.ManagedObject;
 import net.java.dev.vcc.api.ManagedObjectId;
 import net.java.dev.vcc.api.Log;
 import net.java.dev.vcc.api.LogFactory;
+import net.java.dev.vcc.api.PowerState;
+import net.java.dev.vcc.api.commands.Batch;
+import net.java.dev.vcc.api.commands.StartComputer;
+import net.java.dev.vcc.api.commands.StartComputers;
 
 import java.util.AbstractMap;
 import java.util.Arrays;
@@ -32,6 +37,8 @@ public abstract class AbstractDatacenter
 
     private final Map<Class<? extends ManagedObject>, Set<Class<? extends Command>>> capabilities;
 
+    private final AggregateCache aggregates = new AggregateCache(isCachingAggregates());
+
     public AbstractDatacenter(LogFactory logFactory, ManagedObjectId<Datacenter> id,
                               Map.Entry<Class<? extends ManagedObject>, Set<Class<? extends Command>>>... capabilities) {
         super(id);
@@ -99,6 +106,28 @@ public abstract class AbstractDatacenter
                 object, Collections.unmodifiableSet(new HashSet<Class<? extends Command>>(Arrays.asList(commands))));
     }
 
+    /**
+     * Checks if this object keeps its recursive aggregates, such as {@code getAllComputers()}, between calls. A Service
+     * Provider Implementation that returns {@code true} must call {@link #invalidateAggregates()} whenever one of its
+     * direct children is added or removed. This is called once, while the object is being constructed.
+     *
+     * @return {@code true} if this object keeps its recursive aggregates.
+     */
+    protected boolean isCachingAggregates() {
+        return false;
+    }
+
+    /**
+     * Drops the recursive aggregates of this object and of every object above it whose aggregates were built from them.
+     */
+    protected final void invalidateAggregates() {
+        aggregates.invalidate();
+    }
+
+    AggregateCache getAggregateCache() {
+        return aggregates;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -124,64 +153,202 @@ public abstract class AbstractDatacenter
      * {@inheritDoc}
      */
     public Set<Host> getAllHosts() {
-        Set<Host> result = new HashSet<Host>(getHosts());
+        Set<Host> result = aggregates.get("allHosts");
+        if (result != null) {
+            return result;
+        }
+        long version = aggregates.getVersion();
+        boolean cacheable = aggregates.isEnabled();
+        result = new HashSet<Host>(getHosts());
         for (DatacenterResourceGroup group : getDatacenterResourceGroups()) {
+            cacheable = cacheable && aggregates.dependOn(group);
             result.addAll(group.getAllHosts());
         }
-        return result;
+        return aggregates.put("allHosts", version, result, cacheable);
     }
 
     /**
      * {@inheritDoc}
      */
     public Set<ComputerTemplate> getAllComputerTemplates() {
-        Set<ComputerTemplate> result = new HashSet<ComputerTemplate>(getComputerTemplates());
+        Set<ComputerTemplate> result = aggregates.get("allComputerTemplates");
+        if (result != null) {
+            return result;
+        }
+        long version = aggregates.getVersion();
+        boolean cacheable = aggregates.isEnabled();
+        result = new HashSet<ComputerTemplate>(getComputerTemplates());
         for (DatacenterResourceGroup group : getDatacenterResourceGroups()) {
+            cacheable = cacheable && aggregates.dependOn(group);
             result.addAll(group.getAllComputerTemplates());
         }
         for (Host host : getHosts()) {
+            cacheable = cacheable && aggregates.dependOn(host);
             result.addAll(host.getAllComputerTemplates());
         }
-        return result;
+        return aggregates.put("allComputerTemplates", version, result, cacheable);
     }
 
     /**
      * {@inheritDoc}
      */
     public Set<Computer> getAllComputers() {
-        Set<Computer> result = new HashSet<Computer>();
+        Set<Computer> result = aggregates.get("allComputers");
+        if (result != null) {
+            return result;
+        }
+        long version = aggregates.getVersion();
+        boolean cacheable = aggregates.isEnabled();
+        result = new HashSet<Computer>();
         for (DatacenterResourceGroup group : getDatacenterResourceGroups()) {
+            cacheable = cacheable && aggregates.dependOn(group);
             result.addAll(group.getAllComputers());
         }
         for (Host host : getHosts()) {
+            cacheable = cacheable && aggregates.dependOn(host);
             result.addAll(host.getAllComputers());
         }
-        return result;
+        return aggregates.put("allComputers", version, result, cacheable);
+    }
+
+    /**
+     * Gets the index of this datacenter's computers. Service Provider Implementations that maintain a {@link
+     * ComputerIndex} override this method so that the computer lookups use the index rather than walking the whole
+     * datacenter.
+     *
+     * @return the index or {@code null} if the computers are not indexed.
+     */
+    protected ComputerIndex getComputerIndex() {
+        return null;
+    }
+
+    /**
+     * Gets the versioned model of this datacenter's arrangement. Service Provider Implementations that maintain a
+     * {@link VersionedModel} override this method so that {@link #snapshot()} does not have to walk the whole
+     * datacenter.
+     *
+     * @return the versioned model or {@code null} if the arrangement is not versioned.
+     */
+    protected VersionedModel getVersionedModel() {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public DatacenterSnapshot snapshot() {
+        VersionedModel model = getVersionedModel();
+        if (model != null) {
+            return model.snapshot();
+        }
+        return ModelSnapshot.copyOf(this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Computer getComputer(ManagedObjectId<Computer> id) {
+        ComputerIndex index = getComputerIndex();
+        if (index != null) {
+            return index.get(id);
+        }
+        for (Computer computer : getAllComputers()) {
+            if (computer.getId().equals(id)) {
+                return computer;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<Computer> getComputersByName(String name) {
+        ComputerIndex index = getComputerIndex();
+        if (index != null) {
+            return index.getByName(name);
+        }
+        Set<Computer> result = new HashSet<Computer>();
+        for (Computer computer : getAllComputers()) {
+            if (name == null ? computer.getName() == null : name.equals(computer.getName())) {
+                result.add(computer);
+            }
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<Computer> getComputersByState(PowerState state) {
+        ComputerIndex index = getComputerIndex();
+        if (index != null) {
+            return index.getByState(state);
+        }
+        Set<Computer> result = new HashSet<Computer>();
+        for (Computer computer : getAllComputers()) {
+            if (computer.getState() == state) {
+                result.add(computer);
+            }
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<Computer> getComputersByHost(Host host) {
+        ComputerIndex index = getComputerIndex();
+        if (index != null) {
+            return index.getByHost(host);
+        }
+        Set<Computer> result = new HashSet<Computer>();
+        for (Computer computer : getAllComputers()) {
+            if (host.equals(computer.getHost())) {
+                result.add(computer);
+            }
+        }
+        return Collections.unmodifiableSet(result);
     }
 
     /**
      * {@inheritDoc}
      */
     public Set<DatacenterResourceGroup> getAllDatacenterResourceGroups() {
-        Set<DatacenterResourceGroup> result = new HashSet<DatacenterResourceGroup>(getDatacenterResourceGroups());
+        Set<DatacenterResourceGroup> result = aggregates.get("allDatacenterResourceGroups");
+        if (result != null) {
+            return result;
+        }
+        long version = aggregates.getVersion();
+        boolean cacheable = aggregates.isEnabled();
+        result = new HashSet<DatacenterResourceGroup>(getDatacenterResourceGroups());
         for (DatacenterResourceGroup group : getDatacenterResourceGroups()) {
+            cacheable = cacheable && aggregates.dependOn(group);
             result.addAll(group.getAllDatacenterResourceGroups());
         }
-        return result;
+        return aggregates.put("allDatacenterResourceGroups", version, result, cacheable);
     }
 
     /**
      * {@inheritDoc}
      */
     public Set<HostResourceGroup> getAllHostResourceGroups() {
-        Set<HostResourceGroup> result = new HashSet<HostResourceGroup>();
+        Set<HostResourceGroup> result = aggregates.get("allHostResourceGroups");
+        if (result != null) {
+            return result;
+        }
+        long version = aggregates.getVersion();
+        boolean cacheable = aggregates.isEnabled();
+        result = new HashSet<HostResourceGroup>();
         for (DatacenterResourceGroup group : getDatacenterResourceGroups()) {
+            cacheable = cacheable && aggregates.dependOn(group);
             result.addAll(group.getAllHostResourceGroups());
         }
         for (Host host : getHosts()) {
+            cacheable = cacheable && aggregates.dependOn(host);
             result.addAll(host.getAllHostResourceGroups());
         }
-        return result;
+        return aggregates.put("allHostResourceGroups", version, result, cacheable);
     }
 
     /**
@@ -192,6 +359,44 @@ public abstract class AbstractDatacenter
         return result == null ? Collections.<Class<? extends Command>>emptySet() : result;
     }
 
+    /**
+     * Starts each computer of a batch with its own {@link StartComputer}, for datacenters that cannot start a number of
+     * computers with one request. A few tasks, given to {@link #dispatch(Runnable)}, share the computers between them,
+     * so that computers which start synchronously are still started in parallel, without a thread for each.
+     *
+     * @param batch the computers to start.
+     */
+    protected final void startEach(StartComputers batch) {
+        StartDispatcher dispatcher = new StartDispatcher(batch, log);
+        batch.setSubmitted(dispatcher.getResult());
+        for (int i = dispatcher.getConcurrency(); i > 0; i--) {
+            dispatch(dispatcher);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Batch executeAll(Batch batch) {
+        BatchDispatcher dispatcher = new BatchDispatcher(batch, log);
+        batch.setSubmitted(dispatcher.getResult());
+        dispatch(dispatcher);
+        return batch;
+    }
+
+    /**
+     * Runs a task that executes commands on behalf of the caller: the commands of a {@link Batch}, or some of the
+     * computers of a {@link StartComputers}. The task may wait until its commands have completed, so it must not be run on a thread
+     * that the commands themselves depend on. By default the task is given a daemon thread of its own.
+     *
+     * @param dispatcher the task.
+     */
+    protected void dispatch(Runnable dispatcher) {
+        Thread thread = new Thread(dispatcher, "vcc-batch-" + getId());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -17,10 +17,35 @@ import java.util.Set;
 public abstract class AbstractDatacenterResourceGroup
         extends AbstractManagedObject<DatacenterResourceGroup>
         implements DatacenterResourceGroup {
+
+    private final AggregateCache aggregates = new AggregateCache(isCachingAggregates());
+
     protected AbstractDatacenterResourceGroup(ManagedObjectId<DatacenterResourceGroup> resourceGroupManagedObjectId) {
         super(resourceGroupManagedObjectId);
     }
 
+    /**
+     * Checks if this object keeps its recursive aggregates, such as {@code getAllComputers()}, between calls. A Service
+     * Provider Implementation that returns {@code true} must call {@link #invalidateAggregates()} whenever one of its
+     * direct children is added or removed. This is called once, while the object is being constructed.
+     *
+     * @return {@code true} if this object keeps its recursive aggregates.
+     */
+    protected boolean isCachingAggregates() {
+        return false;
+    }
+
+    /**
+     * Drops the recursive aggregates of this object and of every object above it whose aggregates were built from them.
+     */
+    protected final void invalidateAggregates() {
+        aggregates.invalidate();
+    }
+
+    AggregateCache getAggregateCache() {
+        return aggregates;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -46,64 +71,102 @@ public abstract class AbstractDatacenterResourceGroup
      * {@inheritDoc}
      */
     public Set<Computer> getAllComputers() {
-        Set<Computer> result = new HashSet<Computer>();
+        Set<Computer> result = aggregates.get("allComputers");
+        if (result != null) {
+            return result;
+        }
+        long version = aggregates.getVersion();
+        boolean cacheable = aggregates.isEnabled();
+        result = new HashSet<Computer>();
         for (DatacenterResourceGroup group : getDatacenterResourceGroups()) {
+            cacheable = cacheable && aggregates.dependOn(group);
             result.addAll(group.getAllComputers());
         }
         for (Host host : getHosts()) {
+            cacheable = cacheable && aggregates.dependOn(host);
             result.addAll(host.getAllComputers());
         }
-        return result;
+        return aggregates.put("allComputers", version, result, cacheable);
     }
 
     /**
      * {@inheritDoc}
      */
     public Set<ComputerTemplate> getAllComputerTemplates() {
-        Set<ComputerTemplate> result = new HashSet<ComputerTemplate>(getComputerTemplates());
+        Set<ComputerTemplate> result = aggregates.get("allComputerTemplates");
+        if (result != null) {
+            return result;
+        }
+        long version = aggregates.getVersion();
+        boolean cacheable = aggregates.isEnabled();
+        result = new HashSet<ComputerTemplate>(getComputerTemplates());
         for (DatacenterResourceGroup group : getDatacenterResourceGroups()) {
+            cacheable = cacheable && aggregates.dependOn(group);
             result.addAll(group.getAllComputerTemplates());
         }
         for (Host host : getHosts()) {
+            cacheable = cacheable && aggregates.dependOn(host);
             result.addAll(host.getAllComputerTemplates());
         }
-        return result;
+        return aggregates.put("allComputerTemplates", version, result, cacheable);
     }
 
     /**
      * {@inheritDoc}
      */
     public Set<Host> getAllHosts() {
-        Set<Host> result = new HashSet<Host>(getHosts());
+        Set<Host> result = aggregates.get("allHosts");
+        if (result != null) {
+            return result;
+        }
+        long version = aggregates.getVersion();
+        boolean cacheable = aggregates.isEnabled();
+        result = new HashSet<Host>(getHosts());
         for (DatacenterResourceGroup group : getDatacenterResourceGroups()) {
+            cacheable = cacheable && aggregates.dependOn(group);
             result.addAll(group.getAllHosts());
         }
-        return result;
+        return aggregates.put("allHosts", version, result, cacheable);
     }
 
     /**
      * {@inheritDoc}
      */
     public Set<HostResourceGroup> getAllHostResourceGroups() {
-        Set<HostResourceGroup> result = new HashSet<HostResourceGroup>();
+        Set<HostResourceGroup> result = aggregates.get("allHostResourceGroups");
+        if (result != null) {
+            return result;
+        }
+        long version = aggregates.getVersion();
+        boolean cacheable = aggregates.isEnabled();
+        result = new HashSet<HostResourceGroup>();
         for (DatacenterResourceGroup group : getDatacenterResourceGroups()) {
+            cacheable = cacheable && aggregates.dependOn(group);
             result.addAll(group.getAllHostResourceGroups());
         }
         for (Host host : getHosts()) {
+            cacheable = cacheable && aggregates.dependOn(host);
             result.addAll(host.getAllHostResourceGroups());
         }
-        return result;
+        return aggregates.put("allHostResourceGroups", version, result, cacheable);
     }
 
     /**
      * {@inheritDoc}
      */
     public Set<DatacenterResourceGroup> getAllDatacenterResourceGroups() {
-        Set<DatacenterResourceGroup> result = new HashSet<DatacenterResourceGroup>(getDatacenterResourceGroups());
+        Set<DatacenterResourceGroup> result = aggregates.get("allDatacenterResourceGroups");
+        if (result != null) {
+            return result;
+        }
+        long version = aggregates.getVersion();
+        boolean cacheable = aggregates.isEnabled();
+        result = new HashSet<DatacenterResourceGroup>(getDatacenterResourceGroups());
         for (DatacenterResourceGroup group : getDatacenterResourceGroups()) {
+            cacheable = cacheable && aggregates.dependOn(group);
             result.addAll(group.getAllDatacenterResourceGroups());
         }
-        return result;
+        return aggregates.put("allDatacenterResourceGroups", version, result, cacheable);
     }
 
 
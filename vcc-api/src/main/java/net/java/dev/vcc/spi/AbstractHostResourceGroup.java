@@ -15,10 +15,35 @@ import java.util.Set;
 public abstract class AbstractHostResourceGroup
         extends AbstractManagedObject<HostResourceGroup>
         implements HostResourceGroup {
+
+    private final AggregateCache aggregates = new AggregateCache(isCachingAggregates());
+
     protected AbstractHostResourceGroup(ManagedObjectId<HostResourceGroup> resourceGroupManagedObjectId) {
         super(resourceGroupManagedObjectId);
     }
 
+    /**
+     * Checks if this object keeps its recursive aggregates, such as {@code getAllComputers()}, between calls. A Service
+     * Provider Implementation that returns {@code true} must call {@link #invalidateAggregates()} whenever one of its
+     * direct children is added or removed. This is called once, while the object is being constructed.
+     *
+     * @return {@code true} if this object keeps its recursive aggregates.
+     */
+    protected boolean isCachingAggregates() {
+        return false;
+    }
+
+    /**
+     * Drops the recursive aggregates of this object and of every object above it whose aggregates were built from them.
+     */
+    protected final void invalidateAggregates() {
+        aggregates.invalidate();
+    }
+
+    AggregateCache getAggregateCache() {
+        return aggregates;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -44,33 +69,54 @@ public abstract class AbstractHostResourceGroup
      * {@inheritDoc}
      */
     public Set<ComputerTemplate> getAllComputerTemplates() {
-        Set<ComputerTemplate> result = new HashSet<ComputerTemplate>(getComputerTemplates());
+        Set<ComputerTemplate> result = aggregates.get("allComputerTemplates");
+        if (result != null) {
+            return result;
+        }
+        long version = aggregates.getVersion();
+        boolean cacheable = aggregates.isEnabled();
+        result = new HashSet<ComputerTemplate>(getComputerTemplates());
         for (HostResourceGroup group : getHostResourceGroups()) {
+            cacheable = cacheable && aggregates.dependOn(group);
             result.addAll(group.getAllComputerTemplates());
         }
-        return result;
+        return aggregates.put("allComputerTemplates", version, result, cacheable);
     }
 
     /**
      * {@inheritDoc}
      */
     public Set<HostResourceGroup> getAllHostResourceGroups() {
-        Set<HostResourceGroup> result = new HashSet<HostResourceGroup>(getHostResourceGroups());
+        Set<HostResourceGroup> result = aggregates.get("allHostResourceGroups");
+        if (result != null) {
+            return result;
+        }
+        long version = aggregates.getVersion();
+        boolean cacheable = aggregates.isEnabled();
+        result = new HashSet<HostResourceGroup>(getHostResourceGroups());
         for (HostResourceGroup group : getHostResourceGroups()) {
+            cacheable = cacheable && aggregates.dependOn(group);
             result.addAll(group.getAllHostResourceGroups());
         }
-        return result;
+        return aggregates.put("allHostResourceGroups", version, result, cacheable);
     }
 
     /**
      * {@inheritDoc}
      */
     public Set<Computer> getAllComputers() {
-        Set<Computer> result = new HashSet<Computer>(getComputers());
+        Set<Computer> result = aggregates.get("allComputers");
+        if (result != null) {
+            return result;
+        }
+        long version = aggregates.getVersion();
+        boolean cacheable = aggregates.isEnabled();
+        result = new HashSet<Computer>(getComputers());
         for (HostResourceGroup group : getHostResourceGroups()) {
+            cacheable = cacheable && aggregates.dependOn(group);
             result.addAll(group.getAllComputers());
         }
-        return result;
+        return aggregates.put("allComputers", version, result, cacheable);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,145 @@
+package net.java.dev.vcc.spi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Holds the recursive aggregates, such as {@code getAllComputers()}, of a container in the model. An aggregate is only
+ * kept if every container it was built from keeps its aggregates too, since only those containers say when they
+ * change. When a container changes, its aggregates are dropped along with those of every container that was built
+ * from it, which is the path from the container up to the root.
+ * <p/>
+ * All methods are thread safe. An aggregate that was being built while a container it depends on changed is returned
+ * but not kept.
+ */
+final class AggregateCache {
+
+    /**
+     * Whether the container keeps its aggregates.
+     */
+    private final boolean enabled;
+
+    private final Map<String, Set<?>> values = new HashMap<String, Set<?>>();
+
+    /**
+     * The caches of the containers whose aggregates were built from this container's.
+     */
+    private final Map<AggregateCache, Boolean> dependents = new WeakHashMap<AggregateCache, Boolean>();
+
+    /**
+     * Incremented whenever the aggregates are dropped.
+     */
+    private long version = 0;
+
+    AggregateCache(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Gets a kept aggregate.
+     *
+     * @param key the name of the aggregate.
+     * @param <T> the type of the aggregate's members.
+     *
+     * @return the aggregate or {@code null} if it has not been kept.
+     */
+    @SuppressWarnings("unchecked")
+    synchronized <T> Set<T> get(String key) {
+        return (Set<T>) values.get(key);
+    }
+
+    /**
+     * Gets the version to pass to {@link #put(String, long, Set, boolean)} once an aggregate has been built.
+     *
+     * @return the current version.
+     */
+    synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Checks if this container keeps its aggregates.
+     *
+     * @return {@code true} if this container keeps its aggregates.
+     */
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records that an aggregate of this container is being built from a child container.
+     *
+     * @param child the child container.
+     *
+     * @return {@code true} if the child keeps its aggregates and will say when it changes.
+     */
+    boolean dependOn(Object child) {
+        AggregateCache childCache = of(child);
+        if (childCache == null || !childCache.enabled) {
+            return false;
+        }
+        childCache.addDependent(this);
+        return true;
+    }
+
+    /**
+     * Keeps an aggregate, provided it can be kept and nothing it depends on has changed since it was started.
+     *
+     * @param key       the name of the aggregate.
+     * @param version   the version when the aggregate was started.
+     * @param value     the aggregate.
+     * @param cacheable {@code true} if every container the aggregate was built from keeps its aggregates.
+     * @param <T>       the type of the aggregate's members.
+     *
+     * @return the aggregate, unmodifiable if it was kept.
+     */
+    synchronized <T> Set<T> put(String key, long version, Set<T> value, boolean cacheable) {
+        if (!enabled || !cacheable) {
+            return value;
+        }
+        Set<T> result = Collections.unmodifiableSet(value);
+        if (version == this.version) {
+            values.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Drops the aggregates of this container and of every container that was built from it.
+     */
+    void invalidate() {
+        List<AggregateCache> toInvalidate;
+        synchronized (this) {
+            version++;
+            values.clear();
+            toInvalidate = new ArrayList<AggregateCache>(dependents.keySet());
+            dependents.clear();
+        }
+        // outside our lock so that locks are only ever taken one at a time
+        for (AggregateCache dependent : toInvalidate) {
+            dependent.invalidate();
+        }
+    }
+
+    private synchronized void addDependent(AggregateCache dependent) {
+        dependents.put(dependent, Boolean.TRUE);
+    }
+
+    private static AggregateCache of(Object container) {
+        if (container instanceof AbstractHost) {
+            return ((AbstractHost) container).getAggregateCache();
+        } else if (container instanceof AbstractHostResourceGroup) {
+            return ((AbstractHostResourceGroup) container).getAggregateCache();
+        } else if (container instanceof AbstractDatacenterResourceGroup) {
+            return ((AbstractDatacenterResourceGroup) container).getAggregateCache();
+        } else if (container instanceof AbstractDatacenter) {
+            return ((AbstractDatacenter) container).getAggregateCache();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,164 @@
+package net.java.dev.vcc.spi;
+
+import net.java.dev.vcc.api.Command;
+import net.java.dev.vcc.api.Log;
+import net.java.dev.vcc.api.ManagedObject;
+import net.java.dev.vcc.api.Success;
+import net.java.dev.vcc.api.commands.Batch;
+import net.java.dev.vcc.util.CompletedFuture;
+import net.java.dev.vcc.util.CompositeFuture;
+import net.java.dev.vcc.util.FutureReference;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes the commands of a {@link Batch} one after another, waiting before each one for as long as the batch's
+ * concurrency and rate limits require, and then completes the batch once all its commands have completed.
+ */
+final class BatchDispatcher implements Runnable {
+
+    /**
+     * How often to check the outstanding commands that cannot say when they complete.
+     */
+    private static final long POLL_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Batch batch;
+
+    private final Log log;
+
+    private final FutureReference<Success> result = new FutureReference<Success>();
+
+    /**
+     * The commands that have said they completed, which the dispatcher has not yet counted.
+     */
+    private final BlockingQueue<Command<?>> completed = new LinkedBlockingQueue<Command<?>>();
+
+    /**
+     * The outstanding commands that cannot say when they complete, which the dispatcher checks itself.
+     */
+    private final List<Command<?>> unobserved = new ArrayList<Command<?>>();
+
+    private int outstanding = 0;
+
+    BatchDispatcher(Batch batch, Log log) {
+        this.batch = batch;
+        this.log = log;
+    }
+
+    /**
+     * Gets the future that completes once all the commands of the batch have completed.
+     *
+     * @return the future result of the batch.
+     */
+    FutureReference<Success> getResult() {
+        return result;
+    }
+
+    public void run() {
+        List<Command<?>> commands = batch.getCommands();
+        int maxConcurrent = batch.getMaxConcurrent();
+        long interval = batch.getMaxRate() > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / batch.getMaxRate()) : 0;
+        long next = System.nanoTime();
+        int index = 0;
+        try {
+            for (; index < commands.size(); index++) {
+                if (maxConcurrent > 0) {
+                    while (outstanding >= maxConcurrent) {
+                        awaitAny();
+                    }
+                }
+                if (interval > 0) {
+                    long delay = next - System.nanoTime();
+                    if (delay > 0) {
+                        TimeUnit.NANOSECONDS.sleep(delay);
+                    }
+                    next = Math.max(next, System.nanoTime()) + interval;
+                }
+                final Command<?> command = commands.get(index);
+                execute(batch.getTarget(command), command);
+                outstanding++;
+                boolean observed = command.whenDone(new Runnable() {
+                    public void run() {
+                        completed.add(command);
+                    }
+                });
+                if (!observed) {
+                    unobserved.add(command);
+                }
+            }
+            while (outstanding > 0) {
+                awaitAny();
+            }
+            result.set(new CompositeFuture(commands).get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abandonFrom(commands, index, e);
+            result.set("Interrupted while executing the batch", e);
+        } catch (ExecutionException e) {
+            result.set(e.getMessage(), e.getCause());
+        } catch (RuntimeException e) {
+            log.error(e, "Could not execute the batch: {0}", e.getMessage());
+            abandonFrom(commands, index, e);
+            result.set(e.getMessage(), e);
+        }
+    }
+
+    private void execute(ManagedObject<?> target, Command<?> command) {
+        try {
+            target.execute(command);
+        } catch (RuntimeException e) {
+            log.debug("Could not execute {0} against {1}: {2}", command, target.getName(), e.getMessage());
+            abandon(command, e);
+        }
+        if (!command.isSubmitted()) {
+            abandon(command, new UnsupportedOperationException(target.getName() + " did not execute the command"));
+        }
+    }
+
+    private static void abandonFrom(List<Command<?>> commands, int index, Exception reason) {
+        for (int i = index; i < commands.size(); i++) {
+            abandon(commands.get(i), reason);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void abandon(Command command, Exception reason) {
+        if (!command.isSubmitted()) {
+            command.setSubmitted(new CompletedFuture(reason.getMessage(), reason));
+        }
+    }
+
+    /**
+     * Waits until at least one of the outstanding commands has completed, and counts those that have.
+     *
+     * @throws InterruptedException if the calling thread was interrupted while waiting.
+     */
+    private void awaitAny() throws InterruptedException {
+        while (true) {
+            Command<?> command = unobserved.isEmpty()
+                    ? completed.take()
+                    : completed.poll(POLL_INTERVAL, TimeUnit.NANOSECONDS);
+            int count = 0;
+            while (command != null) {
+                count++;
+                command = completed.poll();
+            }
+            for (Iterator<Command<?>> i = unobserved.iterator(); i.hasNext();) {
+                if (i.next().isDone()) {
+                    i.remove();
+                    count++;
+                }
+            }
+            if (count > 0) {
+                outstanding -= count;
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package net.java.dev.vcc.spi;
+
+import net.java.dev.vcc.api.ManagedObject;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The immutable set of the direct children of a container, backed by a {@link HashTrie} so that the set with one child
+ * more or less shares almost all of its structure with this one.
+ */
+final class ChildSet extends AbstractSet<ManagedObject<?>> {
+
+    private static final ChildSet EMPTY = new ChildSet(HashTrie.<ManagedObject<?>, Boolean>empty());
+
+    private final HashTrie<ManagedObject<?>, Boolean> members;
+
+    private ChildSet(HashTrie<ManagedObject<?>, Boolean> members) {
+        this.members = members;
+    }
+
+    /**
+     * Gets the empty set.
+     *
+     * @return the empty set.
+     */
+    static ChildSet empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Gets a set with the same children as a collection.
+     *
+     * @param children the children.
+     *
+     * @return the set.
+     */
+    static ChildSet copyOf(Collection<? extends ManagedObject<?>> children) {
+        if (children instanceof ChildSet) {
+            return (ChildSet) children;
+        }
+        ChildSet result = EMPTY;
+        for (ManagedObject<?> child : children) {
+            result = result.with(child);
+        }
+        return result;
+    }
+
+    /**
+     * Makes a copy with a child added.
+     *
+     * @param child the child.
+     *
+     * @return the changed copy, or this set if it already contains the child.
+     */
+    ChildSet with(ManagedObject<?> child) {
+        HashTrie<ManagedObject<?>, Boolean> result = members.with(child, Boolean.TRUE);
+        return result == members ? this : new ChildSet(result);
+    }
+
+    /**
+     * Makes a copy with a child removed.
+     *
+     * @param child the child.
+     *
+     * @return the changed copy, or this set if it does not contain the child.
+     */
+    ChildSet without(ManagedObject<?> child) {
+        HashTrie<ManagedObject<?>, Boolean> result = members.without(child);
+        return result == members ? this : new ChildSet(result);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o != null && members.get(o) != null;
+    }
+
+    @Override
+    public int size() {
+        return members.size();
+    }
+
+    @Override
+    public Iterator<ManagedObject<?>> iterator() {
+        final Iterator<Map.Entry<ManagedObject<?>, Boolean>> entries = members.iterator();
+        return new Iterator<ManagedObject<?>>() {
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            public ManagedObject<?> next() {
+                return entries.next().getKey();
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
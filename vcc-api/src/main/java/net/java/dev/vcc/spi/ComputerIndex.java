@@ -0,0 +1,207 @@
+package net.java.dev.vcc.spi;
+
+import net.java.dev.vcc.api.Computer;
+import net.java.dev.vcc.api.Host;
+import net.java.dev.vcc.api.ManagedObjectId;
+import net.java.dev.vcc.api.PowerState;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Indexes the computers of a datacenter by ID, name, power state and host, so that lookups do not have to walk the
+ * whole datacenter. A Service Provider Implementation that maintains an index returns it from {@link
+ * AbstractDatacenter#getComputerIndex()} and tells it about every change to its computers.
+ * <p/>
+ * The index never calls the computers it holds, so it can be updated while holding a computer's lock. All methods are
+ * thread safe.
+ */
+public final class ComputerIndex {
+
+    private final Map<ManagedObjectId<Computer>, Entry> entries = new HashMap<ManagedObjectId<Computer>, Entry>();
+
+    private final Map<String, Set<Computer>> byName = new HashMap<String, Set<Computer>>();
+
+    private final Map<PowerState, Set<Computer>> byState = new EnumMap<PowerState, Set<Computer>>(PowerState.class);
+
+    private final Map<Host, Set<Computer>> byHost = new HashMap<Host, Set<Computer>>();
+
+    /**
+     * Adds a computer to the index, replacing any computer with the same ID.
+     *
+     * @param computer the computer.
+     * @param name     the name of the computer.
+     * @param state    the power state of the computer.
+     * @param host     the host of the computer or {@code null} if it is not known.
+     */
+    public synchronized void add(Computer computer, String name, PowerState state, Host host) {
+        remove(computer.getId());
+        Entry entry = new Entry(computer, name, state, host);
+        entries.put(computer.getId(), entry);
+        put(byName, name, computer);
+        put(byState, state, computer);
+        put(byHost, host, computer);
+    }
+
+    /**
+     * Removes a computer from the index.
+     *
+     * @param id the ID of the computer.
+     */
+    public synchronized void remove(ManagedObjectId<Computer> id) {
+        Entry entry = entries.remove(id);
+        if (entry != null) {
+            remove(byName, entry.name, entry.computer);
+            remove(byState, entry.state, entry.computer);
+            remove(byHost, entry.host, entry.computer);
+        }
+    }
+
+    /**
+     * Records that a computer has been renamed.
+     *
+     * @param id   the ID of the computer.
+     * @param name the new name of the computer.
+     */
+    public synchronized void setName(ManagedObjectId<Computer> id, String name) {
+        Entry entry = entries.get(id);
+        if (entry != null && !eq(entry.name, name)) {
+            remove(byName, entry.name, entry.computer);
+            entry.name = name;
+            put(byName, name, entry.computer);
+        }
+    }
+
+    /**
+     * Records that the power state of a computer has changed.
+     *
+     * @param id    the ID of the computer.
+     * @param state the new power state of the computer.
+     */
+    public synchronized void setState(ManagedObjectId<Computer> id, PowerState state) {
+        Entry entry = entries.get(id);
+        if (entry != null && entry.state != state) {
+            remove(byState, entry.state, entry.computer);
+            entry.state = state;
+            put(byState, state, entry.computer);
+        }
+    }
+
+    /**
+     * Records that a computer has moved to another host.
+     *
+     * @param id   the ID of the computer.
+     * @param host the new host of the computer or {@code null} if it is not known.
+     */
+    public synchronized void setHost(ManagedObjectId<Computer> id, Host host) {
+        Entry entry = entries.get(id);
+        if (entry != null && !eq(entry.host, host)) {
+            remove(byHost, entry.host, entry.computer);
+            entry.host = host;
+            put(byHost, host, entry.computer);
+        }
+    }
+
+    /**
+     * Gets a computer by ID.
+     *
+     * @param id the ID of the computer.
+     *
+     * @return the computer or {@code null} if it is not in the index.
+     */
+    public synchronized Computer get(ManagedObjectId<Computer> id) {
+        Entry entry = entries.get(id);
+        return entry == null ? null : entry.computer;
+    }
+
+    /**
+     * Gets the computers with a name.
+     *
+     * @param name the name.
+     *
+     * @return the computers with the name.
+     */
+    public synchronized Set<Computer> getByName(String name) {
+        return copyOf(byName.get(name));
+    }
+
+    /**
+     * Gets the computers in a power state.
+     *
+     * @param state the power state.
+     *
+     * @return the computers in the power state.
+     */
+    public synchronized Set<Computer> getByState(PowerState state) {
+        return copyOf(byState.get(state));
+    }
+
+    /**
+     * Gets the computers on a host.
+     *
+     * @param host the host.
+     *
+     * @return the computers on the host.
+     */
+    public synchronized Set<Computer> getByHost(Host host) {
+        return copyOf(byHost.get(host));
+    }
+
+    /**
+     * Gets the number of computers in the index.
+     *
+     * @return the number of computers in the index.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static <K> void put(Map<K, Set<Computer>> index, K key, Computer computer) {
+        if (key == null) {
+            return;
+        }
+        Set<Computer> computers = index.get(key);
+        if (computers == null) {
+            index.put(key, computers = new HashSet<Computer>());
+        }
+        computers.add(computer);
+    }
+
+    private static <K> void remove(Map<K, Set<Computer>> index, K key, Computer computer) {
+        if (key == null) {
+            return;
+        }
+        Set<Computer> computers = index.get(key);
+        if (computers != null && computers.remove(computer) && computers.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    private static Set<Computer> copyOf(Set<Computer> computers) {
+        return computers == null
+                ? Collections.<Computer>emptySet()
+                : Collections.unmodifiableSet(new HashSet<Computer>(computers));
+    }
+
+    private static boolean eq(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static final class Entry {
+        private final Computer computer;
+        private String name;
+        private PowerState state;
+        private Host host;
+
+        private Entry(Computer computer, String name, PowerState state, Host host) {
+            this.computer = computer;
+            this.name = name;
+            this.state = state;
+            this.host = host;
+        }
+    }
+}
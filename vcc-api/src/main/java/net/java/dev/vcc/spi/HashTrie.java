@@ -0,0 +1,333 @@
+package net.java.dev.vcc.spi;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable hash array mapped trie. A changed copy shares every node that did not change with the original, so
+ * adding or removing a key costs in proportion to the depth of the trie, which grows with the logarithm, base 32, of
+ * its size, rather than to its size.
+ *
+ * @param <K> the type of the keys.
+ * @param <V> the type of the values.
+ */
+final class HashTrie<K, V> implements Iterable<Map.Entry<K, V>> {
+
+    private static final int BITS = 5;
+
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final Node EMPTY_NODE = new Node(0, new Object[0]);
+
+    @SuppressWarnings("unchecked")
+    private static final HashTrie EMPTY = new HashTrie(EMPTY_NODE, 0);
+
+    private final Node root;
+
+    private final int size;
+
+    private HashTrie(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Gets the empty trie.
+     *
+     * @param <K> the type of the keys.
+     * @param <V> the type of the values.
+     *
+     * @return the empty trie.
+     */
+    @SuppressWarnings("unchecked")
+    static <K, V> HashTrie<K, V> empty() {
+        return (HashTrie<K, V>) EMPTY;
+    }
+
+    /**
+     * Gets the number of keys.
+     *
+     * @return the number of keys.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets the value of a key.
+     *
+     * @param key the key.
+     *
+     * @return the value, or {@code null} if the key is not in the trie.
+     */
+    @SuppressWarnings("unchecked")
+    V get(Object key) {
+        int hash = hashOf(key);
+        Node node = root;
+        for (int shift = 0; ; shift += BITS) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((node.bitmap & bit) == 0) {
+                return null;
+            }
+            Object slot = node.slots[node.indexOf(bit)];
+            if (slot instanceof Node) {
+                node = (Node) slot;
+                continue;
+            }
+            for (Leaf leaf = (Leaf) slot; leaf != null; leaf = leaf.next) {
+                if (leaf.hash == hash && leaf.key.equals(key)) {
+                    return (V) leaf.value;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Makes a copy with a key set to a value.
+     *
+     * @param key   the key.
+     * @param value the value, or {@code null} to remove the key.
+     *
+     * @return the changed copy, or this trie if it already maps the key to the value.
+     */
+    HashTrie<K, V> with(K key, V value) {
+        if (value == null) {
+            return without(key);
+        }
+        int[] added = new int[1];
+        Node result = root.with(0, new Leaf(hashOf(key), key, value, null), added);
+        return result == root ? this : new HashTrie<K, V>(result, size + added[0]);
+    }
+
+    /**
+     * Makes a copy without a key.
+     *
+     * @param key the key.
+     *
+     * @return the changed copy, or this trie if it does not contain the key.
+     */
+    HashTrie<K, V> without(Object key) {
+        Node result = root.without(0, hashOf(key), key);
+        return result == root ? this : new HashTrie<K, V>(result, size - 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Iterator<Map.Entry<K, V>> iterator() {
+        return new Walker<K, V>(root);
+    }
+
+    private static int hashOf(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+
+    /**
+     * A key and its value, followed by any other keys with the same hash.
+     */
+    private static final class Leaf {
+        private final int hash;
+
+        private final Object key;
+
+        private final Object value;
+
+        private final Leaf next;
+
+        private Leaf(int hash, Object key, Object value, Leaf next) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+
+        private Leaf with(Leaf leaf, int[] added) {
+            if (key.equals(leaf.key)) {
+                return value == leaf.value ? this : new Leaf(hash, key, leaf.value, next);
+            }
+            if (next == null) {
+                added[0] = 1;
+                return new Leaf(hash, key, value, new Leaf(hash, leaf.key, leaf.value, null));
+            }
+            Leaf rest = next.with(leaf, added);
+            return rest == next ? this : new Leaf(hash, key, value, rest);
+        }
+
+        private Leaf without(Object key) {
+            if (this.key.equals(key)) {
+                return next;
+            }
+            if (next == null) {
+                return this;
+            }
+            Leaf rest = next.without(key);
+            return rest == next ? this : new Leaf(hash, this.key, value, rest);
+        }
+    }
+
+    /**
+     * Up to 32 slots, one for each value of the next five bits of the hash, holding either a leaf or a node below.
+     * Only the slots in use are stored; the bitmap records which they are.
+     */
+    private static final class Node {
+        private final int bitmap;
+
+        private final Object[] slots;
+
+        private Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        private int indexOf(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        private Node with(int shift, Leaf leaf, int[] added) {
+            int bit = 1 << ((leaf.hash >>> shift) & MASK);
+            int index = indexOf(bit);
+            if ((bitmap & bit) == 0) {
+                added[0] = 1;
+                Object[] result = new Object[slots.length + 1];
+                System.arraycopy(slots, 0, result, 0, index);
+                result[index] = leaf;
+                System.arraycopy(slots, index, result, index + 1, slots.length - index);
+                return new Node(bitmap | bit, result);
+            }
+            Object slot = slots[index];
+            Object replacement;
+            if (slot instanceof Node) {
+                replacement = ((Node) slot).with(shift + BITS, leaf, added);
+            } else if (((Leaf) slot).hash == leaf.hash) {
+                replacement = ((Leaf) slot).with(leaf, added);
+            } else {
+                added[0] = 1;
+                replacement = merge(shift + BITS, (Leaf) slot, leaf);
+            }
+            if (replacement == slot) {
+                return this;
+            }
+            Object[] result = slots.clone();
+            result[index] = replacement;
+            return new Node(bitmap, result);
+        }
+
+        private Node without(int shift, int hash, Object key) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int index = indexOf(bit);
+            Object slot = slots[index];
+            Object replacement;
+            if (slot instanceof Node) {
+                Node node = ((Node) slot).without(shift + BITS, hash, key);
+                if (node == slot) {
+                    return this;
+                }
+                // a node left with a single leaf is replaced by the leaf, so that the trie stays as shallow as it can
+                replacement = node.slots.length == 0 ? null
+                        : node.slots.length == 1 && node.slots[0] instanceof Leaf ? node.slots[0]
+                        : node;
+            } else if (((Leaf) slot).hash == hash) {
+                replacement = ((Leaf) slot).without(key);
+            } else {
+                return this;
+            }
+            if (replacement == slot) {
+                return this;
+            }
+            if (replacement != null) {
+                Object[] result = slots.clone();
+                result[index] = replacement;
+                return new Node(bitmap, result);
+            }
+            if (slots.length == 1) {
+                return EMPTY_NODE;
+            }
+            Object[] result = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, result, 0, index);
+            System.arraycopy(slots, index + 1, result, index, slots.length - index - 1);
+            return new Node(bitmap & ~bit, result);
+        }
+
+        private static Node merge(int shift, Leaf one, Leaf two) {
+            int oneIndex = (one.hash >>> shift) & MASK;
+            int twoIndex = (two.hash >>> shift) & MASK;
+            if (oneIndex == twoIndex) {
+                return new Node(1 << oneIndex, new Object[]{merge(shift + BITS, one, two)});
+            }
+            // compare the positions rather than the bits, as the bit for position 31 is negative
+            return new Node((1 << oneIndex) | (1 << twoIndex),
+                    oneIndex < twoIndex ? new Object[]{one, two} : new Object[]{two, one});
+        }
+    }
+
+    /**
+     * Walks the leaves of a trie, depth first.
+     */
+    private static final class Walker<K, V> implements Iterator<Map.Entry<K, V>> {
+        /**
+         * The slots of the nodes on the path to the next leaf, deepest last. A trie of ints is never more than seven
+         * nodes deep.
+         */
+        private final Object[][] path = new Object[8][];
+
+        private final int[] positions = new int[8];
+
+        private int depth = 0;
+
+        private Leaf next;
+
+        private Walker(Node root) {
+            path[0] = root.slots;
+            advance();
+        }
+
+        private void advance() {
+            if (next != null && next.next != null) {
+                next = next.next;
+                return;
+            }
+            next = null;
+            while (depth >= 0) {
+                if (positions[depth] == path[depth].length) {
+                    depth--;
+                    continue;
+                }
+                Object slot = path[depth][positions[depth]++];
+                if (slot instanceof Node) {
+                    depth++;
+                    path[depth] = ((Node) slot).slots;
+                    positions[depth] = 0;
+                } else {
+                    next = (Leaf) slot;
+                    return;
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<K, V> result = new AbstractMap.SimpleImmutableEntry<K, V>((K) next.key, (V) next.value);
+            advance();
+            return result;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package net.java.dev.vcc.spi;
+
+import net.java.dev.vcc.api.Computer;
+import net.java.dev.vcc.api.ComputerTemplate;
+import net.java.dev.vcc.api.Datacenter;
+import net.java.dev.vcc.api.DatacenterResourceGroup;
+import net.java.dev.vcc.api.DatacenterSnapshot;
+import net.java.dev.vcc.api.Host;
+import net.java.dev.vcc.api.HostResourceGroup;
+import net.java.dev.vcc.api.ManagedObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable version of the arrangement of a datacenter. A new version shares everything that did not change with
+ * the version it was made from, down to the children of each container, so making one costs in proportion to what
+ * changed, times the logarithm of the size of the datacenter, rather than to the size of the datacenter or of any one
+ * container.
+ *
+ * @see VersionedModel
+ */
+public final class ModelSnapshot implements DatacenterSnapshot {
+
+    private final long version;
+
+    private final Datacenter datacenter;
+
+    /**
+     * The direct children of each container that has any.
+     */
+    private final HashTrie<ManagedObject<?>, ChildSet> children;
+
+    /**
+     * The container of each object.
+     */
+    private final HashTrie<ManagedObject<?>, ManagedObject<?>> parents;
+
+    /**
+     * Creates the first, empty, version of a datacenter's arrangement.
+     *
+     * @param datacenter the datacenter.
+     */
+    ModelSnapshot(Datacenter datacenter) {
+        this(0, datacenter, HashTrie.<ManagedObject<?>, ChildSet>empty(),
+                HashTrie.<ManagedObject<?>, ManagedObject<?>>empty());
+    }
+
+    private ModelSnapshot(long version, Datacenter datacenter,
+                          HashTrie<ManagedObject<?>, ChildSet> children,
+                          HashTrie<ManagedObject<?>, ManagedObject<?>> parents) {
+        this.version = version;
+        this.datacenter = datacenter;
+        this.children = children;
+        this.parents = parents;
+    }
+
+    /**
+     * Takes a snapshot of a datacenter by walking it. The snapshot is only consistent if the datacenter does not
+     * change while it is being walked.
+     *
+     * @param datacenter the datacenter.
+     *
+     * @return the snapshot, with version {@code 0}.
+     */
+    public static ModelSnapshot copyOf(Datacenter datacenter) {
+        Map<ManagedObject<?>, Set<ManagedObject<?>>> children = new HashMap<ManagedObject<?>, Set<ManagedObject<?>>>();
+        Map<ManagedObject<?>, ManagedObject<?>> parents = new HashMap<ManagedObject<?>, ManagedObject<?>>();
+        List<ManagedObject<?>> pending = new ArrayList<ManagedObject<?>>();
+        pending.add(datacenter);
+        while (!pending.isEmpty()) {
+            ManagedObject<?> container = pending.remove(pending.size() - 1);
+            Set<ManagedObject<?>> contents = new HashSet<ManagedObject<?>>();
+            if (container instanceof Datacenter) {
+                Datacenter c = (Datacenter) container;
+                contents.addAll(c.getDatacenterResourceGroups());
+                contents.addAll(c.getHosts());
+                contents.addAll(c.getComputerTemplates());
+            } else if (container instanceof DatacenterResourceGroup) {
+                DatacenterResourceGroup c = (DatacenterResourceGroup) container;
+                contents.addAll(c.getDatacenterResourceGroups());
+                contents.addAll(c.getHosts());
+                contents.addAll(c.getComputerTemplates());
+            } else if (container instanceof Host) {
+                Host c = (Host) container;
+                contents.addAll(c.getHostResourceGroups());
+                contents.addAll(c.getComputers());
+                contents.addAll(c.getComputerTemplates());
+            } else if (container instanceof HostResourceGroup) {
+                HostResourceGroup c = (HostResourceGroup) container;
+                contents.addAll(c.getHostResourceGroups());
+                contents.addAll(c.getComputers());
+                contents.addAll(c.getComputerTemplates());
+            }
+            if (contents.isEmpty()) {
+                continue;
+            }
+            children.put(container, contents);
+            for (ManagedObject<?> child : contents) {
+                if (!parents.containsKey(child)) {
+                    parents.put(child, container);
+                    pending.add(child);
+                }
+            }
+        }
+        return new ModelSnapshot(datacenter).next(children, parents);
+    }
+
+    /**
+     * Makes the next version.
+     *
+     * @param children the new children of each container whose children have changed. Sets that are not
+     *                 {@link ChildSet}s are copied.
+     * @param parents  the new container of each object whose container has changed, {@code null} if it has been
+     *                 removed.
+     *
+     * @return the next version.
+     */
+    ModelSnapshot next(Map<ManagedObject<?>, ? extends Set<ManagedObject<?>>> children,
+                       Map<ManagedObject<?>, ManagedObject<?>> parents) {
+        HashTrie<ManagedObject<?>, ChildSet> newChildren = this.children;
+        for (Map.Entry<ManagedObject<?>, ? extends Set<ManagedObject<?>>> entry : children.entrySet()) {
+            newChildren = entry.getValue().isEmpty()
+                    ? newChildren.without(entry.getKey())
+                    : newChildren.with(entry.getKey(), ChildSet.copyOf(entry.getValue()));
+        }
+        HashTrie<ManagedObject<?>, ManagedObject<?>> newParents = this.parents;
+        for (Map.Entry<ManagedObject<?>, ManagedObject<?>> entry : parents.entrySet()) {
+            newParents = newParents.with(entry.getKey(), entry.getValue());
+        }
+        return new ModelSnapshot(version + 1, datacenter, newChildren, newParents);
+    }
+
+    /**
+     * Gets the direct children of a container.
+     *
+     * @param container the container.
+     *
+     * @return the children.
+     */
+    ChildSet getChildren(ManagedObject<?> container) {
+        ChildSet result = children.get(container);
+        return result == null ? ChildSet.empty() : result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Datacenter getDatacenter() {
+        return datacenter;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ManagedObject<?> getParent(ManagedObject<?> object) {
+        return parents.get(object);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<Computer> getComputers(ManagedObject<?> container) {
+        return select(getChildren(container), Computer.class);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<ComputerTemplate> getComputerTemplates(ManagedObject<?> container) {
+        return select(getChildren(container), ComputerTemplate.class);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<Host> getHosts(ManagedObject<?> container) {
+        return select(getChildren(container), Host.class);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<HostResourceGroup> getHostResourceGroups(ManagedObject<?> container) {
+        return select(getChildren(container), HostResourceGroup.class);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<DatacenterResourceGroup> getDatacenterResourceGroups(ManagedObject<?> container) {
+        return select(getChildren(container), DatacenterResourceGroup.class);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<Computer> getAllComputers() {
+        return select(getAll(), Computer.class);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<ComputerTemplate> getAllComputerTemplates() {
+        return select(getAll(), ComputerTemplate.class);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<Host> getAllHosts() {
+        return select(getAll(), Host.class);
+    }
+
+    /**
+     * Gets every object below the datacenter.
+     *
+     * @return every object below the datacenter.
+     */
+    private Set<ManagedObject<?>> getAll() {
+        Set<ManagedObject<?>> result = new HashSet<ManagedObject<?>>();
+        List<ManagedObject<?>> pending = new ArrayList<ManagedObject<?>>();
+        pending.add(datacenter);
+        while (!pending.isEmpty()) {
+            for (ManagedObject<?> child : getChildren(pending.remove(pending.size() - 1))) {
+                if (result.add(child)) {
+                    pending.add(child);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static <T> Set<T> select(Set<ManagedObject<?>> objects, Class<T> type) {
+        Set<T> result = new HashSet<T>();
+        for (ManagedObject<?> object : objects) {
+            if (type.isInstance(object)) {
+                result.add(type.cast(object));
+            }
+        }
+        return Collections.unmodifiableSet(result);
+    }
+}
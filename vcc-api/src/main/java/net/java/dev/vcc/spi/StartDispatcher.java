@@ -0,0 +1,134 @@
+package net.java.dev.vcc.spi;
+
+import net.java.dev.vcc.api.Computer;
+import net.java.dev.vcc.api.Log;
+import net.java.dev.vcc.api.Success;
+import net.java.dev.vcc.api.commands.StartComputer;
+import net.java.dev.vcc.api.commands.StartComputers;
+import net.java.dev.vcc.util.CompletedFuture;
+import net.java.dev.vcc.util.CompositeFuture;
+import net.java.dev.vcc.util.FutureReference;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Starts the computers of a {@link StartComputers} each with its own {@link StartComputer}. Each thread that runs it
+ * takes computers from the batch one after another until none are left, so the number of threads it is given is the
+ * number of computers that are started at once.
+ */
+final class StartDispatcher implements Runnable {
+
+    /**
+     * The number of threads that start the computers of a batch.
+     */
+    static final int MAX_CONCURRENT = 8;
+
+    private final StartComputers batch;
+
+    private final Log log;
+
+    private final Queue<Computer> pending;
+
+    private final AtomicInteger remaining;
+
+    private final AtomicBoolean finished = new AtomicBoolean();
+
+    private final FutureReference<Success> result = new FutureReference<Success>();
+
+    private final Runnable completion = new Runnable() {
+        public void run() {
+            completed();
+        }
+    };
+
+    StartDispatcher(StartComputers batch, Log log) {
+        this.batch = batch;
+        this.log = log;
+        pending = new ConcurrentLinkedQueue<Computer>(batch.getComputers());
+        remaining = new AtomicInteger(pending.size());
+        if (pending.isEmpty()) {
+            finish(null);
+        }
+    }
+
+    /**
+     * Gets the future that completes once all the computers of the batch have started.
+     *
+     * @return the future result of the batch.
+     */
+    FutureReference<Success> getResult() {
+        return result;
+    }
+
+    /**
+     * Gets the number of threads worth giving this task.
+     *
+     * @return the number of threads worth giving this task.
+     */
+    int getConcurrency() {
+        return Math.min(MAX_CONCURRENT, pending.size());
+    }
+
+    public void run() {
+        for (Computer computer = pending.poll(); computer != null; computer = pending.poll()) {
+            StartComputer command = batch.getCommand(computer);
+            try {
+                computer.execute(command);
+            } catch (RuntimeException e) {
+                log.debug("Could not start {0}: {1}", computer.getName(), e.getMessage());
+                if (!command.isSubmitted()) {
+                    command.setSubmitted(new CompletedFuture<Success>(e.getMessage(), e));
+                }
+            }
+            if (!command.isSubmitted()) {
+                command.setSubmitted(new CompletedFuture<Success>(computer.getName() + " did not start",
+                        new UnsupportedOperationException(computer.getName() + " did not execute the command")));
+            }
+            if (command.whenDone(completion)) {
+                continue;
+            }
+            // the command cannot say when it completes, so wait for it here
+            try {
+                command.get();
+            } catch (ExecutionException e) {
+                // the command's own future reports the failure
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                finish(new ExecutionException("Interrupted while starting " + computer.getName(), e));
+                return;
+            }
+            completed();
+        }
+    }
+
+    private void completed() {
+        if (remaining.decrementAndGet() > 0) {
+            return;
+        }
+        try {
+            // every command has completed, so this does not wait
+            new CompositeFuture(batch.getCommands()).get();
+            finish(null);
+        } catch (ExecutionException e) {
+            finish(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            finish(new ExecutionException("Interrupted while starting the computers", e));
+        }
+    }
+
+    private void finish(ExecutionException failure) {
+        if (!finished.compareAndSet(false, true)) {
+            return;
+        }
+        if (failure == null) {
+            result.set(Success.getInstance());
+        } else {
+            result.set(failure.getMessage(), failure.getCause());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package net.java.dev.vcc.spi;
+
+import net.java.dev.vcc.api.Datacenter;
+import net.java.dev.vcc.api.DatacenterSnapshot;
+import net.java.dev.vcc.api.ManagedObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Publishes the arrangement of a datacenter as a series of immutable versions. A Service Provider Implementation
+ * that maintains one returns it from {@link AbstractDatacenter#getVersionedModel()}, tells it about every object that
+ * is added to or removed from a container, and commits once the model is consistent again, for example once an object
+ * has been moved to its new container. Readers only ever see committed versions and never wait for the writer.
+ * <p/>
+ * All methods are thread safe, but a change that takes several calls should be made by one thread at a time, otherwise
+ * another thread may commit it half done.
+ */
+public final class VersionedModel {
+
+    private volatile ModelSnapshot current;
+
+    /**
+     * The new children of each container whose children have changed since the last commit.
+     */
+    private final Map<ManagedObject<?>, ChildSet> changedChildren = new HashMap<ManagedObject<?>, ChildSet>();
+
+    /**
+     * The new container of each object whose container has changed since the last commit.
+     */
+    private final Map<ManagedObject<?>, ManagedObject<?>> changedParents =
+            new HashMap<ManagedObject<?>, ManagedObject<?>>();
+
+    public VersionedModel(Datacenter datacenter) {
+        current = new ModelSnapshot(datacenter);
+    }
+
+    /**
+     * Gets the most recently committed version.
+     *
+     * @return the most recently committed version.
+     */
+    public DatacenterSnapshot snapshot() {
+        return current;
+    }
+
+    /**
+     * Records that an object has been added to a container.
+     *
+     * @param container the container.
+     * @param child     the object.
+     */
+    public synchronized void add(ManagedObject<?> container, ManagedObject<?> child) {
+        changedChildren.put(container, childrenOf(container).with(child));
+        changedParents.put(child, container);
+    }
+
+    /**
+     * Records that an object has been removed from a container.
+     *
+     * @param container the container.
+     * @param child     the object.
+     */
+    public synchronized void remove(ManagedObject<?> container, ManagedObject<?> child) {
+        changedChildren.put(container, childrenOf(container).without(child));
+        ManagedObject<?> parent = changedParents.containsKey(child)
+                ? changedParents.get(child)
+                : current.getParent(child);
+        if (container.equals(parent)) {
+            changedParents.put(child, null);
+        }
+    }
+
+    /**
+     * Publishes the changes recorded since the last commit as a new version.
+     *
+     * @return the new version, or the current version if nothing has changed.
+     */
+    public synchronized DatacenterSnapshot commit() {
+        if (changedChildren.isEmpty() && changedParents.isEmpty()) {
+            return current;
+        }
+        current = current.next(changedChildren, changedParents);
+        changedChildren.clear();
+        changedParents.clear();
+        return current;
+    }
+
+    private ChildSet childrenOf(ManagedObject<?> container) {
+        ChildSet result = changedChildren.get(container);
+        return result == null ? current.getChildren(container) : result;
+    }
+}
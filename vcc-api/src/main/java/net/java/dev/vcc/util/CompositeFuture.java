@@ -0,0 +1,101 @@
+package net.java.dev.vcc.util;
+
+import net.java.dev.vcc.api.Success;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A {@link Future} that completes when all of a number of futures have completed. It fails if any of them failed,
+ * with the first failure as its cause.
+ */
+public final class CompositeFuture implements Future<Success> {
+    private final List<Future<?>> futures;
+
+    /**
+     * Creates a {@link Future} that completes when all of a number of futures have completed.
+     *
+     * @param futures the futures.
+     */
+    public CompositeFuture(Collection<? extends Future<?>> futures) {
+        this.futures = new ArrayList<Future<?>>(futures);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isCancelled() {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isDone() {
+        for (Future<?> future : futures) {
+            if (!future.isDone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Success get() throws InterruptedException, ExecutionException {
+        ExecutionException failure = null;
+        int failed = 0;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                failed++;
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        return result(failed, failure);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Success get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        ExecutionException failure = null;
+        int failed = 0;
+        for (Future<?> future : futures) {
+            try {
+                future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (ExecutionException e) {
+                failed++;
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        return result(failed, failure);
+    }
+
+    private Success result(int failed, ExecutionException failure) throws ExecutionException {
+        if (failure != null) {
+            throw new ExecutionException(failed + " of " + futures.size() + " failed, the first with: "
+                    + failure.getMessage(), failure.getCause());
+        }
+        return Success.getInstance();
+    }
+}
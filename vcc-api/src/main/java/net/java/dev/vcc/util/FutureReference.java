@@ -1,5 +1,7 @@
 package net.java.dev.vcc.util;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Future;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -18,6 +20,7 @@ public class FutureReference<T> implements Future<T> {
     private Throwable cause;
     private final Lock referenceLock = new ReentrantLock();
     private final Condition completed = referenceLock.newCondition();
+    private final List<Runnable> listeners = new ArrayList<Runnable>();
 
     /**
      * {@inheritDoc}
@@ -86,12 +89,31 @@ public class FutureReference<T> implements Future<T> {
         }
     }
 
+    /**
+     * Runs a task once the future has completed, on the thread that completes it, or at once if it already has.
+     *
+     * @param listener the task.
+     */
+    public void whenDone(Runnable listener) {
+        referenceLock.lock();
+        try {
+            if (!done) {
+                listeners.add(listener);
+                return;
+            }
+        } finally {
+            referenceLock.unlock();
+        }
+        listener.run();
+    }
+
     /**
      * Sets the value and completes the future.
      *
      * @param value the completed value.
      */
     public void set(T value) {
+        List<Runnable> listeners;
         referenceLock.lock();
         try {
             if (done) {
@@ -100,9 +122,11 @@ public class FutureReference<T> implements Future<T> {
             done = true;
             this.value = value;
             completed.signalAll();
+            listeners = takeListeners();
         } finally {
             referenceLock.unlock();
         }
+        notify(listeners);
     }
 
     /**
@@ -112,6 +136,7 @@ public class FutureReference<T> implements Future<T> {
      * @param cause   the cause.
      */
     public void set(String message, Throwable cause) {
+        List<Runnable> listeners;
         referenceLock.lock();
         try {
             if (done) {
@@ -121,8 +146,23 @@ public class FutureReference<T> implements Future<T> {
             this.message = message;
             this.cause = cause;
             completed.signalAll();
+            listeners = takeListeners();
         } finally {
             referenceLock.unlock();
         }
+        notify(listeners);
+    }
+
+    private List<Runnable> takeListeners() {
+        List<Runnable> result = new ArrayList<Runnable>(listeners);
+        listeners.clear();
+        return result;
+    }
+
+    private static void notify(List<Runnable> listeners) {
+        // outside the lock, so that a listener may look at the future
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
     }
 }
@@ -0,0 +1,111 @@
+package net.java.dev.vcc.spi;
+
+import net.java.dev.vcc.api.Command;
+import net.java.dev.vcc.api.HostResourceGroup;
+import net.java.dev.vcc.api.ManagedObjectId;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+public class AggregateCacheTest {
+
+    @Test
+    public void keepsAggregatesUntilAChildChanges() {
+        Group root = new Group("root");
+        Group left = new Group("left");
+        Group right = new Group("right");
+        Group leaf = new Group("leaf");
+        root.add(left);
+        root.add(right);
+        left.add(leaf);
+
+        Set<HostResourceGroup> all = root.getAllHostResourceGroups();
+        Set<HostResourceGroup> rightAll = right.getAllHostResourceGroups();
+        assertThat(all.size(), is(3));
+        assertThat(root.getAllHostResourceGroups(), sameInstance(all));
+
+        leaf.add(new Group("new"));
+
+        Set<HostResourceGroup> updated = root.getAllHostResourceGroups();
+        assertThat(updated, not(sameInstance(all)));
+        assertThat(updated.size(), is(4));
+        assertThat(left.getAllHostResourceGroups().size(), is(2));
+        assertThat(right.getAllHostResourceGroups(), sameInstance(rightAll));
+    }
+
+    @Test
+    public void doesNotKeepAggregatesBuiltFromContainersThatDoNotSayWhenTheyChange() {
+        Group root = new Group("root");
+        Group child = new Group("child") {
+            @Override
+            protected boolean isCachingAggregates() {
+                return false;
+            }
+        };
+        root.add(child);
+
+        Set<HostResourceGroup> all = root.getAllHostResourceGroups();
+        assertThat(all.size(), is(1));
+        assertThat(root.getAllHostResourceGroups(), not(sameInstance(all)));
+    }
+
+    private static class Group extends AbstractHostResourceGroup {
+        private final Set<HostResourceGroup> children = new HashSet<HostResourceGroup>();
+
+        private Group(String key) {
+            super(new GroupId(key));
+        }
+
+        private void add(Group child) {
+            children.add(child);
+            invalidateAggregates();
+        }
+
+        @Override
+        protected boolean isCachingAggregates() {
+            return true;
+        }
+
+        @Override
+        public Set<HostResourceGroup> getHostResourceGroups() {
+            return Collections.unmodifiableSet(new HashSet<HostResourceGroup>(children));
+        }
+
+        public Set<Class<? extends Command>> getCommands() {
+            return Collections.emptySet();
+        }
+
+        public <T extends Command> T execute(T command) {
+            throw new UnsupportedOperationException();
+        }
+
+        public String getName() {
+            return ((GroupId) getId()).key;
+        }
+    }
+
+    private static final class GroupId extends ManagedObjectId<HostResourceGroup> {
+        private final String key;
+
+        private GroupId(String key) {
+            super(HostResourceGroup.class, "vcc:test:localhost");
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return super.equals(o) && key.equals(((GroupId) o).key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * super.hashCode() + key.hashCode();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package net.java.dev.vcc.spi;
+
+import net.java.dev.vcc.api.Command;
+import net.java.dev.vcc.api.ManagedObject;
+import net.java.dev.vcc.api.ManagedObjectId;
+import net.java.dev.vcc.api.Success;
+import net.java.dev.vcc.api.commands.Batch;
+import net.java.dev.vcc.api.commands.StartComputer;
+import net.java.dev.vcc.util.FutureReference;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BatchDispatcherTest {
+
+    @Test
+    public void keepsNoMoreThanTheLimitOutstanding() throws Exception {
+        Target target = new Target(20);
+        Batch batch = new Batch();
+        for (int i = 0; i < 6; i++) {
+            batch.add(target, new StartComputer());
+        }
+        batch.setMaxConcurrent(2);
+
+        run(batch);
+
+        assertThat(batch.get(5, TimeUnit.SECONDS), is(Success.getInstance()));
+        assertThat(target.executed.get(), is(6));
+        assertTrue("at most 2 outstanding, was " + target.maxOutstanding.get(), target.maxOutstanding.get() <= 2);
+    }
+
+    @Test
+    public void executesNoFasterThanTheRate() throws Exception {
+        Target target = new Target(0);
+        Batch batch = new Batch();
+        for (int i = 0; i < 5; i++) {
+            batch.add(target, new StartComputer());
+        }
+        batch.setMaxRate(20);
+
+        long start = System.nanoTime();
+        run(batch);
+        batch.get(5, TimeUnit.SECONDS);
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 190);
+    }
+
+    @Test
+    public void failsWhenACommandFails() throws Exception {
+        Target target = new Target(0);
+        Batch batch = new Batch();
+        StartComputer ok = batch.add(target, new StartComputer());
+        StartComputer refused = batch.add(new Refusing(), new StartComputer());
+
+        run(batch);
+
+        try {
+            batch.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getMessage().startsWith("1 of 2 failed"));
+        }
+        assertThat(ok.get(), is(Success.getInstance()));
+        assertTrue(refused.isDone());
+    }
+
+    @Test
+    public void noticesCommandsThatCannotSayWhenTheyComplete() throws Exception {
+        Target target = new Silent(20);
+        Batch batch = new Batch();
+        for (int i = 0; i < 4; i++) {
+            batch.add(target, new StartComputer());
+        }
+        batch.setMaxConcurrent(1);
+
+        run(batch);
+
+        assertThat(batch.get(5, TimeUnit.SECONDS), is(Success.getInstance()));
+        assertThat(target.executed.get(), is(4));
+        assertThat(target.maxOutstanding.get(), is(1));
+    }
+
+    private static void run(Batch batch) {
+        BatchDispatcher dispatcher = new BatchDispatcher(batch, new DefaultLogFactory().getLog(Batch.class));
+        batch.setSubmitted(dispatcher.getResult());
+        Thread thread = new Thread(dispatcher);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static class Target implements ManagedObject<Target> {
+        private final long delay;
+
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        private final AtomicInteger maxOutstanding = new AtomicInteger();
+
+        private final AtomicInteger executed = new AtomicInteger();
+
+        private Target(long delay) {
+            this.delay = delay;
+        }
+
+        public ManagedObjectId<Target> getId() {
+            return null;
+        }
+
+        public Set<Class<? extends Command>> getCommands() {
+            return Collections.emptySet();
+        }
+
+        @SuppressWarnings("unchecked")
+        public <T extends Command> T execute(T command) {
+            final FutureReference<Success> result = new FutureReference<Success>();
+            command.setSubmitted(wrap(result));
+            executed.incrementAndGet();
+            int now = outstanding.incrementAndGet();
+            while (true) {
+                int max = maxOutstanding.get();
+                if (now <= max || maxOutstanding.compareAndSet(max, now)) {
+                    break;
+                }
+            }
+            Thread completer = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException e) {
+                        // complete anyway
+                    }
+                    outstanding.decrementAndGet();
+                    result.set(Success.getInstance());
+                }
+            });
+            completer.setDaemon(true);
+            completer.start();
+            return command;
+        }
+
+        Future<Success> wrap(FutureReference<Success> result) {
+            return result;
+        }
+
+        public String getName() {
+            return "target";
+        }
+
+        public String getDescription() {
+            return null;
+        }
+    }
+
+    /**
+     * A target whose commands complete with futures that cannot say when they complete.
+     */
+    private static class Silent extends Target {
+        private Silent(long delay) {
+            super(delay);
+        }
+
+        Future<Success> wrap(final FutureReference<Success> result) {
+            return new Future<Success>() {
+                public boolean cancel(boolean mayInterruptIfRunning) {
+                    return false;
+                }
+
+                public boolean isCancelled() {
+                    return false;
+                }
+
+                public boolean isDone() {
+                    return result.isDone();
+                }
+
+                public Success get() throws InterruptedException, ExecutionException {
+                    return result.get();
+                }
+
+                public Success get(long timeout, TimeUnit unit)
+                        throws InterruptedException, ExecutionException, TimeoutException {
+                    return result.get(timeout, unit);
+                }
+            };
+        }
+    }
+
+    private static class Refusing extends Target {
+        private Refusing() {
+            super(0);
+        }
+
+        public <T extends Command> T execute(T command) {
+            throw new UnsupportedOperationException("refused");
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package net.java.dev.vcc.spi;
+
+import net.java.dev.vcc.api.Computer;
+import net.java.dev.vcc.api.Host;
+import net.java.dev.vcc.api.ManagedObjectId;
+import net.java.dev.vcc.api.PowerState;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+
+public class ComputerIndexTest {
+
+    private final ComputerIndex instance = new ComputerIndex();
+
+    @Test
+    public void findsComputersByEachKey() {
+        Host host = stub(Host.class, null);
+        Computer one = computer("one");
+        Computer two = computer("two");
+        instance.add(one, "web", PowerState.RUNNING, host);
+        instance.add(two, "web", PowerState.STOPPED, null);
+
+        assertThat(instance.get(one.getId()), sameInstance(one));
+        assertThat(instance.getByName("web").size(), is(2));
+        assertThat(instance.getByState(PowerState.RUNNING), is(Collections.singleton(one)));
+        assertThat(instance.getByHost(host), is(Collections.singleton(one)));
+        assertThat(instance.size(), is(2));
+    }
+
+    @Test
+    public void followsChanges() {
+        Computer one = computer("one");
+        instance.add(one, "web", PowerState.RUNNING, null);
+        instance.setName(one.getId(), "db");
+        instance.setState(one.getId(), PowerState.SUSPENDED);
+
+        assertThat(instance.getByName("web").isEmpty(), is(true));
+        assertThat(instance.getByName("db"), is(Collections.singleton(one)));
+        assertThat(instance.getByState(PowerState.RUNNING).isEmpty(), is(true));
+        assertThat(instance.getByState(PowerState.SUSPENDED), is(Collections.singleton(one)));
+
+        instance.remove(one.getId());
+        assertThat(instance.get(one.getId()), nullValue());
+        assertThat(instance.getByName("db").isEmpty(), is(true));
+        assertThat(instance.size(), is(0));
+    }
+
+    private static Computer computer(String key) {
+        return stub(Computer.class, new ComputerId(key));
+    }
+
+    private static <T> T stub(Class<T> type, final ManagedObjectId id) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("equals")) {
+                    return proxy == args[0];
+                } else if (method.getName().equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                } else if (method.getName().equals("getId")) {
+                    return id;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        }));
+    }
+
+    private static final class ComputerId extends ManagedObjectId<Computer> {
+        private final String key;
+
+        private ComputerId(String key) {
+            super(Computer.class, "vcc:test:localhost");
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return super.equals(o) && key.equals(((ComputerId) o).key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * super.hashCode() + key.hashCode();
+        }
+    }
+}
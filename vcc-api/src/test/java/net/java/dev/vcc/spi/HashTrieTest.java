@@ -0,0 +1,77 @@
+package net.java.dev.vcc.spi;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class HashTrieTest {
+
+    @Test
+    public void behavesLikeAMap() {
+        Random random = new Random(42);
+        Map<Key, Integer> expected = new HashMap<Key, Integer>();
+        HashTrie<Key, Integer> trie = HashTrie.empty();
+        for (int i = 0; i < 20000; i++) {
+            // few enough distinct hashes that some keys collide
+            Key key = new Key(random.nextInt(3000), random.nextInt(2000));
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                trie = trie.without(key);
+            } else {
+                expected.put(key, i);
+                trie = trie.with(key, i);
+            }
+        }
+        assertThat(trie.size(), is(expected.size()));
+        Map<Key, Integer> actual = new HashMap<Key, Integer>();
+        for (Map.Entry<Key, Integer> entry : trie) {
+            actual.put(entry.getKey(), entry.getValue());
+        }
+        assertThat(actual, is(expected));
+        for (Map.Entry<Key, Integer> entry : expected.entrySet()) {
+            assertThat(trie.get(entry.getKey()), is(entry.getValue()));
+        }
+    }
+
+    @Test
+    public void copiesLeaveTheOriginalUnchanged() {
+        HashTrie<Key, Integer> one = HashTrie.<Key, Integer>empty().with(new Key(1, 1), 1);
+        HashTrie<Key, Integer> two = one.with(new Key(2, 1), 2);
+        HashTrie<Key, Integer> three = two.without(new Key(1, 1));
+
+        assertThat(one.size(), is(1));
+        assertThat(one.get(new Key(2, 1)), nullValue());
+        assertThat(two.get(new Key(1, 1)), is(1));
+        assertThat(three.get(new Key(1, 1)), nullValue());
+        assertThat(three.get(new Key(2, 1)), is(2));
+        assertThat(two.with(new Key(2, 1), 2), sameInstance(two));
+        assertThat(two.without(new Key(3, 1)), sameInstance(two));
+    }
+
+    private static final class Key {
+        private final int value;
+
+        private final int hash;
+
+        private Key(int value, int hash) {
+            this.value = value;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).value == value && ((Key) o).hash == hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package net.java.dev.vcc.spi;
+
+import net.java.dev.vcc.api.Command;
+import net.java.dev.vcc.api.Computer;
+import net.java.dev.vcc.api.Success;
+import net.java.dev.vcc.api.commands.StartComputers;
+import net.java.dev.vcc.test.CrappyDatacenter;
+import net.java.dev.vcc.test.CrappyDatacenterId;
+import net.java.dev.vcc.util.CompletedFuture;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class StartComputersTest {
+
+    private final StartingDatacenter datacenter = new StartingDatacenter();
+
+    @Test
+    public void startsTheComputersInParallel() throws Exception {
+        // each computer starts synchronously, and only once the other has begun to start
+        CountDownLatch starting = new CountDownLatch(2);
+        Computer one = computer("one", starting);
+        Computer two = computer("two", starting);
+        StartComputers batch = new StartComputers();
+        batch.setComputers(Arrays.asList(one, two));
+
+        datacenter.execute(batch);
+
+        assertThat(batch.get(5, TimeUnit.SECONDS), is(Success.getInstance()));
+        assertThat(batch.getCommand(one).get(), is(Success.getInstance()));
+        assertThat(batch.getCommand(two).get(), is(Success.getInstance()));
+    }
+
+    @Test
+    public void startsNoMoreThanTheLimitAtOnce() throws Exception {
+        final AtomicInteger starting = new AtomicInteger();
+        final AtomicInteger maxStarting = new AtomicInteger();
+        List<Computer> computers = new ArrayList<Computer>();
+        for (int i = 0; i < 3 * StartDispatcher.MAX_CONCURRENT; i++) {
+            computers.add(computer("computer" + i, new Starter() {
+                public void start() throws InterruptedException {
+                    int now = starting.incrementAndGet();
+                    while (true) {
+                        int max = maxStarting.get();
+                        if (now <= max || maxStarting.compareAndSet(max, now)) {
+                            break;
+                        }
+                    }
+                    Thread.sleep(20);
+                    starting.decrementAndGet();
+                }
+            }));
+        }
+        StartComputers batch = new StartComputers();
+        batch.setComputers(computers);
+
+        datacenter.execute(batch);
+
+        assertThat(batch.get(5, TimeUnit.SECONDS), is(Success.getInstance()));
+        assertTrue("at most " + StartDispatcher.MAX_CONCURRENT + " at once, was " + maxStarting.get(),
+                maxStarting.get() <= StartDispatcher.MAX_CONCURRENT);
+        assertTrue(maxStarting.get() > 1);
+        for (Computer computer : computers) {
+            assertThat(batch.getCommand(computer).isDone(), is(true));
+        }
+    }
+
+    @Test
+    public void failsWhenAComputerFails() throws Exception {
+        Computer ok = computer("ok", new CountDownLatch(0));
+        Computer refusing = computer("refusing", (CountDownLatch) null);
+        StartComputers batch = new StartComputers();
+        batch.setComputers(Arrays.asList(ok, refusing));
+
+        datacenter.execute(batch);
+
+        try {
+            batch.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("1 of 2 failed"));
+        }
+        assertThat(batch.getCommand(ok).get(), is(Success.getInstance()));
+        assertThat(batch.getCommand(refusing).isDone(), is(true));
+    }
+
+    /**
+     * Creates a computer that starts synchronously.
+     *
+     * @param name     the name of the computer.
+     * @param starting counted down when the computer begins to start, which completes once it reaches zero, or
+     *                 {@code null} for a computer that refuses to start.
+     *
+     * @return the computer.
+     */
+    private static Computer computer(final String name, final CountDownLatch starting) {
+        return computer(name, new Starter() {
+            public void start() throws InterruptedException {
+                if (starting == null) {
+                    throw new UnsupportedOperationException("refused");
+                }
+                starting.countDown();
+                if (!starting.await(5, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("started alone");
+                }
+            }
+        });
+    }
+
+    /**
+     * Creates a computer that starts synchronously.
+     *
+     * @param name    the name of the computer.
+     * @param starter starts the computer.
+     *
+     * @return the computer.
+     */
+    private static Computer computer(final String name, final Starter starter) {
+        return (Computer) Proxy.newProxyInstance(Computer.class.getClassLoader(), new Class[]{Computer.class},
+                new InvocationHandler() {
+                    @SuppressWarnings("unchecked")
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("execute")) {
+                            Command command = (Command) args[0];
+                            try {
+                                starter.start();
+                                command.setSubmitted(new CompletedFuture<Success>(Success.getInstance()));
+                            } catch (IllegalStateException e) {
+                                command.setSubmitted(new CompletedFuture<Success>(e.getMessage(), e));
+                            }
+                            return command;
+                        }
+                        if (method.getName().equals("getName")) {
+                            return name;
+                        }
+                        if (method.getName().equals("equals")) {
+                            return proxy == args[0];
+                        }
+                        if (method.getName().equals("hashCode")) {
+                            return System.identityHashCode(proxy);
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private interface Starter {
+        void start() throws InterruptedException;
+    }
+
+    private static final class StartingDatacenter extends CrappyDatacenter {
+        private StartingDatacenter() {
+            super(new CrappyDatacenterId("crappy://") {
+            }, new DefaultLogFactory());
+        }
+
+        @Override
+        public <T extends Command> T execute(T command) {
+            if (command instanceof StartComputers) {
+                startEach((StartComputers) command);
+                return command;
+            }
+            return super.execute(command);
+        }
+    }
+}
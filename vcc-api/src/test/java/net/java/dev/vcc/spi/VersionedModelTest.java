@@ -0,0 +1,77 @@
+package net.java.dev.vcc.spi;
+
+import net.java.dev.vcc.api.Computer;
+import net.java.dev.vcc.api.Datacenter;
+import net.java.dev.vcc.api.DatacenterSnapshot;
+import net.java.dev.vcc.api.Host;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+
+public class VersionedModelTest {
+
+    private final Datacenter datacenter = stub(Datacenter.class);
+
+    private final VersionedModel instance = new VersionedModel(datacenter);
+
+    @Test
+    public void readersOnlySeeCommittedVersions() {
+        Host one = stub(Host.class);
+        Host two = stub(Host.class);
+        Computer computer = stub(Computer.class);
+        instance.add(datacenter, one);
+        instance.add(datacenter, two);
+        instance.add(one, computer);
+        assertThat(instance.snapshot().getAllHosts().isEmpty(), is(true));
+
+        DatacenterSnapshot before = instance.commit();
+        assertThat(before.getVersion(), is(1L));
+        assertThat(before.getAllComputers(), is(Collections.singleton(computer)));
+        assertThat(before.getParent(computer), sameInstance((Object) one));
+
+        instance.remove(one, computer);
+        instance.add(two, computer);
+        assertThat(instance.snapshot(), sameInstance(before));
+
+        DatacenterSnapshot after = instance.commit();
+        assertThat(after.getVersion(), is(2L));
+        assertThat(after.getComputers(one).isEmpty(), is(true));
+        assertThat(after.getComputers(two), is(Collections.singleton(computer)));
+        assertThat(after.getParent(computer), sameInstance((Object) two));
+        assertThat(before.getComputers(one), is(Collections.singleton(computer)));
+        assertThat(before.getComputers(two).isEmpty(), is(true));
+    }
+
+    @Test
+    public void removedObjectsHaveNoParent() {
+        Host host = stub(Host.class);
+        instance.add(datacenter, host);
+        instance.commit();
+        instance.remove(datacenter, host);
+
+        DatacenterSnapshot snapshot = instance.commit();
+        assertThat(snapshot.getParent(host), nullValue());
+        assertThat(snapshot.getHosts(datacenter).isEmpty(), is(true));
+        assertThat(instance.commit(), sameInstance(snapshot));
+    }
+
+    private static <T> T stub(Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("equals")) {
+                    return proxy == args[0];
+                } else if (method.getName().equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        }));
+    }
+}
@@ -0,0 +1,55 @@
+package net.java.dev.vcc.util;
+
+import net.java.dev.vcc.api.Success;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class CompositeFutureTest {
+
+    @Test
+    public void completesOnceAllHaveCompleted() throws Exception {
+        FutureReference<String> one = new FutureReference<String>();
+        FutureReference<String> two = new FutureReference<String>();
+        CompositeFuture instance = new CompositeFuture(Arrays.<Future<?>>asList(one, two));
+
+        one.set("one");
+        assertThat(instance.isDone(), is(false));
+        try {
+            instance.get(10, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (TimeoutException e) {
+            // two is still running
+        }
+
+        two.set("two");
+        assertThat(instance.isDone(), is(true));
+        assertThat(instance.get(), is(Success.getInstance()));
+    }
+
+    @Test
+    public void failsWithTheFirstFailure() throws Exception {
+        IllegalStateException first = new IllegalStateException("first");
+        CompositeFuture instance = new CompositeFuture(Arrays.<Future<?>>asList(
+                new CompletedFuture<String>("ok"),
+                new CompletedFuture<String>("first failed", first),
+                new CompletedFuture<String>("second failed", new IllegalStateException("second"))));
+
+        try {
+            instance.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("2 of 3 failed"));
+            assertThat(e.getCause(), sameInstance((Throwable) first));
+        }
+    }
+}
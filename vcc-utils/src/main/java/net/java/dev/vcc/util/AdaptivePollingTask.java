@@ -0,0 +1,40 @@
+package net.java.dev.vcc.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link net.java.dev.vcc.util.PollingTask} that waits between polls for whatever interval an
+ * {@link net.java.dev.vcc.util.AdaptiveRate} currently picks. The polling task is responsible for recording its
+ * results with the {@link net.java.dev.vcc.util.AdaptiveRate}.
+ */
+public class AdaptivePollingTask
+        extends PollingTask {
+    private final AdaptiveRate rate;
+
+    /**
+     * Creates a new {@link AdaptivePollingTask}
+     *
+     * @param controller the controller for the task and this poller.
+     * @param pollTask   the task to run.
+     * @param rate       the source of the polling interval.
+     */
+    public AdaptivePollingTask(TaskController controller, Runnable pollTask, AdaptiveRate rate) {
+        super(controller, pollTask);
+        this.rate = rate;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void run() {
+        while (getController().isActive()) {
+            poll();
+            try {
+                getController().awaitDeactivated(rate.getInterval(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+            }
+            catch (InterruptedException e) {
+                // ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package net.java.dev.vcc.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the page size and polling interval of a paging collector from how full its recent pages were. While pages
+ * come back full the page size grows and the interval shortens; while the collector is idle the interval backs off
+ * exponentially; as soon as there is some activity again the interval returns to its initial value.
+ */
+public class AdaptiveRate {
+    /**
+     * The decay rate for the average item rate.
+     */
+    private static final double RATE = 0.1;
+
+    /**
+     * The length of a nanosecond in seconds.
+     */
+    private static final double TO_SECONDS = 1.0 / TimeUnit.SECONDS.toNanos(1);
+
+    private final int minPageSize;
+
+    private final int maxPageSize;
+
+    private final long minInterval;
+
+    private final long initialInterval;
+
+    private final long maxInterval;
+
+    /**
+     * The current page size.
+     */
+    private int pageSize;
+
+    /**
+     * The current interval in nanoseconds.
+     */
+    private long interval;
+
+    /**
+     * When the last poll was recorded.
+     */
+    private long lastRecorded;
+
+    /**
+     * Recent average of the number of items per second.
+     */
+    private double itemRate = 0.0;
+
+    /**
+     * Creates a new {@link AdaptiveRate}.
+     *
+     * @param minPageSize     the smallest page size.
+     * @param maxPageSize     the largest page size.
+     * @param minInterval     the shortest interval between polls.
+     * @param initialInterval the interval between polls when there is some activity.
+     * @param maxInterval     the longest interval between polls.
+     * @param intervalUnit    the unit of the intervals.
+     */
+    public AdaptiveRate(int minPageSize, int maxPageSize, long minInterval, long initialInterval, long maxInterval,
+                        TimeUnit intervalUnit) {
+        if (minPageSize < 1 || maxPageSize < minPageSize) {
+            throw new IllegalArgumentException("Page sizes must satisfy 0 < min <= max, were " + minPageSize + " and "
+                    + maxPageSize);
+        }
+        if (minInterval < 0 || initialInterval < minInterval || maxInterval < initialInterval) {
+            throw new IllegalArgumentException("Intervals must satisfy 0 <= min <= initial <= max, were "
+                    + minInterval + ", " + initialInterval + " and " + maxInterval);
+        }
+        this.minPageSize = minPageSize;
+        this.maxPageSize = maxPageSize;
+        this.minInterval = intervalUnit.toNanos(minInterval);
+        this.initialInterval = intervalUnit.toNanos(initialInterval);
+        this.maxInterval = intervalUnit.toNanos(maxInterval);
+        this.pageSize = minPageSize;
+        this.interval = this.initialInterval;
+        this.lastRecorded = System.nanoTime();
+    }
+
+    /**
+     * Records the outcome of a poll.
+     *
+     * @param items the number of items the poll returned.
+     * @param full  {@code true} if at least one page of the poll came back full.
+     *
+     * @return {@code true} if the page size or interval changed.
+     */
+    public synchronized boolean record(int items, boolean full) {
+        final long now = System.nanoTime();
+        final double elapsed = (now - lastRecorded) * TO_SECONDS;
+        lastRecorded = now;
+        if (elapsed > 0) {
+            itemRate = itemRate * (1 - RATE) + (items / elapsed) * RATE;
+        }
+        final int oldPageSize = pageSize;
+        final long oldInterval = interval;
+        if (full) {
+            pageSize = Math.min(pageSize * 2, maxPageSize);
+            interval = Math.max(interval / 2, minInterval);
+        } else if (items == 0) {
+            interval = Math.min(Math.max(interval * 2, 1), maxInterval);
+        } else {
+            if (items < pageSize / 4) {
+                pageSize = Math.max(pageSize / 2, minPageSize);
+            }
+            if (interval > initialInterval) {
+                interval = initialInterval;
+            }
+        }
+        return pageSize != oldPageSize || interval != oldInterval;
+    }
+
+    /**
+     * Gets the number of items to ask for in each page.
+     *
+     * @return the number of items to ask for in each page.
+     */
+    public synchronized int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Gets the interval to wait between polls.
+     *
+     * @param unit the unit to express the interval in.
+     *
+     * @return the interval to wait between polls.
+     */
+    public synchronized long getInterval(TimeUnit unit) {
+        return unit.convert(interval, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the interval to wait between polls.
+     *
+     * @return the interval to wait between polls in seconds.
+     */
+    public synchronized double getInterval() {
+        return interval * TO_SECONDS;
+    }
+
+    /**
+     * Gets the recent average number of items returned per second.
+     *
+     * @return the recent average number of items returned per second.
+     */
+    public synchronized double getItemRate() {
+        return itemRate;
+    }
+}
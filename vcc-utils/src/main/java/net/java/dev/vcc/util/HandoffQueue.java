@@ -0,0 +1,330 @@
+package net.java.dev.vcc.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded, blocking hand-off between producers and consumers. Producers block while the queue is full, which applies
+ * back-pressure to the producer, and consumers park while the queue is empty, so neither side has to spin. The queue
+ * depth and the time spent waiting on either side of the hand-off are recorded so that lag can be monitored.
+ *
+ * @param <E> the type of element handed off.
+ */
+public class HandoffQueue<E> {
+
+    /**
+     * The decay rate for the averages.
+     */
+    private static final double RATE = 0.1;
+
+    /**
+     * The length of a nanosecond in seconds.
+     */
+    private static final double TO_SECONDS = 1.0 / TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * The lock guarding all state.
+     */
+    private final Lock lock = new ReentrantLock();
+
+    /**
+     * Signalled when an element is added or the queue is closed.
+     */
+    private final Condition notEmpty = lock.newCondition();
+
+    /**
+     * Signalled when an element is removed or the queue is closed.
+     */
+    private final Condition notFull = lock.newCondition();
+
+    /**
+     * The circular buffer of elements.
+     */
+    private final Object[] items;
+
+    /**
+     * The {@link System#nanoTime()} at which each element was enqueued.
+     */
+    private final long[] stamps;
+
+    /**
+     * The index of the head of the queue.
+     */
+    private int head = 0;
+
+    /**
+     * The number of elements in the queue.
+     */
+    private int count = 0;
+
+    /**
+     * Set once the queue will accept no further elements.
+     */
+    private boolean closed = false;
+
+    /**
+     * The total number of elements that have been enqueued.
+     */
+    private long enqueued = 0;
+
+    /**
+     * The total number of elements that have been dequeued.
+     */
+    private long dequeued = 0;
+
+    /**
+     * The largest number of elements that have been in the queue at any one time.
+     */
+    private int highWaterMark = 0;
+
+    /**
+     * Recent average time in seconds that producers have been blocked waiting for space.
+     */
+    private double enqueueWaitAverage = 0.0;
+
+    /**
+     * Recent average time in seconds between an element being enqueued and it being dequeued.
+     */
+    private double dequeueLatencyAverage = 0.0;
+
+    /**
+     * Creates a new {@link HandoffQueue}.
+     *
+     * @param capacity the maximum number of elements that can be waiting in the queue.
+     */
+    public HandoffQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        items = new Object[capacity];
+        stamps = new long[capacity];
+    }
+
+    /**
+     * Adds an element to the tail of the queue, waiting for space to become available if necessary.
+     *
+     * @param element the element to add.
+     *
+     * @return {@code true} if the element was added, {@code false} if the queue has been closed.
+     *
+     * @throws InterruptedException if the calling thread was interrupted while waiting.
+     */
+    public boolean put(E element) throws InterruptedException {
+        element.getClass(); // throw NPE if null
+        lock.lock();
+        try {
+            final long start = System.nanoTime();
+            while (count == items.length && !closed) {
+                notFull.await();
+            }
+            if (closed) {
+                return false;
+            }
+            final long now = System.nanoTime();
+            final int tail = (head + count) % items.length;
+            items[tail] = element;
+            stamps[tail] = now;
+            count++;
+            enqueued++;
+            if (count > highWaterMark) {
+                highWaterMark = count;
+            }
+            enqueueWaitAverage = enqueueWaitAverage * (1 - RATE) + Math.max(now - start, 0) * TO_SECONDS * RATE;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the element at the head of the queue, waiting for an element to become available if necessary.
+     *
+     * @return the element or {@code null} if the queue has been closed and there are no more elements.
+     *
+     * @throws InterruptedException if the calling thread was interrupted while waiting.
+     */
+    public E take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (count == 0 && !closed) {
+                notEmpty.await();
+            }
+            return count == 0 ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the element at the head of the queue, waiting up to the specified time for an element to become
+     * available.
+     *
+     * @param timeout how long to wait.
+     * @param unit    the units in which the timeout is expressed.
+     *
+     * @return the element or {@code null} if the timeout expired or the queue has been closed and there are no more
+     *         elements.
+     *
+     * @throws InterruptedException if the calling thread was interrupted while waiting.
+     */
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        lock.lock();
+        try {
+            long nanosTimeout = unit.toNanos(timeout);
+            while (count == 0 && !closed) {
+                if (nanosTimeout > 0) {
+                    nanosTimeout = notEmpty.awaitNanos(nanosTimeout);
+                } else {
+                    return null;
+                }
+            }
+            return count == 0 ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the head element. Must be called with the lock held and the queue not empty.
+     *
+     * @return the head element.
+     */
+    @SuppressWarnings("unchecked")
+    private E dequeue() {
+        final E element = (E) items[head];
+        final long latency = System.nanoTime() - stamps[head];
+        items[head] = null;
+        head = (head + 1) % items.length;
+        count--;
+        dequeued++;
+        dequeueLatencyAverage = dequeueLatencyAverage * (1 - RATE) + Math.max(latency, 0) * TO_SECONDS * RATE;
+        notFull.signal();
+        return element;
+    }
+
+    /**
+     * Closes the queue. Any waiting producers are released and no further elements will be accepted. Consumers may
+     * continue to remove any elements that were already in the queue.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns {@code true} if the queue has been closed.
+     *
+     * @return {@code true} if the queue has been closed.
+     */
+    public boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the maximum number of elements that can be waiting in the queue.
+     *
+     * @return the maximum number of elements that can be waiting in the queue.
+     */
+    public int getCapacity() {
+        return items.length;
+    }
+
+    /**
+     * Gets the number of elements currently waiting in the queue.
+     *
+     * @return the number of elements currently waiting in the queue.
+     */
+    public int getSize() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the largest number of elements that have been waiting in the queue at any one time.
+     *
+     * @return the largest number of elements that have been waiting in the queue at any one time.
+     */
+    public int getHighWaterMark() {
+        lock.lock();
+        try {
+            return highWaterMark;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the total number of elements that have been added to the queue.
+     *
+     * @return the total number of elements that have been added to the queue.
+     */
+    public long getEnqueuedCount() {
+        lock.lock();
+        try {
+            return enqueued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the total number of elements that have been removed from the queue.
+     *
+     * @return the total number of elements that have been removed from the queue.
+     */
+    public long getDequeuedCount() {
+        lock.lock();
+        try {
+            return dequeued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the recent average time that producers have been blocked waiting for space in the queue.
+     *
+     * @return the recent average enqueue wait in seconds.
+     */
+    public double getEnqueueWaitAverage() {
+        lock.lock();
+        try {
+            return enqueueWaitAverage;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the recent average time between an element being added to the queue and it being removed, i.e. the lag of
+     * the consumers behind the producers.
+     *
+     * @return the recent average dequeue latency in seconds.
+     */
+    public double getDequeueLatencyAverage() {
+        lock.lock();
+        try {
+            return dequeueLatencyAverage;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
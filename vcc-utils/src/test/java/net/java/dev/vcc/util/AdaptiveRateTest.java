@@ -0,0 +1,59 @@
+package net.java.dev.vcc.util;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class AdaptiveRateTest {
+
+    private final AdaptiveRate instance = new AdaptiveRate(100, 800, 100, 1000, 8000, TimeUnit.MILLISECONDS);
+
+    @Test
+    public void startsAtMinimumPageAndInitialInterval() {
+        assertThat(instance.getPageSize(), is(100));
+        assertThat(instance.getInterval(TimeUnit.MILLISECONDS), is(1000L));
+    }
+
+    @Test
+    public void fullPagesGrowPageAndShortenInterval() {
+        assertThat(instance.record(100, true), is(true));
+        assertThat(instance.getPageSize(), is(200));
+        assertThat(instance.getInterval(TimeUnit.MILLISECONDS), is(500L));
+        for (int i = 0; i < 10; i++) {
+            instance.record(instance.getPageSize(), true);
+        }
+        assertThat(instance.getPageSize(), is(800));
+        assertThat(instance.getInterval(TimeUnit.MILLISECONDS), is(100L));
+        assertThat(instance.record(800, true), is(false));
+    }
+
+    @Test
+    public void idleBacksOffExponentiallyAndRecoversOnActivity() {
+        instance.record(0, false);
+        assertThat(instance.getInterval(TimeUnit.MILLISECONDS), is(2000L));
+        instance.record(0, false);
+        assertThat(instance.getInterval(TimeUnit.MILLISECONDS), is(4000L));
+        instance.record(0, false);
+        instance.record(0, false);
+        assertThat(instance.getInterval(TimeUnit.MILLISECONDS), is(8000L));
+        instance.record(50, false);
+        assertThat(instance.getInterval(TimeUnit.MILLISECONDS), is(1000L));
+        assertThat(instance.getPageSize(), is(100));
+    }
+
+    @Test
+    public void sparsePagesShrinkPage() {
+        instance.record(100, true);
+        instance.record(200, true);
+        assertThat(instance.getPageSize(), is(400));
+        instance.record(10, false);
+        assertThat(instance.getPageSize(), is(200));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvertedIntervals() {
+        new AdaptiveRate(1, 1, 10, 5, 20, TimeUnit.MILLISECONDS);
+    }
+}
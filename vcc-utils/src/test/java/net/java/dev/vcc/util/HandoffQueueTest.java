@@ -0,0 +1,69 @@
+package net.java.dev.vcc.util;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import org.junit.After;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class HandoffQueueTest {
+
+    private final ExecutorService service = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() throws Exception {
+        service.shutdownNow();
+    }
+
+    @Test
+    public void handsOffInOrder() throws Exception {
+        HandoffQueue<String> instance = new HandoffQueue<String>(3);
+        assertThat(instance.put("a"), is(true));
+        assertThat(instance.put("b"), is(true));
+        assertThat(instance.getSize(), is(2));
+        assertThat(instance.take(), is("a"));
+        assertThat(instance.take(), is("b"));
+        assertThat(instance.poll(10, TimeUnit.MILLISECONDS), nullValue());
+        assertThat(instance.getEnqueuedCount(), is(2L));
+        assertThat(instance.getDequeuedCount(), is(2L));
+        assertThat(instance.getHighWaterMark(), is(2));
+    }
+
+    @Test
+    public void producerBlocksWhileFull() throws Exception {
+        final HandoffQueue<String> instance = new HandoffQueue<String>(1);
+        instance.put("a");
+        Future<Boolean> producer = service.submit(new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                return instance.put("b");
+            }
+        });
+        TimeUnit.MILLISECONDS.sleep(50);
+        assertThat(producer.isDone(), is(false));
+        assertThat(instance.take(), is("a"));
+        assertThat(producer.get(1, TimeUnit.SECONDS), is(true));
+        assertThat(instance.take(), is("b"));
+    }
+
+    @Test
+    public void closeReleasesWaiters() throws Exception {
+        final HandoffQueue<String> instance = new HandoffQueue<String>(1);
+        Future<String> consumer = service.submit(new Callable<String>() {
+            public String call() throws Exception {
+                return instance.take();
+            }
+        });
+        TimeUnit.MILLISECONDS.sleep(50);
+        assertThat(consumer.isDone(), is(false));
+        instance.close();
+        assertThat(consumer.get(1, TimeUnit.SECONDS), nullValue());
+        assertThat(instance.put("a"), is(false));
+    }
+
+}
@@ -0,0 +1,281 @@
+package net.java.dev.vcc.impl.vmware.esx;
+
+import com.vmware.vim25.ClusterAttemptedVmInfo;
+import com.vmware.vim25.ClusterNotAttemptedVmInfo;
+import com.vmware.vim25.ClusterPowerOnVmResult;
+import com.vmware.vim25.LocalizedMethodFault;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.NotSupported;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.ObjectSpec;
+import com.vmware.vim25.PropertySpec;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+import net.java.dev.vcc.api.Computer;
+import net.java.dev.vcc.api.Success;
+import net.java.dev.vcc.api.commands.StartComputer;
+import net.java.dev.vcc.api.commands.StartComputers;
+import net.java.dev.vcc.impl.vmware.esx.vim25.Helper;
+import net.java.dev.vcc.util.CompositeFuture;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Starts a batch of computers with one {@code PowerOnMultiVM_Task} per VMware datacenter, rather than one task per
+ * computer. The server starts a task for each computer it attempts to start, which completes that computer's
+ * {@link StartComputer} through the datacenter's pending tasks as if the computer had been started on its own.
+ * Where the server does not support starting computers in bulk, for example a host that is not managed by vCenter,
+ * each computer is started on its own instead. Any other failure fails the commands, as the server may have started
+ * some of the computers already.
+ */
+final class ViBulkStart {
+
+    private final ViDatacenter datacenter;
+
+    ViBulkStart(ViDatacenter datacenter) {
+        this.datacenter = datacenter;
+    }
+
+    /**
+     * Starts a batch of computers. Returns once the batch has been queued for submission.
+     *
+     * @param batch the computers to start.
+     */
+    void execute(StartComputers batch) {
+        Map<String, Group> groups = new LinkedHashMap<String, Group>();
+        for (Computer computer : batch.getComputers()) {
+            StartComputer command = batch.getCommand(computer);
+            if (!(computer instanceof ViComputer) || datacenter.getManagedObject(key(computer)) != computer) {
+                // not ours to start in bulk
+                computer.execute(command);
+                continue;
+            }
+            ViComputer viComputer = (ViComputer) computer;
+            ViTaskContinuation<Success> continuation = viComputer.newStartContinuation();
+            command.setSubmitted(continuation.getFuture());
+            ManagedObjectReference vimDatacenter = datacenter.getInventoryBuilder().getVimDatacenter(key(computer));
+            if (vimDatacenter == null) {
+                viComputer.start(continuation);
+                continue;
+            }
+            Group group = groups.get(vimDatacenter.getValue());
+            if (group == null) {
+                groups.put(vimDatacenter.getValue(), group = new Group(vimDatacenter));
+            }
+            group.add(viComputer, continuation);
+        }
+        for (Group group : groups.values()) {
+            datacenter.getCommandQueue().submit(group);
+        }
+        batch.setSubmitted(new CompositeFuture(batch.getCommands()));
+    }
+
+    private static String key(Computer computer) {
+        return ((ViManagedObjectId) computer.getId()).getMORef().getValue();
+    }
+
+    /**
+     * The computers of a batch that belong to one VMware datacenter.
+     */
+    private final class Group implements ViCommandQueue.Submission {
+        private final ManagedObjectReference vimDatacenter;
+
+        private final Map<String, ViComputer> computers = new LinkedHashMap<String, ViComputer>();
+
+        private final Map<String, ViTaskContinuation<Success>> continuations =
+                new LinkedHashMap<String, ViTaskContinuation<Success>>();
+
+        private Group(ManagedObjectReference vimDatacenter) {
+            this.vimDatacenter = vimDatacenter;
+        }
+
+        private void add(ViComputer computer, ViTaskContinuation<Success> continuation) {
+            computers.put(key(computer), computer);
+            continuations.put(key(computer), continuation);
+        }
+
+        public void submit() {
+            List<ManagedObjectReference> vms = new ArrayList<ManagedObjectReference>(computers.size());
+            for (ViComputer computer : computers.values()) {
+                vms.add(computer.getId().getMORef());
+            }
+            ViSessionPool sessions = datacenter.getSessionPool();
+            ViConnection session;
+            try {
+                session = sessions.checkout();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                abandon(e);
+                return;
+            }
+            ManagedObjectReference task;
+            try {
+                task = session.getProxy().powerOnMultiVMTask(vimDatacenter, vms);
+            } catch (RuntimeFaultFaultMsg e) {
+                refused(e);
+                return;
+            } catch (RuntimeException e) {
+                refused(e);
+                return;
+            } finally {
+                sessions.checkin(session);
+            }
+            datacenter.getLog().debug("Starting {0} computers of {1} with task {2}", vms.size(),
+                    vimDatacenter.getValue(), task.getValue());
+            try {
+                datacenter.addPendingTask(task, new Attempted(this, task));
+            } catch (Exception e) {
+                // the server has accepted the task, so starting the computers again could start them twice
+                abandon(e);
+            }
+        }
+
+        /**
+         * Starts the computers each on its own if the server does not support starting them in bulk, otherwise fails
+         * them, as a call that timed out or was cut off may still have been acted on.
+         *
+         * @param e why the bulk start failed.
+         */
+        private void refused(Exception e) {
+            if (!ViConnection.isFault(e, NotSupported.class)) {
+                abandon(e);
+                return;
+            }
+            datacenter.getLog().debug("Could not start {0} computers of {1} at once, starting them one at a time: {2}",
+                    computers.size(), vimDatacenter.getValue(), e.getMessage());
+            startEach();
+        }
+
+        public synchronized void abandon(Exception reason) {
+            for (ViTaskContinuation<Success> continuation : continuations.values()) {
+                continuation.set(reason.getMessage(), reason);
+            }
+            continuations.clear();
+        }
+
+        /**
+         * Fails the computers that are left with the error of the bulk start.
+         *
+         * @param error the error.
+         */
+        private synchronized void fail(LocalizedMethodFault error) {
+            for (ViTaskContinuation<Success> continuation : continuations.values()) {
+                continuation.onError(error);
+            }
+            continuations.clear();
+        }
+
+        /**
+         * Starts the computers that are left each on its own.
+         */
+        private synchronized void startEach() {
+            for (Map.Entry<String, ViTaskContinuation<Success>> entry : continuations.entrySet()) {
+                computers.get(entry.getKey()).start(entry.getValue());
+            }
+            continuations.clear();
+        }
+
+        /**
+         * Hands the task the server started for each computer to the datacenter to watch.
+         *
+         * @param result the result of the bulk start.
+         */
+        private synchronized void distribute(ClusterPowerOnVmResult result) {
+            for (ClusterAttemptedVmInfo attempted : result.getAttempted()) {
+                ViTaskContinuation<Success> continuation = continuations.remove(attempted.getVm().getValue());
+                if (continuation == null) {
+                    continue;
+                }
+                if (attempted.getTask() == null) {
+                    // started without a task of its own, which happens when the computer was already starting
+                    continuation.onSuccess();
+                    continue;
+                }
+                try {
+                    datacenter.addPendingTask(attempted.getTask(), continuation);
+                } catch (Exception e) {
+                    continuation.set(e.getMessage(), e);
+                }
+            }
+            for (ClusterNotAttemptedVmInfo notAttempted : result.getNotAttempted()) {
+                ViTaskContinuation<Success> continuation = continuations.remove(notAttempted.getVm().getValue());
+                if (continuation != null) {
+                    continuation.onError(notAttempted.getFault());
+                }
+            }
+            if (!continuations.isEmpty()) {
+                datacenter.getLog().debug("{0} computers were left out of the bulk start, starting them one at a time",
+                        continuations.size());
+                startEach();
+            }
+        }
+    }
+
+    /**
+     * Splits the result of a bulk start, once it is known, into the results of each computer.
+     */
+    private final class Attempted extends ViTaskContinuation<Success> {
+        private final Group group;
+
+        private final ManagedObjectReference task;
+
+        private Attempted(Group group, ManagedObjectReference task) {
+            this.group = group;
+            this.task = task;
+        }
+
+        public void onSuccess() {
+            // this is called by the update collector, which must not wait for the server, so read the result later
+            datacenter.getCommandQueue().submit(new ViCommandQueue.Submission() {
+                public void submit() {
+                    ClusterPowerOnVmResult result;
+                    try {
+                        result = retrieveResult();
+                    } catch (Exception e) {
+                        abandon(e);
+                        return;
+                    }
+                    group.distribute(result);
+                }
+
+                public void abandon(Exception reason) {
+                    group.abandon(reason);
+                }
+            });
+        }
+
+        public void onError(LocalizedMethodFault error) {
+            if (!(error.getFault() instanceof NotSupported)) {
+                group.fail(error);
+                return;
+            }
+            datacenter.getLog().debug("Bulk start {0} failed, starting the computers one at a time: {1}",
+                    task.getValue(), error.getLocalizedMessage());
+            group.startEach();
+        }
+
+        private ClusterPowerOnVmResult retrieveResult() throws Exception {
+            ViSessionPool sessions = datacenter.getSessionPool();
+            ViConnection session = sessions.checkout();
+            try {
+                List<ObjectContent> contents = session.getProxy().retrieveProperties(
+                        session.getServiceContent().getPropertyCollector(),
+                        Collections.singletonList(Helper.newPropertyFilterSpec(
+                                new PropertySpec[]{Helper.newPropertySpec("Task", false, "info.result")},
+                                new ObjectSpec[]{Helper.newObjectSpec(task, false)})));
+                for (ObjectContent content : contents) {
+                    Object result = Helper.asMap(content.getPropSet()).get("info.result");
+                    if (result instanceof ClusterPowerOnVmResult) {
+                        return (ClusterPowerOnVmResult) result;
+                    }
+                }
+                return new ClusterPowerOnVmResult();
+            } finally {
+                sessions.checkin(session);
+            }
+        }
+    }
+}
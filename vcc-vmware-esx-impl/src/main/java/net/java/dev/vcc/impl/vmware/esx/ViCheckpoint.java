@@ -0,0 +1,349 @@
+package net.java.dev.vcc.impl.vmware.esx;
+
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.VirtualMachineConfigInfo;
+import com.vmware.vim25.VirtualMachinePowerState;
+import com.vmware.vim25.VirtualMachineRuntimeInfo;
+import net.java.dev.vcc.api.PowerState;
+import net.java.dev.vcc.spi.AbstractManagedObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A local copy of the datacenter model together with the last event that the model reflects. When a connection is
+ * made with a recent enough checkpoint, the model is restored from the checkpoint and only the events since the
+ * checkpoint are read, rather than loading the whole inventory.
+ * <p/>
+ * Only what the model needs is kept: the type, name and parent of every entity and, for virtual machines, the
+ * description, the template flag and the power state.
+ */
+final class ViCheckpoint {
+
+    private static final String MAGIC = "vcc-vi-checkpoint";
+
+    private static final String UTF8 = "UTF-8";
+
+    private static final int FORMAT_VERSION = 2;
+
+    private final String url;
+
+    private final long savedAt;
+
+    private final int eventKey;
+
+    private final long eventTime;
+
+    private final Map<String, String> proxyParents;
+
+    private final List<Entity> entities;
+
+    ViCheckpoint(String url, long savedAt, int eventKey, long eventTime, Map<String, String> proxyParents,
+                 List<Entity> entities) {
+        this.url = url;
+        this.savedAt = savedAt;
+        this.eventKey = eventKey;
+        this.eventTime = eventTime;
+        this.proxyParents = Collections.unmodifiableMap(new HashMap<String, String>(proxyParents));
+        this.entities = Collections.unmodifiableList(new ArrayList<Entity>(entities));
+    }
+
+    /**
+     * Captures the current model of a datacenter.
+     *
+     * @param datacenter the datacenter.
+     * @param eventKey   the key of the last event that the model reflects.
+     * @param eventTime  when the last event that the model reflects was created, in milliseconds since the epoch.
+     *
+     * @return the checkpoint.
+     */
+    static ViCheckpoint capture(ViDatacenter datacenter, int eventKey, long eventTime) {
+        ViInventoryBuilder builder = datacenter.getInventoryBuilder();
+        Map<String, String> parents = builder.getParents();
+        List<Entity> entities = new ArrayList<Entity>();
+        for (Map.Entry<String, AbstractManagedObject> entry : datacenter.getManagedObjects().entrySet()) {
+            AbstractManagedObject mo = entry.getValue();
+            if (!(mo.getId() instanceof ViManagedObjectId)) {
+                // the root folder stands for the datacenter itself
+                continue;
+            }
+            String type = ((ViManagedObjectId) mo.getId()).getMORef().getType();
+            String parent = parents.get(entry.getKey());
+            if (mo instanceof ViComputer) {
+                ViComputer computer = (ViComputer) mo;
+                entities.add(new Entity(type, entry.getKey(), computer.getName(), parent, false,
+                        computer.getLoadedDescription(), computer.getState()));
+            } else if (mo instanceof ViComputerTemplate) {
+                ViComputerTemplate template = (ViComputerTemplate) mo;
+                entities.add(new Entity(type, entry.getKey(), template.getName(), parent, true,
+                        template.getDescription(), null));
+            } else {
+                entities.add(new Entity(type, entry.getKey(), mo.getName(), parent, false, null, null));
+            }
+        }
+        return new ViCheckpoint(datacenter.getId().getDatacenterUrl(), System.currentTimeMillis(), eventKey,
+                eventTime, builder.getProxyParents(), entities);
+    }
+
+    /**
+     * Restores the model of a datacenter from this checkpoint.
+     *
+     * @param datacenter the datacenter.
+     */
+    void restore(ViDatacenter datacenter) {
+        ViInventoryBuilder builder = datacenter.getInventoryBuilder();
+        for (Map.Entry<String, String> proxy : proxyParents.entrySet()) {
+            builder.addProxy(proxy.getKey(), proxy.getValue());
+        }
+        for (Entity entity : entities) {
+            Map<String, Object> properties = new HashMap<String, Object>();
+            properties.put("name", entity.name);
+            if (entity.parent != null) {
+                properties.put("parent", newMORef(null, entity.parent));
+            }
+            if ("VirtualMachine".equals(entity.type)) {
+                VirtualMachineConfigInfo config = new VirtualMachineConfigInfo();
+                config.setTemplate(entity.template);
+                config.setAnnotation(entity.description);
+                properties.put("config", config);
+                VirtualMachineRuntimeInfo runtime = new VirtualMachineRuntimeInfo();
+                runtime.setPowerState(toPowerState(entity.state));
+                properties.put("runtime", runtime);
+            }
+            builder.add(newMORef(entity.type, entity.value), properties);
+        }
+    }
+
+    /**
+     * Writes this checkpoint. The checkpoint is written to a temporary file first so that a crash part way through
+     * leaves the previous checkpoint intact.
+     *
+     * @param file the file to write.
+     *
+     * @throws IOException if the checkpoint could not be written.
+     */
+    void write(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            writeString(out, MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            writeString(out, url);
+            out.writeLong(savedAt);
+            out.writeInt(eventKey);
+            out.writeLong(eventTime);
+            out.writeInt(proxyParents.size());
+            for (Map.Entry<String, String> proxy : proxyParents.entrySet()) {
+                writeString(out, proxy.getKey());
+                writeString(out, proxy.getValue());
+            }
+            out.writeInt(entities.size());
+            for (Entity entity : entities) {
+                writeString(out, entity.type);
+                writeString(out, entity.value);
+                writeNullable(out, entity.name);
+                writeNullable(out, entity.parent);
+                out.writeBoolean(entity.template);
+                writeNullable(out, entity.description);
+                writeNullable(out, entity.state == null ? null : entity.state.name());
+            }
+        } finally {
+            out.close();
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not replace " + file);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Could not rename " + tmp + " to " + file);
+        }
+    }
+
+    /**
+     * Records in a checkpoint that the events up to a later event have been read, when none of them changed what the
+     * checkpoint holds. Only the header is written, in place. A crash part way through can leave a mix of the old and
+     * the new values, but each of those events left the entities as they are, so any mix is consistent with them.
+     *
+     * @param file      the checkpoint.
+     * @param savedAt   when the checkpoint was last known to be current, in milliseconds since the epoch.
+     * @param eventKey  the key of the last event that the checkpoint now reflects.
+     * @param eventTime when that event was created, in milliseconds since the epoch.
+     *
+     * @throws IOException if the file is not a checkpoint or could not be written.
+     */
+    static void advance(File file, long savedAt, int eventKey, long eventTime) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            readHeader(raf, file, raf.length());
+            readString(raf, raf.length());
+            raf.writeLong(savedAt);
+            raf.writeInt(eventKey);
+            raf.writeLong(eventTime);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads a checkpoint.
+     *
+     * @param file the file to read.
+     *
+     * @return the checkpoint.
+     *
+     * @throws IOException if the file is not a checkpoint or could not be read.
+     */
+    static ViCheckpoint read(File file) throws IOException {
+        // no string can be longer than the file, however corrupt it is
+        long limit = file.length();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            readHeader(in, file, limit);
+            String url = readString(in, limit);
+            long savedAt = in.readLong();
+            int eventKey = in.readInt();
+            long eventTime = in.readLong();
+            int count = in.readInt();
+            Map<String, String> proxyParents = new HashMap<String, String>(count * 2);
+            for (int i = 0; i < count; i++) {
+                proxyParents.put(readString(in, limit), readString(in, limit));
+            }
+            count = in.readInt();
+            List<Entity> entities = new ArrayList<Entity>(count);
+            for (int i = 0; i < count; i++) {
+                String type = readString(in, limit);
+                String value = readString(in, limit);
+                String name = readNullable(in, limit);
+                String parent = readNullable(in, limit);
+                boolean template = in.readBoolean();
+                String description = readNullable(in, limit);
+                String state = readNullable(in, limit);
+                entities.add(new Entity(type, value, name, parent, template, description,
+                        state == null ? null : PowerState.valueOf(state)));
+            }
+            return new ViCheckpoint(url, savedAt, eventKey, eventTime, proxyParents, entities);
+        } finally {
+            in.close();
+        }
+    }
+
+    String getUrl() {
+        return url;
+    }
+
+    long getSavedAt() {
+        return savedAt;
+    }
+
+    int getEventKey() {
+        return eventKey;
+    }
+
+    long getEventTime() {
+        return eventTime;
+    }
+
+    int getEntityCount() {
+        return entities.size();
+    }
+
+    private static void readHeader(DataInput in, File file, long limit) throws IOException {
+        if (!MAGIC.equals(readString(in, limit))) {
+            throw new IOException(file + " is not a checkpoint");
+        }
+        int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException(file + " is a version " + version + " checkpoint, expected version "
+                    + FORMAT_VERSION);
+        }
+    }
+
+    /**
+     * Writes a string as its length in bytes followed by its UTF-8 encoding. Unlike {@link DataOutput#writeUTF}, this
+     * does not limit the string to 65535 bytes, which a virtual machine's annotation may exceed.
+     */
+    private static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in, long limit) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > limit) {
+            throw new IOException("Corrupt string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static void writeNullable(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            writeString(out, value);
+        }
+    }
+
+    private static String readNullable(DataInput in, long limit) throws IOException {
+        return in.readBoolean() ? readString(in, limit) : null;
+    }
+
+    private static ManagedObjectReference newMORef(String type, String value) {
+        ManagedObjectReference ref = new ManagedObjectReference();
+        ref.setType(type);
+        ref.setValue(value);
+        return ref;
+    }
+
+    private static VirtualMachinePowerState toPowerState(PowerState state) {
+        if (state == null) {
+            return null;
+        }
+        switch (state) {
+            case RUNNING:
+                return VirtualMachinePowerState.POWERED_ON;
+            case SUSPENDED:
+                return VirtualMachinePowerState.SUSPENDED;
+            default:
+                return VirtualMachinePowerState.POWERED_OFF;
+        }
+    }
+
+    /**
+     * An entity in the checkpoint.
+     */
+    static final class Entity {
+        private final String type;
+        private final String value;
+        private final String name;
+        private final String parent;
+        private final boolean template;
+        private final String description;
+        private final PowerState state;
+
+        Entity(String type, String value, String name, String parent, boolean template, String description,
+               PowerState state) {
+            this.type = type;
+            this.value = value;
+            this.name = name;
+            this.parent = parent;
+            this.template = template;
+            this.description = description;
+            this.state = state;
+        }
+    }
+}
@@ -1,11 +0,0 @@
-package net.java.dev.vcc.impl.vmware.esx;
-
-import com.vmware.vim25.Event;
-
-/**
- * Created by IntelliJ IDEA. User: connollys Date: Aug 10, 2009 Time: 12:53:34 PM To change this template use File |
-* Settings | File Templates.
-*/
-final class ViClosingConnectionEvent extends Event {
-
-}
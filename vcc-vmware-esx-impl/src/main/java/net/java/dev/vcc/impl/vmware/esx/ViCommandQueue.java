@@ -0,0 +1,133 @@
+package net.java.dev.vcc.impl.vmware.esx;
+
+import net.java.dev.vcc.api.Log;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Submits commands to the server off the caller's thread, so that a caller issuing many commands gets each one back
+ * straight away rather than after a round trip per command. Commands are queued and submitted by a bounded number of
+ * workers on the datacenter's executor, one worker per command session being enough to keep every session busy.
+ */
+final class ViCommandQueue {
+
+    /**
+     * A command waiting to be submitted.
+     */
+    interface Submission {
+        /**
+         * Submits the command to the server, completing its future if the submission fails.
+         */
+        void submit();
+
+        /**
+         * Completes the command's future when the command will never be submitted.
+         *
+         * @param reason why the command will not be submitted.
+         */
+        void abandon(Exception reason);
+    }
+
+    private final ExecutorService executor;
+
+    private final Log log;
+
+    private final int maxWorkers;
+
+    private final Queue<Submission> submissions = new ConcurrentLinkedQueue<Submission>();
+
+    private final AtomicInteger workers = new AtomicInteger();
+
+    private volatile boolean closed = false;
+
+    ViCommandQueue(ExecutorService executor, Log log, int maxWorkers) {
+        this.executor = executor;
+        this.log = log;
+        this.maxWorkers = Math.max(1, maxWorkers);
+    }
+
+    /**
+     * Queues a command for submission.
+     *
+     * @param submission the command.
+     */
+    void submit(Submission submission) {
+        if (closed) {
+            submission.abandon(new RejectedExecutionException("The datacenter has been closed"));
+            return;
+        }
+        submissions.add(submission);
+        startWorker();
+        if (closed) {
+            // closed while queueing, make sure the command does not wait for ever
+            abandonAll();
+        }
+    }
+
+    /**
+     * Gets the number of commands waiting to be submitted.
+     *
+     * @return the number of commands waiting to be submitted.
+     */
+    int getQueueDepth() {
+        return submissions.size();
+    }
+
+    /**
+     * Stops submitting commands and abandons those still waiting.
+     */
+    void close() {
+        closed = true;
+        abandonAll();
+    }
+
+    private void abandonAll() {
+        Submission submission;
+        while ((submission = submissions.poll()) != null) {
+            submission.abandon(new RejectedExecutionException("The datacenter has been closed"));
+        }
+    }
+
+    private void startWorker() {
+        while (true) {
+            int count = workers.get();
+            if (count >= maxWorkers) {
+                return;
+            }
+            if (workers.compareAndSet(count, count + 1)) {
+                break;
+            }
+        }
+        try {
+            executor.submit(new Worker());
+        } catch (RejectedExecutionException e) {
+            workers.decrementAndGet();
+            abandonAll();
+        }
+    }
+
+    private final class Worker implements Runnable {
+        public void run() {
+            try {
+                Submission submission;
+                while (!closed && (submission = submissions.poll()) != null) {
+                    try {
+                        submission.submit();
+                    } catch (RuntimeException e) {
+                        log.error(e, "Could not submit command: {0}", e.getMessage());
+                    }
+                }
+            } finally {
+                workers.decrementAndGet();
+            }
+            if (!submissions.isEmpty()) {
+                // a command was queued after this worker found the queue empty, but before it stopped counting
+                startWorker();
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package net.java.dev.vcc.impl.vmware.esx;
 
 import com.vmware.vim25.Event;
 import com.vmware.vim25.LocalizedMethodFault;
+import com.vmware.vim25.ManagedObjectReference;
 import com.vmware.vim25.VirtualMachineConfigInfo;
 import com.vmware.vim25.VirtualMachinePowerState;
 import com.vmware.vim25.VirtualMachineRuntimeInfo;
@@ -9,6 +10,7 @@ import com.vmware.vim25.VirtualMachineSnapshotInfo;
 import com.vmware.vim25.VmPoweredOffEvent;
 import com.vmware.vim25.VmPoweredOnEvent;
 import com.vmware.vim25.VmReconfiguredEvent;
+import com.vmware.vim25.VmRenamedEvent;
 import com.vmware.vim25.VmResourcePoolMovedEvent;
 import com.vmware.vim25.VmResumingEvent;
 import com.vmware.vim25.VmStartingEvent;
@@ -27,7 +29,6 @@ import net.java.dev.vcc.api.commands.StartComputer;
 import net.java.dev.vcc.api.commands.StopComputer;
 import net.java.dev.vcc.api.commands.SuspendComputer;
 import net.java.dev.vcc.spi.AbstractComputer;
-import net.java.dev.vcc.spi.AbstractManagedObject;
 import net.java.dev.vcc.util.CompletedFuture;
 import net.java.dev.vcc.util.FutureReference;
 
@@ -39,7 +40,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Future;
 
-final class ViComputer extends AbstractComputer implements ViEventReceiver {
+final class ViComputer extends AbstractComputer implements ViEventReceiver, ViComputerPropertyCache.Holder {
 
     private final ViDatacenter datacenter;
 
@@ -49,9 +50,17 @@ final class ViComputer extends AbstractComputer implements ViEventReceiver {
 
     private String name;
 
-    private VirtualMachineConfigInfo config;
-    private VirtualMachineRuntimeInfo runtime;
-    private VirtualMachineSnapshotInfo snapshot;
+    private ViComputerState state;
+    /**
+     * The properties as last received from the server, kept only if the datacenter retains raw properties.
+     */
+    private VirtualMachineConfigInfo rawConfig;
+    private VirtualMachineRuntimeInfo rawRuntime;
+    private VirtualMachineSnapshotInfo rawSnapshot;
+    /**
+     * {@code false} while the configuration and snapshots are left to the datacenter's property cache to retrieve.
+     */
+    private boolean detailsLoaded;
     private FutureReference<PowerState> futureState = null;
 
     ViComputer(ViDatacenter datacenter, ManagedObjectId<Computer> id, ViDatacenterResourceGroup parent, String name,
@@ -61,9 +70,13 @@ final class ViComputer extends AbstractComputer implements ViEventReceiver {
         this.datacenter = datacenter;
         this.parent = parent;
         this.name = name;
-        this.config = config;
-        this.runtime = runtime;
-        this.snapshot = snapshot;
+        this.state = ViComputerState.valueOf(config, runtime, snapshot);
+        if (datacenter.isRetainingRawProperties()) {
+            this.rawConfig = config;
+            this.rawRuntime = runtime;
+            this.rawSnapshot = snapshot;
+        }
+        this.detailsLoaded = datacenter.getPropertyCache() == null;
     }
 
     public Set<Class<? extends Command>> getCommands() {
@@ -86,33 +99,46 @@ final class ViComputer extends AbstractComputer implements ViEventReceiver {
     }
 
     public <T extends Command> T execute(T command) {
-        try {
-            if (command instanceof StartComputer) {
-                command.setSubmitted(datacenter.addPendingTask(
-                        datacenter.getConnection().getProxy().powerOnVMTask(getId().getMORef(), null),
-                        new SetPowerStateOnSuccess(VirtualMachinePowerState.POWERED_ON)
-                ));
-            } else if (command instanceof StopComputer) {
-                command.setSubmitted(datacenter.addPendingTask(
-                        datacenter.getConnection().getProxy().powerOffVMTask(getId().getMORef()),
-                        new SetPowerStateOnSuccess(VirtualMachinePowerState.POWERED_OFF)
-                ));
-            } else if (command instanceof SuspendComputer) {
-                command.setSubmitted(datacenter.addPendingTask(
-                        datacenter.getConnection().getProxy().suspendVMTask((getId().getMORef())),
-                        new SetPowerStateOnSuccess(VirtualMachinePowerState.SUSPENDED)
-                ));
-            } else {
-                command.setSubmitted(new CompletedFuture("Unsupported command", new UnsupportedOperationException()));
-            }
-        } catch (Throwable e) {
-            command.setSubmitted(new CompletedFuture(e.getMessage(), e));
+        if (!(command instanceof StartComputer || command instanceof StopComputer
+                || command instanceof SuspendComputer)) {
+            command.setSubmitted(new CompletedFuture("Unsupported command", new UnsupportedOperationException()));
+            return command;
+        }
+        VirtualMachinePowerState newState;
+        if (command instanceof StartComputer) {
+            newState = VirtualMachinePowerState.POWERED_ON;
+        } else if (command instanceof StopComputer) {
+            newState = VirtualMachinePowerState.POWERED_OFF;
+        } else {
+            newState = VirtualMachinePowerState.SUSPENDED;
         }
+        SetPowerStateOnSuccess continuation = new SetPowerStateOnSuccess(newState);
+        command.setSubmitted(continuation.getFuture());
+        datacenter.getCommandQueue().submit(new SubmitPowerTask(newState, continuation));
         return command;
     }
 
+    /**
+     * Creates what completes a start of this computer when the task that starts it is started by someone else, such
+     * as a bulk start of the datacenter.
+     *
+     * @return the continuation of the start.
+     */
+    ViTaskContinuation<Success> newStartContinuation() {
+        return new SetPowerStateOnSuccess(VirtualMachinePowerState.POWERED_ON);
+    }
+
+    /**
+     * Starts this computer on its own.
+     *
+     * @param continuation the continuation from {@link #newStartContinuation()}.
+     */
+    void start(ViTaskContinuation<Success> continuation) {
+        datacenter.getCommandQueue().submit(new SubmitPowerTask(VirtualMachinePowerState.POWERED_ON, continuation));
+    }
+
     public Host getHost() {
-        return null;  //To change body of implemented methods use File | Settings | File Templates.
+        return datacenter.getInventoryBuilder().getHost(getId().getMORef().getValue());
     }
 
     public boolean isHostChanging() {
@@ -125,19 +151,7 @@ final class ViComputer extends AbstractComputer implements ViEventReceiver {
 
     public PowerState getState() {
         synchronized (lock) {
-            if (runtime == null || runtime.getPowerState() == null) {
-                return PowerState.STOPPED;
-            }
-            switch (runtime.getPowerState()) {
-                case POWERED_OFF:
-                    return PowerState.STOPPED;
-                case POWERED_ON:
-                    return PowerState.RUNNING;
-                case SUSPENDED:
-                    return PowerState.SUSPENDED;
-                default:
-                    return PowerState.STOPPED;
-            }
+            return state.getState();
         }
     }
 
@@ -161,7 +175,7 @@ final class ViComputer extends AbstractComputer implements ViEventReceiver {
     }
 
     public Set<ComputerSnapshot> getSnapshots() {
-        return Collections.emptySet(); // TODO
+        return ViComputerSnapshot.valueOf(datacenter.getId(), getDetails().getSnapshots());
     }
 
     public Set<Host> getAllowedHosts() {
@@ -175,8 +189,70 @@ final class ViComputer extends AbstractComputer implements ViEventReceiver {
     }
 
     public String getDescription() {
+        return getDetails().getDescription();
+    }
+
+    /**
+     * Gets the description without retrieving the configuration if it is not held.
+     *
+     * @return the description or {@code null} if it is not known.
+     */
+    String getLoadedDescription() {
+        synchronized (lock) {
+            return state.getDescription();
+        }
+    }
+
+    /**
+     * Gets the configuration as last received from the server, retrieving it if it is not held.
+     *
+     * @return the configuration or {@code null} if the datacenter does not retain raw properties.
+     */
+    VirtualMachineConfigInfo getRawConfig() {
+        getDetails();
+        synchronized (lock) {
+            return rawConfig;
+        }
+    }
+
+    /**
+     * Gets the runtime information as last received from the server.
+     *
+     * @return the runtime information or {@code null} if the datacenter does not retain raw properties.
+     */
+    VirtualMachineRuntimeInfo getRawRuntime() {
+        synchronized (lock) {
+            return rawRuntime;
+        }
+    }
+
+    /**
+     * Gets the snapshot information as last received from the server, retrieving it if it is not held.
+     *
+     * @return the snapshot information or {@code null} if the datacenter does not retain raw properties.
+     */
+    VirtualMachineSnapshotInfo getRawSnapshot() {
+        getDetails();
+        synchronized (lock) {
+            return rawSnapshot;
+        }
+    }
+
+    /**
+     * Gets the state, retrieving the configuration and snapshots if they are not held.
+     *
+     * @return the state.
+     */
+    private ViComputerState getDetails() {
+        synchronized (lock) {
+            if (detailsLoaded) {
+                return state;
+            }
+        }
+        // the cache takes its own lock before ours, so it must not be called while holding ours
+        datacenter.getPropertyCache().load(this);
         synchronized (lock) {
-            return config == null ? null : config.getAnnotation();
+            return state;
         }
     }
 
@@ -185,6 +261,10 @@ final class ViComputer extends AbstractComputer implements ViEventReceiver {
         return (ViComputerId) super.getId();
     }
 
+    public ManagedObjectReference getMORef() {
+        return getId().getMORef();
+    }
+
     void setParent(ViDatacenterResourceGroup parent) {
         synchronized (lock) {
             this.parent = parent;
@@ -194,36 +274,80 @@ final class ViComputer extends AbstractComputer implements ViEventReceiver {
     void setName(String name) {
         synchronized (lock) {
             this.name = name;
+            datacenter.getComputerIndex().setName(getId(), name);
+            datacenter.entityChanged();
+        }
+    }
+
+    void setDescription(String description) {
+        synchronized (lock) {
+            configChanged(state.withDescription(description));
+        }
+    }
+
+    void setConfig(VirtualMachineConfigInfo config) {
+        synchronized (lock) {
+            configChanged(state.withConfig(config));
+            if (datacenter.isRetainingRawProperties()) {
+                rawConfig = config;
+            }
+        }
+    }
+
+    void setRuntime(VirtualMachineRuntimeInfo runtime) {
+        synchronized (lock) {
+            PowerState oldState = getState();
+            state = state.withRuntime(runtime);
+            if (datacenter.isRetainingRawProperties()) {
+                rawRuntime = runtime;
+            }
+            stateChanged(oldState);
+        }
+    }
+
+    void setSnapshot(VirtualMachineSnapshotInfo snapshot) {
+        synchronized (lock) {
+            state = state.withSnapshot(snapshot);
+            if (datacenter.isRetainingRawProperties()) {
+                rawSnapshot = snapshot;
+            }
+        }
+    }
+
+    public void setDetails(VirtualMachineConfigInfo config, VirtualMachineSnapshotInfo snapshot) {
+        synchronized (lock) {
+            setConfig(config);
+            setSnapshot(snapshot);
+            detailsLoaded = true;
+        }
+    }
+
+    public void evictDetails() {
+        synchronized (lock) {
+            setConfig(null);
+            setSnapshot(null);
+            detailsLoaded = false;
         }
     }
 
     public void receiveEvent(Event event) {
+        if (event instanceof VmResourcePoolMovedEvent) {
+            // the model links are owned by the inventory builder, which takes its own lock
+            VmResourcePoolMovedEvent rpMoved = (VmResourcePoolMovedEvent) event;
+            datacenter.getInventoryBuilder().move(getId().getMORef(), rpMoved.getNewParent().getResourcePool());
+            return;
+        }
+        if (event instanceof VmReconfiguredEvent) {
+            // without a property cache the dispatcher retrieves the new configuration instead
+            if (datacenter.getPropertyCache() != null) {
+                // retrieve the new configuration when it is next needed
+                datacenter.getPropertyCache().evict(this);
+            }
+            return;
+        }
         synchronized (lock) {
-            if (event instanceof VmResourcePoolMovedEvent) {
-                VmResourcePoolMovedEvent rpMoved = (VmResourcePoolMovedEvent) event;
-                AbstractManagedObject oldParent = datacenter.getManagedObject(rpMoved.getOldParent().getResourcePool());
-                AbstractManagedObject newParent = datacenter.getManagedObject(rpMoved.getOldParent().getResourcePool());
-                if (oldParent instanceof ViHostResourceGroup) {
-                    ((ViHostResourceGroup) oldParent).removeComputer(this);
-                    datacenter.getLog().debug("Removing {0} from {1}", this, oldParent);
-                } else if (oldParent instanceof ViHost) {
-                    ((ViHost) oldParent).removeComputer(this);
-                    datacenter.getLog().debug("Removing {0} from {1}", this, oldParent);
-                } else {
-                    datacenter.getLog().debug("No old parent");
-                }
-                if (newParent instanceof ViHostResourceGroup) {
-                    ((ViHostResourceGroup) newParent).addComputer(this);
-                    datacenter.getLog().debug("Adding {0} to {1}", this, newParent);
-                } else if (newParent instanceof ViHost) {
-                    ((ViHost) newParent).addComputer(this);
-                    datacenter.getLog().debug("Adding {0} to {1}", this, newParent);
-                } else {
-                    datacenter.getLog().debug("No new parent");
-                }
-            } else if (event instanceof VmReconfiguredEvent) {
-                VmReconfiguredEvent reconf = (VmReconfiguredEvent) event;
-                // TODO update the new config spec
+            if (event instanceof VmRenamedEvent) {
+                setName(((VmRenamedEvent) event).getNewName());
             } else if (event instanceof VmPoweredOnEvent) {
                 setState(VirtualMachinePowerState.POWERED_ON);
             } else if (event instanceof VmPoweredOffEvent) {
@@ -242,11 +366,42 @@ final class ViComputer extends AbstractComputer implements ViEventReceiver {
 
     private void setState(VirtualMachinePowerState state) {
         synchronized (lock) {
-            if (runtime.getPowerState().equals(state)) {
+            if (this.state.getPowerState() == null || state.equals(this.state.getPowerState())) {
                 return;
             }
-            runtime.setPowerState(state);
+            PowerState oldState = getState();
+            this.state = this.state.withPowerState(state);
+            stateChanged(oldState);
+        }
+    }
+
+    /**
+     * Replaces the state with one whose configuration has changed, noting whether the change is one that the
+     * datacenter's checkpoint holds.
+     *
+     * @param newState the new state.
+     */
+    private void configChanged(ViComputerState newState) {
+        synchronized (lock) {
+            boolean changed = newState.isTemplate() != state.isTemplate()
+                    || (newState.getDescription() == null
+                    ? state.getDescription() != null
+                    : !newState.getDescription().equals(state.getDescription()));
+            state = newState;
+            if (changed) {
+                datacenter.entityChanged();
+            }
+        }
+    }
+
+    private void stateChanged(PowerState oldState) {
+        synchronized (lock) {
             PowerState powerState = getState();
+            if (powerState == oldState) {
+                return;
+            }
+            datacenter.entityChanged();
+            datacenter.getComputerIndex().setState(getId(), powerState);
             if (futureState != null && !futureState.isDone()) {
                 futureState.set(powerState);
                 futureState = null;
@@ -255,6 +410,55 @@ final class ViComputer extends AbstractComputer implements ViEventReceiver {
         }
     }
 
+    /**
+     * Starts the server's task for a change of power state and hands it to the datacenter to watch.
+     */
+    private final class SubmitPowerTask implements ViCommandQueue.Submission {
+        private final VirtualMachinePowerState newState;
+
+        private final ViTaskContinuation<Success> continuation;
+
+        private SubmitPowerTask(VirtualMachinePowerState newState, ViTaskContinuation<Success> continuation) {
+            this.newState = newState;
+            this.continuation = continuation;
+        }
+
+        public void submit() {
+            ViSessionPool sessions = datacenter.getSessionPool();
+            ViConnection session;
+            try {
+                session = sessions.checkout();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                abandon(e);
+                return;
+            }
+            try {
+                ManagedObjectReference task;
+                switch (newState) {
+                    case POWERED_ON:
+                        task = session.getProxy().powerOnVMTask(getId().getMORef(), null);
+                        break;
+                    case POWERED_OFF:
+                        task = session.getProxy().powerOffVMTask(getId().getMORef());
+                        break;
+                    default:
+                        task = session.getProxy().suspendVMTask(getId().getMORef());
+                        break;
+                }
+                datacenter.addPendingTask(task, continuation);
+            } catch (Throwable e) {
+                continuation.set(e.getMessage(), e);
+            } finally {
+                sessions.checkin(session);
+            }
+        }
+
+        public void abandon(Exception reason) {
+            continuation.set(reason.getMessage(), reason);
+        }
+    }
+
     private class SetPowerStateOnSuccess extends ViTaskContinuation<Success> {
         private final VirtualMachinePowerState newState;
 
@@ -0,0 +1,329 @@
+package net.java.dev.vcc.impl.vmware.esx;
+
+import com.vmware.vim25.InvalidPropertyFaultMsg;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.ObjectSpec;
+import com.vmware.vim25.PropertySpec;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+import com.vmware.vim25.VirtualMachineConfigInfo;
+import com.vmware.vim25.VirtualMachineSnapshotInfo;
+import net.java.dev.vcc.api.Log;
+import net.java.dev.vcc.impl.vmware.esx.vim25.Helper;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds the configuration and snapshots of a bounded number of virtual machines when the model is built with only
+ * their names and power states. The properties of a virtual machine are retrieved the first time they are needed,
+ * together with those of the next virtual machines that have not been retrieved yet, on the basis that a caller
+ * asking for one is usually walking through many. Once the cache is full, the properties of the virtual machine that
+ * was used least recently are dropped, to be retrieved again if they are needed again.
+ */
+final class ViComputerPropertyCache {
+
+    /**
+     * The default number of virtual machines retrieved in one call.
+     */
+    static final int DEFAULT_BATCH_SIZE = 50;
+
+    /**
+     * The default number of virtual machines whose properties are held.
+     */
+    static final int DEFAULT_CAPACITY = 1000;
+
+    /**
+     * A virtual machine whose properties the cache holds.
+     */
+    interface Holder {
+        /**
+         * Gets the managed object reference of the virtual machine.
+         *
+         * @return the managed object reference of the virtual machine.
+         */
+        ManagedObjectReference getMORef();
+
+        /**
+         * Sets the properties retrieved by the cache.
+         *
+         * @param config   the configuration.
+         * @param snapshot the snapshots.
+         */
+        void setDetails(VirtualMachineConfigInfo config, VirtualMachineSnapshotInfo snapshot);
+
+        /**
+         * Drops the properties retrieved by the cache.
+         */
+        void evictDetails();
+    }
+
+    /**
+     * Where the cache retrieves properties from.
+     */
+    interface Source {
+        /**
+         * Retrieves the configuration and snapshots of a number of virtual machines.
+         *
+         * @param objectSpecs the virtual machines.
+         *
+         * @return the properties of those virtual machines that still exist.
+         *
+         * @throws RuntimeFaultFaultMsg    if the properties could not be retrieved.
+         * @throws InvalidPropertyFaultMsg if the properties could not be retrieved.
+         * @throws InterruptedException    if the calling thread was interrupted while waiting for a session.
+         */
+        List<ObjectContent> retrieve(ObjectSpec[] objectSpecs)
+                throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg, InterruptedException;
+    }
+
+    private final Source source;
+
+    private final Log log;
+
+    private final int batchSize;
+
+    private final int capacity;
+
+    /**
+     * The virtual machines whose properties are held, least recently used first.
+     */
+    private final LinkedHashMap<String, Holder> loaded = new LinkedHashMap<String, Holder>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Holder> eldest) {
+            if (size() <= capacity) {
+                return false;
+            }
+            eldest.getValue().evictDetails();
+            unloaded.put(eldest.getKey(), eldest.getValue());
+            evictedCount++;
+            return true;
+        }
+    };
+
+    /**
+     * The virtual machines whose properties are not held, in the order they were added to the model.
+     */
+    private final LinkedHashMap<String, Holder> unloaded = new LinkedHashMap<String, Holder>();
+
+    /**
+     * The virtual machines whose properties are being retrieved. A virtual machine that is forgotten or evicted
+     * meanwhile is removed, so that the properties retrieved for it are dropped.
+     */
+    private final Map<String, Holder> inFlight = new HashMap<String, Holder>();
+
+    private long retrievedCount = 0;
+
+    private long evictedCount = 0;
+
+    ViComputerPropertyCache(ViDatacenter viDatacenter, Log log, int batchSize, int capacity) {
+        this(new SessionPoolSource(viDatacenter), log, batchSize, capacity);
+    }
+
+    ViComputerPropertyCache(Source source, Log log, int batchSize, int capacity) {
+        if (batchSize < 1 || capacity < batchSize) {
+            throw new IllegalArgumentException("Capacity must be at least the batch size, which must be at least 1");
+        }
+        this.source = source;
+        this.log = log;
+        this.batchSize = batchSize;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Records a virtual machine whose properties have not been retrieved.
+     *
+     * @param computer the virtual machine.
+     */
+    synchronized void register(Holder computer) {
+        String key = computer.getMORef().getValue();
+        inFlight.remove(key);
+        unloaded.put(key, computer);
+    }
+
+    /**
+     * Forgets a virtual machine that has been removed from the model.
+     *
+     * @param key the value of the virtual machine's managed object reference.
+     */
+    synchronized void forget(String key) {
+        loaded.remove(key);
+        unloaded.remove(key);
+        inFlight.remove(key);
+    }
+
+    /**
+     * Drops the properties of a virtual machine, typically because they have changed.
+     *
+     * @param computer the virtual machine.
+     */
+    synchronized void evict(Holder computer) {
+        String key = computer.getMORef().getValue();
+        if (loaded.remove(key) != null) {
+            computer.evictDetails();
+            unloaded.put(key, computer);
+        } else if (inFlight.remove(key) != null) {
+            // the properties being retrieved may predate the change
+            unloaded.put(key, computer);
+        }
+    }
+
+    /**
+     * Ensures the properties of a virtual machine are held, retrieving them if need be. The cache is not locked while
+     * the properties are retrieved, so the model can be updated meanwhile; a caller that needs a virtual machine that
+     * another caller is retrieving waits for that retrieval instead.
+     *
+     * @param computer the virtual machine.
+     */
+    void load(Holder computer) {
+        String key = computer.getMORef().getValue();
+        Map<String, Holder> byKey;
+        synchronized (this) {
+            while (inFlight.get(key) == computer) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (loaded.get(key) != null || unloaded.get(key) != computer) {
+                // either already held, which the lookup records as a use, or no longer in the model
+                return;
+            }
+            byKey = new LinkedHashMap<String, Holder>(batchSize * 2);
+            byKey.put(key, unloaded.remove(key));
+            for (Iterator<Map.Entry<String, Holder>> it = unloaded.entrySet().iterator();
+                 it.hasNext() && byKey.size() < batchSize;) {
+                Map.Entry<String, Holder> entry = it.next();
+                byKey.put(entry.getKey(), entry.getValue());
+                it.remove();
+            }
+            inFlight.putAll(byKey);
+        }
+        List<ObjectContent> contents = null;
+        try {
+            contents = retrieve(key, byKey);
+        } finally {
+            record(byKey, contents);
+        }
+    }
+
+    private List<ObjectContent> retrieve(String key, Map<String, Holder> byKey) {
+        ObjectSpec[] objectSpecs = new ObjectSpec[byKey.size()];
+        int i = 0;
+        for (Holder c : byKey.values()) {
+            objectSpecs[i++] = Helper.newObjectSpec(c.getMORef(), false);
+        }
+        try {
+            try {
+                return source.retrieve(objectSpecs);
+            } catch (RuntimeFaultFaultMsg e) {
+                if (objectSpecs.length == 1) {
+                    throw e;
+                }
+                // one destroyed virtual machine fails the whole batch, so settle for the one that is needed
+                log.debug("Could not retrieve a batch of properties: {0}", e.getMessage());
+                return source.retrieve(new ObjectSpec[]{objectSpecs[0]});
+            }
+        } catch (RuntimeFaultFaultMsg e) {
+            log.warn(e, "Could not retrieve the properties of {0}", key);
+        } catch (InvalidPropertyFaultMsg e) {
+            log.warn(e, "Could not retrieve the properties of {0} virtual machines", objectSpecs.length);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /**
+     * Records the properties retrieved for a batch, and returns the rest of the batch to be retrieved later.
+     *
+     * @param byKey    the batch.
+     * @param contents the properties retrieved, or {@code null} if they could not be retrieved.
+     */
+    private synchronized void record(Map<String, Holder> byKey, List<ObjectContent> contents) {
+        int count = 0;
+        if (contents != null) {
+            for (ObjectContent content : contents) {
+                String contentKey = content.getObj().getValue();
+                Holder c = byKey.remove(contentKey);
+                if (c == null || inFlight.get(contentKey) != c) {
+                    // forgotten or evicted while its properties were being retrieved
+                    continue;
+                }
+                inFlight.remove(contentKey);
+                Map<String, Object> properties = Helper.asMap(content.getPropSet());
+                c.setDetails((VirtualMachineConfigInfo) properties.get("config"),
+                        (VirtualMachineSnapshotInfo) properties.get("snapshot"));
+                loaded.put(contentKey, c);
+                retrievedCount++;
+                count++;
+            }
+            log.debug("Retrieved the properties of {0} virtual machines", count);
+        }
+        // anything the server did not return has most likely been destroyed and will be removed from the model
+        for (Map.Entry<String, Holder> entry : byKey.entrySet()) {
+            if (inFlight.get(entry.getKey()) == entry.getValue()) {
+                inFlight.remove(entry.getKey());
+                unloaded.put(entry.getKey(), entry.getValue());
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Gets the number of virtual machines whose properties are held.
+     *
+     * @return the number of virtual machines whose properties are held.
+     */
+    synchronized int getSize() {
+        return loaded.size();
+    }
+
+    /**
+     * Gets the number of times the properties of a virtual machine have been retrieved.
+     *
+     * @return the number of times the properties of a virtual machine have been retrieved.
+     */
+    synchronized long getRetrievedCount() {
+        return retrievedCount;
+    }
+
+    /**
+     * Gets the number of times the properties of a virtual machine have been dropped to make room.
+     *
+     * @return the number of times the properties of a virtual machine have been dropped to make room.
+     */
+    synchronized long getEvictedCount() {
+        return evictedCount;
+    }
+
+    /**
+     * Retrieves properties on one of the datacenter's command sessions.
+     */
+    private static final class SessionPoolSource implements Source {
+        private final ViDatacenter viDatacenter;
+
+        private SessionPoolSource(ViDatacenter viDatacenter) {
+            this.viDatacenter = viDatacenter;
+        }
+
+        public List<ObjectContent> retrieve(ObjectSpec[] objectSpecs)
+                throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg, InterruptedException {
+            ViSessionPool sessions = viDatacenter.getSessionPool();
+            ViConnection session = sessions.checkout();
+            try {
+                return session.getProxy().retrieveProperties(session.getServiceContent().getPropertyCollector(),
+                        Collections.singletonList(Helper.newPropertyFilterSpec(new PropertySpec[]{
+                                Helper.newPropertySpec("VirtualMachine", false, "config", "snapshot")}, objectSpecs)));
+            } finally {
+                sessions.checkin(session);
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package net.java.dev.vcc.impl.vmware.esx;
+
+import com.vmware.vim25.ManagedObjectReference;
+import net.java.dev.vcc.api.Command;
+import net.java.dev.vcc.api.ComputerSnapshot;
+import net.java.dev.vcc.api.PowerState;
+import net.java.dev.vcc.spi.AbstractComputerSnapshot;
+import net.java.dev.vcc.util.CompletedFuture;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+/**
+ * A snapshot of a {@link ViComputer}, as it was when the computer's snapshots were last retrieved. Snapshots are not
+ * kept in the model; each call to {@link ViComputer#getSnapshots()} builds them again from the computer's state.
+ */
+final class ViComputerSnapshot extends AbstractComputerSnapshot {
+
+    private final ViComputerSnapshot parent;
+
+    private final ViComputerState.Snapshot snapshot;
+
+    private final Set<ComputerSnapshot> children = new LinkedHashSet<ComputerSnapshot>();
+
+    private ViComputerSnapshot(ViComputerSnapshotId id, ViComputerSnapshot parent, ViComputerState.Snapshot snapshot) {
+        super(id);
+        this.parent = parent;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Builds the snapshots of a computer.
+     *
+     * @param datacenterId the ID of the datacenter of the computer.
+     * @param roots        the snapshots that have no parent snapshot.
+     *
+     * @return all the snapshots, each parent before its children.
+     */
+    static Set<ComputerSnapshot> valueOf(ViDatacenterId datacenterId, List<ViComputerState.Snapshot> roots) {
+        if (roots.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<ComputerSnapshot> result = new LinkedHashSet<ComputerSnapshot>();
+        add(datacenterId, null, roots, result);
+        return Collections.unmodifiableSet(result);
+    }
+
+    private static void add(ViDatacenterId datacenterId, ViComputerSnapshot parent,
+                            List<ViComputerState.Snapshot> snapshots, Set<ComputerSnapshot> result) {
+        for (ViComputerState.Snapshot snapshot : snapshots) {
+            ManagedObjectReference mo = new ManagedObjectReference();
+            mo.setType("VirtualMachineSnapshot");
+            mo.setValue(snapshot.getKey());
+            ViComputerSnapshot computerSnapshot =
+                    new ViComputerSnapshot(new ViComputerSnapshotId(datacenterId, mo), parent, snapshot);
+            if (parent != null) {
+                parent.children.add(computerSnapshot);
+            }
+            result.add(computerSnapshot);
+            add(datacenterId, computerSnapshot, snapshot.getChildren(), result);
+        }
+    }
+
+    public Future<Boolean> doRename(String name) {
+        return new CompletedFuture<Boolean>("Unsupported operation", new UnsupportedOperationException());
+    }
+
+    public Future<Boolean> doSetDescription(String description) {
+        return new CompletedFuture<Boolean>("Unsupported operation", new UnsupportedOperationException());
+    }
+
+    public Future<Boolean> doDelete() {
+        return new CompletedFuture<Boolean>("Unsupported operation", new UnsupportedOperationException());
+    }
+
+    public ComputerSnapshot getParent() {
+        return parent;
+    }
+
+    public Set<ComputerSnapshot> getChildren() {
+        return Collections.unmodifiableSet(children);
+    }
+
+    public PowerState getState() {
+        return ViComputerState.toState(snapshot.getPowerState());
+    }
+
+    public Set<Class<? extends Command>> getCommands() {
+        return Collections.emptySet();
+    }
+
+    public <T extends Command> T execute(T command) {
+        command.setSubmitted(new CompletedFuture("Unsupported command", new UnsupportedOperationException()));
+        return command;
+    }
+
+    public String getName() {
+        return snapshot.getName();
+    }
+
+    @Override
+    public String getDescription() {
+        return snapshot.getDescription();
+    }
+
+    /**
+     * Gets when the snapshot was taken.
+     *
+     * @return when the snapshot was taken, in milliseconds since the epoch.
+     */
+    long getCreateTime() {
+        return snapshot.getCreateTime();
+    }
+
+    @Override
+    public ViComputerSnapshotId getId() {
+        return (ViComputerSnapshotId) super.getId();
+    }
+}
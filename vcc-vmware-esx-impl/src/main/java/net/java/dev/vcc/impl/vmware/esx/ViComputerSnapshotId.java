@@ -0,0 +1,22 @@
+package net.java.dev.vcc.impl.vmware.esx;
+
+import com.vmware.vim25.ManagedObjectReference;
+import net.java.dev.vcc.api.ComputerSnapshot;
+
+/**
+ * The ID of a {@link ViComputerSnapshot}.
+ */
+class ViComputerSnapshotId extends ViManagedObjectId<ComputerSnapshot> {
+
+    /**
+     * Constructs a new {@link net.java.dev.vcc.api.ManagedObjectId}.
+     *
+     * @param datacenterId The ID of the {@link net.java.dev.vcc.api.Datacenter} hosting the instance referenced by this
+     *                     ID.
+     * @param mo           The VMware ESX Managed Object Reference for this {@link ComputerSnapshot}.
+     */
+    ViComputerSnapshotId(ViDatacenterId datacenterId, ManagedObjectReference mo) {
+        super(ComputerSnapshot.class, datacenterId, mo);
+    }
+
+}
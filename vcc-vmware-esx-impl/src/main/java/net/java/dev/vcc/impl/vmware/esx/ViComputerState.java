@@ -0,0 +1,229 @@
+package net.java.dev.vcc.impl.vmware.esx;
+
+import com.vmware.vim25.VirtualMachineConfigInfo;
+import com.vmware.vim25.VirtualMachinePowerState;
+import com.vmware.vim25.VirtualMachineRuntimeInfo;
+import com.vmware.vim25.VirtualMachineSnapshotInfo;
+import com.vmware.vim25.VirtualMachineSnapshotTree;
+import net.java.dev.vcc.api.PowerState;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The state of a virtual machine that the model exposes. This is a small immutable projection of the configuration,
+ * runtime and snapshot information that the server sends, which is dominated by device lists, file layouts and extra
+ * configuration that the model never looks at. Changes produce a new state rather than modifying this one.
+ */
+final class ViComputerState {
+
+    /**
+     * The state of a virtual machine that nothing is known about.
+     */
+    static final ViComputerState UNKNOWN = new ViComputerState(null, false, null, null,
+            Collections.<Snapshot>emptyList());
+
+    private final String description;
+
+    private final boolean template;
+
+    private final VirtualMachinePowerState powerState;
+
+    private final String currentSnapshot;
+
+    private final List<Snapshot> snapshots;
+
+    private ViComputerState(String description, boolean template, VirtualMachinePowerState powerState,
+                            String currentSnapshot, List<Snapshot> snapshots) {
+        this.description = description;
+        this.template = template;
+        this.powerState = powerState;
+        this.currentSnapshot = currentSnapshot;
+        this.snapshots = snapshots;
+    }
+
+    /**
+     * Projects the state of a virtual machine from the properties the server sends.
+     *
+     * @param config   the configuration or {@code null} if it is not known.
+     * @param runtime  the runtime information or {@code null} if it is not known.
+     * @param snapshot the snapshot information or {@code null} if the virtual machine has no snapshots.
+     *
+     * @return the state.
+     */
+    static ViComputerState valueOf(VirtualMachineConfigInfo config, VirtualMachineRuntimeInfo runtime,
+                                   VirtualMachineSnapshotInfo snapshot) {
+        return UNKNOWN.withConfig(config).withRuntime(runtime).withSnapshot(snapshot);
+    }
+
+    ViComputerState withConfig(VirtualMachineConfigInfo config) {
+        return config == null
+                ? new ViComputerState(null, false, powerState, currentSnapshot, snapshots)
+                : new ViComputerState(config.getAnnotation(), config.isTemplate(), powerState, currentSnapshot,
+                        snapshots);
+    }
+
+    ViComputerState withDescription(String description) {
+        return new ViComputerState(description, template, powerState, currentSnapshot, snapshots);
+    }
+
+    ViComputerState withRuntime(VirtualMachineRuntimeInfo runtime) {
+        return withPowerState(runtime == null ? null : runtime.getPowerState());
+    }
+
+    ViComputerState withPowerState(VirtualMachinePowerState powerState) {
+        return powerState == this.powerState
+                ? this
+                : new ViComputerState(description, template, powerState, currentSnapshot, snapshots);
+    }
+
+    ViComputerState withSnapshot(VirtualMachineSnapshotInfo snapshot) {
+        if (snapshot == null) {
+            return new ViComputerState(description, template, powerState, null, Collections.<Snapshot>emptyList());
+        }
+        return new ViComputerState(description, template, powerState,
+                snapshot.getCurrentSnapshot() == null ? null : snapshot.getCurrentSnapshot().getValue(),
+                Snapshot.valueOf(snapshot.getRootSnapshotList()));
+    }
+
+    String getDescription() {
+        return description;
+    }
+
+    boolean isTemplate() {
+        return template;
+    }
+
+    /**
+     * Gets the power state as the server reports it.
+     *
+     * @return the power state or {@code null} if it is not known.
+     */
+    VirtualMachinePowerState getPowerState() {
+        return powerState;
+    }
+
+    /**
+     * Gets the power state as the API reports it.
+     *
+     * @return the power state, which is {@link PowerState#STOPPED} if it is not known.
+     */
+    PowerState getState() {
+        return toState(powerState);
+    }
+
+    /**
+     * Converts a power state as the server reports it to one as the API reports it.
+     *
+     * @param powerState the power state or {@code null} if it is not known.
+     *
+     * @return the power state, which is {@link PowerState#STOPPED} if it is not known.
+     */
+    static PowerState toState(VirtualMachinePowerState powerState) {
+        if (powerState == null) {
+            return PowerState.STOPPED;
+        }
+        switch (powerState) {
+            case POWERED_ON:
+                return PowerState.RUNNING;
+            case SUSPENDED:
+                return PowerState.SUSPENDED;
+            default:
+                return PowerState.STOPPED;
+        }
+    }
+
+    /**
+     * Gets the snapshot the virtual machine is running from.
+     *
+     * @return the value of the current snapshot's managed object reference or {@code null} if there is none.
+     */
+    String getCurrentSnapshot() {
+        return currentSnapshot;
+    }
+
+    /**
+     * Gets the snapshots that have no parent snapshot.
+     *
+     * @return the root snapshots, oldest first.
+     */
+    List<Snapshot> getSnapshots() {
+        return snapshots;
+    }
+
+    /**
+     * A snapshot and the snapshots taken from it.
+     */
+    static final class Snapshot {
+        private final String key;
+        private final String name;
+        private final String description;
+        private final long createTime;
+        private final VirtualMachinePowerState powerState;
+        private final List<Snapshot> children;
+
+        private Snapshot(String key, String name, String description, long createTime,
+                         VirtualMachinePowerState powerState, List<Snapshot> children) {
+            this.key = key;
+            this.name = name;
+            this.description = description;
+            this.createTime = createTime;
+            this.powerState = powerState;
+            this.children = children;
+        }
+
+        private static List<Snapshot> valueOf(List<VirtualMachineSnapshotTree> trees) {
+            if (trees == null || trees.isEmpty()) {
+                return Collections.emptyList();
+            }
+            List<Snapshot> result = new ArrayList<Snapshot>(trees.size());
+            for (VirtualMachineSnapshotTree tree : trees) {
+                result.add(new Snapshot(tree.getSnapshot() == null ? null : tree.getSnapshot().getValue(),
+                        tree.getName(), tree.getDescription(),
+                        tree.getCreateTime() == null ? 0 : tree.getCreateTime().toGregorianCalendar().getTimeInMillis(),
+                        tree.getState(), valueOf(tree.getChildSnapshotList())));
+            }
+            return Collections.unmodifiableList(result);
+        }
+
+        /**
+         * Gets the value of the snapshot's managed object reference.
+         *
+         * @return the value of the snapshot's managed object reference.
+         */
+        String getKey() {
+            return key;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        String getDescription() {
+            return description;
+        }
+
+        /**
+         * Gets when the snapshot was taken.
+         *
+         * @return when the snapshot was taken, in milliseconds since the epoch.
+         */
+        long getCreateTime() {
+            return createTime;
+        }
+
+        /**
+         * Gets the power state of the virtual machine when the snapshot was taken.
+         *
+         * @return the power state or {@code null} if it is not known.
+         */
+        VirtualMachinePowerState getPowerState() {
+            return powerState;
+        }
+
+        List<Snapshot> getChildren() {
+            return children;
+        }
+    }
+}
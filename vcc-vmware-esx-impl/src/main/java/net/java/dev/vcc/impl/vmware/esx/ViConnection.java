@@ -3,32 +3,170 @@ package net.java.dev.vcc.impl.vmware.esx;
 import com.vmware.vim25.InvalidLocaleFaultMsg;
 import com.vmware.vim25.InvalidLoginFaultMsg;
 import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.NotAuthenticated;
+import com.vmware.vim25.RuntimeFault;
 import com.vmware.vim25.RuntimeFaultFaultMsg;
 import com.vmware.vim25.ServiceContent;
 import com.vmware.vim25.UserSession;
 import com.vmware.vim25.VimPortType;
 import net.java.dev.vcc.impl.vmware.esx.vim25.ConnectionManager;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.net.MalformedURLException;
-import java.util.concurrent.ExecutorService;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.xml.soap.Detail;
+import javax.xml.soap.DetailEntry;
+import javax.xml.ws.soap.SOAPFaultException;
 
 /**
  * Holds the connection to a VMware ESX server.
+ * <p/>
+ * When the server ends the session, for example because it has been idle for too long, the proxy logs in again with
+ * the credentials the session was opened with, or clones the session it was cloned from, and repeats the call that was
+ * refused. Calls to the collectors and filters of the session are not repeated, as those end with the session;
+ * their owners check {@link #getGeneration()} and create them again.
  */
 final class ViConnection {
+    private final String url;
+    private final VimPortType port;
     private final VimPortType proxy;
     private final ManagedObjectReference sessionManager;
-    private final UserSession session;
+    private volatile UserSession session;
     private final ManagedObjectReference serviceInstance;
     private final ServiceContent serviceContent;
 
-    public ViConnection(String url, String username, char[] password, ExecutorService executor)
+    private final String username;
+
+    private final char[] password;
+
+    /**
+     * The session this session was cloned from, or {@code null} if the session was opened with a password.
+     */
+    private final ViConnection original;
+
+    /**
+     * The number of times the session has been opened again.
+     */
+    private volatile int generation = 0;
+
+    private final Object loginLock = new Object();
+
+    /**
+     * {@code true} once the session has been ended on purpose, after which it must never be opened again.
+     */
+    private volatile boolean closed = false;
+
+    private final boolean compress;
+
+    private final boolean compressRequests;
+
+    private final int connectTimeout;
+
+    /**
+     * How long the sessions cloned from this session wait for a response, in milliseconds.
+     */
+    private final int readTimeout;
+
+    /**
+     * How long it took to connect and log in, in milliseconds.
+     */
+    private final long connectTime;
+
+    /**
+     * Opens a session. The session waits for responses for as long as they take, as it may wait for updates.
+     *
+     * @param details  the URL of the server and the settings of the connection.
+     * @param username the user.
+     * @param password the user's password.
+     *
+     * @throws MalformedURLException if the URL of the server is invalid.
+     * @throws RuntimeFaultFaultMsg  if the session could not be opened.
+     * @throws InvalidLocaleFaultMsg if the server does not support the default locale.
+     * @throws InvalidLoginFaultMsg  if the server refused the session.
+     */
+    public ViConnection(ViConnectionDetails details, String username, char[] password)
             throws MalformedURLException, RuntimeFaultFaultMsg, InvalidLocaleFaultMsg, InvalidLoginFaultMsg {
-        proxy = ConnectionManager.getConnection(url, executor);
+        long start = System.nanoTime();
+        this.url = details.getUrl();
+        this.username = username;
+        this.password = password.clone();
+        this.original = null;
+        compress = details.getBooleanParam(ViConnectionDetails.COMPRESSION, true);
+        compressRequests = details.getBooleanParam(ViConnectionDetails.COMPRESS_REQUESTS, false);
+        connectTimeout = details.getIntParam(ViConnectionDetails.CONNECT_TIMEOUT, ResourceHolder.CONNECT_TIMEOUT);
+        readTimeout = details.getIntParam(ViConnectionDetails.READ_TIMEOUT, ResourceHolder.READ_TIMEOUT);
+        port = ConnectionManager.getConnection(url, compress, compressRequests, connectTimeout, 0);
+        proxy = newProxy(port);
         serviceInstance = ConnectionManager.getServiceInstance();
-        serviceContent = proxy.retrieveServiceContent(serviceInstance);
+        serviceContent = port.retrieveServiceContent(serviceInstance);
         sessionManager = serviceContent.getSessionManager();
-        session = proxy.login(sessionManager, username, new String(password), null);
+        session = port.login(sessionManager, username, new String(password), null);
+        connectTime = (System.nanoTime() - start) / 1000000;
+    }
+
+    private ViConnection(ViConnection original)
+            throws MalformedURLException, RuntimeFaultFaultMsg, InvalidLoginFaultMsg {
+        long start = System.nanoTime();
+        url = original.url;
+        username = null;
+        password = null;
+        this.original = original;
+        compress = original.compress;
+        compressRequests = original.compressRequests;
+        connectTimeout = original.connectTimeout;
+        readTimeout = original.readTimeout;
+        String ticket = original.proxy.acquireCloneTicket(original.sessionManager);
+        port = ConnectionManager.getConnection(url, compress, compressRequests, connectTimeout, readTimeout);
+        proxy = newProxy(port);
+        serviceInstance = ConnectionManager.getServiceInstance();
+        serviceContent = port.retrieveServiceContent(serviceInstance);
+        sessionManager = serviceContent.getSessionManager();
+        session = port.cloneSession(sessionManager, ticket);
+        connectTime = (System.nanoTime() - start) / 1000000;
+    }
+
+    /**
+     * Opens another session as the same user, without needing the user's password. The new session gives up waiting
+     * for a response after the read timeout, so it must not be used to wait for updates.
+     *
+     * @return the new session.
+     *
+     * @throws MalformedURLException if the URL of the server is invalid.
+     * @throws RuntimeFaultFaultMsg  if the session could not be opened.
+     * @throws InvalidLoginFaultMsg  if the server refused the session.
+     */
+    public ViConnection cloneSession()
+            throws MalformedURLException, RuntimeFaultFaultMsg, InvalidLoginFaultMsg {
+        return new ViConnection(this);
+    }
+
+    /**
+     * Ends this session. Calls that are refused afterwards because the session has ended do not open it again.
+     *
+     * @throws RuntimeFaultFaultMsg if the server could not end the session.
+     */
+    public void logout() throws RuntimeFaultFaultMsg {
+        synchronized (loginLock) {
+            closed = true;
+        }
+        proxy.logout(sessionManager);
+    }
+
+    /**
+     * Keeps the session alive with the cheapest call the server offers, opening it again if it has already ended.
+     *
+     * @throws RuntimeFaultFaultMsg if the server could not be reached or the session could not be opened again.
+     */
+    public void keepAlive() throws RuntimeFaultFaultMsg {
+        proxy.currentTime(serviceInstance);
     }
 
     public VimPortType getProxy() {
@@ -50,4 +188,164 @@ final class ViConnection {
     public ServiceContent getServiceContent() {
         return serviceContent;
     }
+
+    /**
+     * Gets how long it took to open this session, from creating the port to being logged in.
+     *
+     * @return how long it took to open this session, in milliseconds.
+     */
+    public long getConnectTime() {
+        return connectTime;
+    }
+
+    /**
+     * Gets the number of times the session has been opened again since it was first opened. Collectors and filters
+     * created before the last time the session was opened again no longer exist.
+     *
+     * @return the number of times the session has been opened again.
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Opens the session again after the server refused a call on one of its collectors or filters, which are not
+     * retried, because the server forgot them when the session ended.
+     *
+     * @param refusedGeneration the generation of the session that refused the call.
+     *
+     * @return {@code false} if the session has been logged out or could not be opened again.
+     */
+    public boolean renew(int refusedGeneration) {
+        try {
+            login(refusedGeneration);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Opens the session again, unless it has already been opened again since the call that was refused.
+     *
+     * @param refusedGeneration the generation of the session that refused the call.
+     *
+     * @throws Exception if the session could not be opened again.
+     */
+    private void login(int refusedGeneration) throws Exception {
+        synchronized (loginLock) {
+            if (closed) {
+                throw new IllegalStateException("The session has been ended");
+            }
+            if (generation != refusedGeneration) {
+                return;
+            }
+            if (original == null) {
+                session = port.login(sessionManager, username, new String(password), null);
+            } else {
+                session = port.cloneSession(sessionManager, original.proxy.acquireCloneTicket(original.sessionManager));
+            }
+            generation++;
+        }
+    }
+
+    private VimPortType newProxy(VimPortType port) {
+        return (VimPortType) Proxy.newProxyInstance(VimPortType.class.getClassLoader(),
+                new Class[]{VimPortType.class}, new Reauthenticator(port));
+    }
+
+    /**
+     * Checks if the server refused a call because the session has ended.
+     *
+     * @param e the exception thrown by the call.
+     *
+     * @return {@code true} if the session has ended.
+     */
+    static boolean isNotAuthenticated(Throwable e) {
+        return isFault(e, NotAuthenticated.class);
+    }
+
+    /**
+     * Checks if the server refused a call with a particular fault.
+     *
+     * @param e    the exception thrown by the call.
+     * @param type the type of the fault.
+     *
+     * @return {@code true} if the call was refused with the fault, or one derived from it.
+     */
+    static boolean isFault(Throwable e, Class<? extends RuntimeFault> type) {
+        if (e instanceof RuntimeFaultFaultMsg) {
+            return type.isInstance(((RuntimeFaultFaultMsg) e).getFaultInfo());
+        }
+        if (e instanceof SOAPFaultException) {
+            // faults that the method does not declare are not unmarshalled, so look at the detail instead
+            Detail detail = ((SOAPFaultException) e).getFault().getDetail();
+            if (detail != null) {
+                Iterator<?> i = detail.getDetailEntries();
+                while (i.hasNext()) {
+                    if (((DetailEntry) i.next()).getElementName().getLocalName().startsWith(type.getSimpleName())) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Opens the session again when the server refuses a call because the session has ended.
+     */
+    private final class Reauthenticator implements InvocationHandler {
+
+        private final VimPortType port;
+
+        private Reauthenticator(VimPortType port) {
+            this.port = port;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            int refusedGeneration = generation;
+            try {
+                return method.invoke(port, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (closed || !isNotAuthenticated(cause) || ResourceHolder.SESSION_CALLS.contains(method.getName())
+                        || ResourceHolder.SESSION_OBJECT_CALLS.contains(method.getName())) {
+                    // the owners of collectors and filters notice the refusal and renew the session themselves
+                    throw cause;
+                }
+                try {
+                    login(refusedGeneration);
+                } catch (Exception loginFailure) {
+                    throw cause;
+                }
+                // the server did not act on the refused call, so it is safe to make it again
+                try {
+                    return method.invoke(port, args);
+                } catch (InvocationTargetException again) {
+                    throw again.getCause();
+                }
+            }
+        }
+    }
+
+    private static final class ResourceHolder {
+        private static final int CONNECT_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(60);
+        private static final int READ_TIMEOUT = (int) TimeUnit.MINUTES.toMillis(10);
+
+        /**
+         * The calls that open or end a session, which must not open the session again.
+         */
+        private static final Set<String> SESSION_CALLS = Collections.unmodifiableSet(new HashSet<String>(
+                Arrays.asList("login", "logout", "cloneSession")));
+
+        /**
+         * The calls to collectors and filters, which end with the session that created them and so cannot be made
+         * again in a new session.
+         */
+        private static final Set<String> SESSION_OBJECT_CALLS = Collections.unmodifiableSet(new HashSet<String>(
+                Arrays.asList("waitForUpdates", "checkForUpdates", "cancelWaitForUpdates", "destroyPropertyFilter",
+                        "readNextEvents", "readPreviousEvents", "rewindCollector", "resetCollector",
+                        "setCollectorPageSize", "destroyCollector")));
+    }
 }
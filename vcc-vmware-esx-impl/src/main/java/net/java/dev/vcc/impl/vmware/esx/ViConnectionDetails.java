@@ -0,0 +1,212 @@
+package net.java.dev.vcc.impl.vmware.esx;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds the connection details parsed from a {@code vcc+vi+} URL. Tuning parameters are appended to the URL as
+ * {@code ;name=value} pairs, for example {@code vcc+vi+https://vcenter/sdk;changeTracking=true}. Parameter names are
+ * not case sensitive.
+ */
+final class ViConnectionDetails {
+
+    /**
+     * When {@code true} the model is kept up to date by tracking property changes rather than by reading events.
+     */
+    static final String CHANGE_TRACKING = "changetracking";
+
+    /**
+     * The number of threads that events are dispatched on.
+     */
+    static final String DISPATCH_WORKERS = "dispatchworkers";
+
+    /**
+     * How long, in milliseconds, to gather events for each virtual machine so that bursts can be merged into their
+     * net transition. Coalescing is off unless this is set.
+     */
+    static final String COALESCE_WINDOW = "coalescewindow";
+
+    /**
+     * A comma separated list of event type names to collect in addition to those the model consumes, or {@code *} to
+     * collect every event.
+     */
+    static final String EVENT_TYPES = "eventtypes";
+
+    /**
+     * The largest number of events read from the server in one call.
+     */
+    static final String MAX_PAGE_SIZE = "maxpagesize";
+
+    /**
+     * The longest time, in milliseconds, between polls for events when the connection is idle.
+     */
+    static final String MAX_POLL_INTERVAL = "maxpollinterval";
+
+    /**
+     * The number of virtual machines retrieved in one call while loading the inventory.
+     */
+    static final String LOAD_PAGE_SIZE = "loadpagesize";
+
+    /**
+     * The number of sessions used to retrieve the inventory concurrently.
+     */
+    static final String LOAD_SESSIONS = "loadsessions";
+
+    /**
+     * The number of sessions, besides the one used for collecting events and updates, used for commands.
+     */
+    static final String COMMAND_SESSIONS = "commandsessions";
+
+    /**
+     * Whether the configuration and snapshots of virtual machines are retrieved when first needed rather than with
+     * the inventory.
+     */
+    static final String LAZY_PROPERTIES = "lazyproperties";
+
+    /**
+     * The number of virtual machines whose configuration and snapshots are held when they are retrieved on demand.
+     */
+    static final String PROPERTY_CACHE_SIZE = "propertycachesize";
+
+    /**
+     * Whether virtual machines keep the configuration, runtime and snapshot information received from the server, in
+     * addition to the small part of it that the model uses.
+     */
+    static final String RAW_PROPERTIES = "rawproperties";
+
+    /**
+     * The file to checkpoint the model to. When the file holds a recent checkpoint, the model is restored from it
+     * instead of loading the whole inventory.
+     */
+    static final String CHECKPOINT = "checkpoint";
+
+    /**
+     * The oldest checkpoint, in milliseconds, that will be restored.
+     */
+    static final String CHECKPOINT_MAX_AGE = "checkpointmaxage";
+
+    /**
+     * How often, in milliseconds, the checkpoint is brought up to date.
+     */
+    static final String CHECKPOINT_INTERVAL = "checkpointinterval";
+
+    /**
+     * How often, in milliseconds, the sessions are kept alive when they are otherwise idle, or {@code 0} to never
+     * keep them alive.
+     */
+    static final String KEEPALIVE_INTERVAL = "keepaliveinterval";
+
+    /**
+     * Whether the server is asked to compress its responses.
+     */
+    static final String COMPRESSION = "compression";
+
+    /**
+     * Whether requests are compressed. Not every server accepts compressed requests.
+     */
+    static final String COMPRESS_REQUESTS = "compressrequests";
+
+    /**
+     * How long, in milliseconds, to wait for a connection to the server, or {@code 0} to wait forever.
+     */
+    static final String CONNECT_TIMEOUT = "connecttimeout";
+
+    /**
+     * How long, in milliseconds, the command and loading sessions wait for a response, or {@code 0} to wait forever.
+     * The datacenter's own session waits for updates, so it always waits forever.
+     */
+    static final String READ_TIMEOUT = "readtimeout";
+
+    private final String url;
+
+    private final Map<String, String> params;
+
+    ViConnectionDetails(String url, Map<String, String> params) {
+        this.url = url;
+        this.params = Collections.unmodifiableMap(new HashMap<String, String>(params));
+    }
+
+    /**
+     * Gets the URL of the VMware web service, without the {@code vcc+vi+} prefix and without any parameters.
+     *
+     * @return the URL of the VMware web service.
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    public Map<String, String> getParams() {
+        return params;
+    }
+
+    public String getParam(String name, String defaultValue) {
+        String value = params.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    public boolean getBooleanParam(String name, boolean defaultValue) {
+        String value = params.get(name);
+        return value == null ? defaultValue : Boolean.valueOf(value);
+    }
+
+    /**
+     * Gets a comma separated parameter.
+     *
+     * @param name the name of the parameter.
+     *
+     * @return the non-empty items of the parameter, or an empty list if the parameter is not set.
+     */
+    public List<String> getListParam(String name) {
+        String value = params.get(name);
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        List<String> result = new ArrayList<String>();
+        for (String item : value.split(",")) {
+            item = item.trim();
+            if (item.length() > 0) {
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
+    public int getIntParam(String name, int defaultValue) {
+        String value = params.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + name + " must be an integer, was: " + value);
+        }
+    }
+
+    public long getLongParam(String name, long defaultValue) {
+        String value = params.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + name + " must be an integer, was: " + value);
+        }
+    }
+
+    public String toString() {
+        StringBuilder buf = new StringBuilder("vcc+vi+");
+        buf.append(url);
+        for (Map.Entry<String, String> e : params.entrySet()) {
+            buf.append(';');
+            buf.append(e.getKey());
+            buf.append('=');
+            buf.append(e.getValue());
+        }
+        return buf.toString();
+    }
+}
@@ -1,40 +1,49 @@
 package net.java.dev.vcc.impl.vmware.esx;
 
+import com.vmware.vim25.Event;
+import com.vmware.vim25.InvalidCollectorVersionFaultMsg;
 import com.vmware.vim25.InvalidPropertyFaultMsg;
 import com.vmware.vim25.InvalidStateFaultMsg;
+import com.vmware.vim25.LocalizedMethodFault;
 import com.vmware.vim25.ManagedObjectReference;
-import com.vmware.vim25.ObjectContent;
 import com.vmware.vim25.ObjectSpec;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.PropertyChange;
 import com.vmware.vim25.PropertyFilterSpec;
 import com.vmware.vim25.PropertySpec;
 import com.vmware.vim25.RuntimeFaultFaultMsg;
+import com.vmware.vim25.SelectionSpec;
 import com.vmware.vim25.TaskEvent;
 import com.vmware.vim25.TaskInfo;
+import com.vmware.vim25.TaskInfoState;
 import com.vmware.vim25.TraversalSpec;
-import com.vmware.vim25.VirtualMachineConfigInfo;
-import com.vmware.vim25.VirtualMachineRuntimeInfo;
-import com.vmware.vim25.VirtualMachineSnapshotInfo;
 import net.java.dev.vcc.api.Command;
 import net.java.dev.vcc.api.Computer;
 import net.java.dev.vcc.api.DatacenterResourceGroup;
 import net.java.dev.vcc.api.Host;
 import net.java.dev.vcc.api.LogFactory;
 import net.java.dev.vcc.api.PowerState;
+import net.java.dev.vcc.api.commands.StartComputers;
 import net.java.dev.vcc.api.profiles.BasicProfile;
 import net.java.dev.vcc.impl.vmware.esx.vim25.Helper;
 import net.java.dev.vcc.spi.AbstractDatacenter;
 import net.java.dev.vcc.spi.AbstractManagedObject;
+import net.java.dev.vcc.spi.ComputerIndex;
+import net.java.dev.vcc.spi.VersionedModel;
+import net.java.dev.vcc.util.AdaptivePollingTask;
+import net.java.dev.vcc.util.AdaptiveRate;
 import net.java.dev.vcc.util.CompletedFuture;
 import net.java.dev.vcc.util.DefaultPollingTask;
 import net.java.dev.vcc.util.TaskController;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -44,7 +53,9 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -69,6 +80,21 @@ final class ViDatacenter
 
     private final ExecutorService connectionExecutor;
 
+    /**
+     * The sessions for commands, kept apart from the session that collects events and updates.
+     */
+    private final ViSessionPool sessionPool;
+
+    /**
+     * Submits commands to the server off the callers' threads.
+     */
+    private final ViCommandQueue commandQueue;
+
+    /**
+     * Starts batches of computers with one task per VMware datacenter.
+     */
+    private final ViBulkStart bulkStart = new ViBulkStart(this);
+
     private final Map<ViHostId, ViHost> hosts = Collections.synchronizedMap(new HashMap<ViHostId, ViHost>());
 
     private final Map<ViDatacenterResourceGroupId, ViDatacenterResourceGroup> resourceGroups =
@@ -77,176 +103,177 @@ final class ViDatacenter
     private final Map<String, AbstractManagedObject> model =
             Collections.synchronizedMap(new HashMap<String, AbstractManagedObject>());
 
+    private final ViInventoryBuilder inventoryBuilder = new ViInventoryBuilder(this);
+
+    private final ComputerIndex computerIndex = new ComputerIndex();
+
+    private final VersionedModel versionedModel = new VersionedModel(this);
+
+    private final ViManagedObjectIds managedObjectIds;
+
+    /**
+     * {@code true} if the model is maintained from property changes rather than from events.
+     */
+    private final boolean changeTracking;
+
+    /**
+     * Holds the configuration and snapshots of virtual machines when they are retrieved on demand, or {@code null}
+     * if they are retrieved with the inventory.
+     */
+    private final ViComputerPropertyCache propertyCache;
+
+    /**
+     * {@code true} if virtual machines keep the properties received from the server as well as their state.
+     */
+    private final boolean retainRawProperties;
+
     private final ViEventCollector eventCollector;
 
     private ManagedObjectReference rootFolder;
     private final ViEventDispatcher eventDispatcher;
-    private final ViTaskCollector taskCollector;
+    private final ViUpdateCollector updateCollector;
+    private final ViUpdateReceiver taskWatcher = new ViTaskWatcher();
 
     private ConcurrentMap<String, ViTaskContinuation<?>> pendingTasks =
             new ConcurrentHashMap<String, ViTaskContinuation<?>>();
 
-
-    ViDatacenter(ViDatacenterId id, ViConnection connection, LogFactory logFactory, ExecutorService executorService)
-            throws RuntimeFaultFaultMsg, InvalidStateFaultMsg, InvalidPropertyFaultMsg {
+    /**
+     * The property filters watching the pending tasks, keyed by task.
+     */
+    private ConcurrentMap<String, ManagedObjectReference> taskFilters =
+            new ConcurrentHashMap<String, ManagedObjectReference>();
+
+    /**
+     * Where the model is checkpointed, or {@code null} if it is not.
+     */
+    private final File checkpointFile;
+
+    /**
+     * The key of the last event the model reflected when no events have been dispatched yet.
+     */
+    private int initialEventKey = 0;
+
+    /**
+     * When the last event the model reflected when no events have been dispatched yet was created.
+     */
+    private long initialEventTime;
+
+    /**
+     * The key of the last event that the most recent checkpoint reflected.
+     */
+    private Integer checkpointedEventKey = null;
+
+    /**
+     * The number of changes to the names, descriptions and power states of entities, which, unlike changes to where
+     * entities are, do not produce a new version of the model.
+     */
+    private final AtomicLong entityChanges = new AtomicLong();
+
+    /**
+     * The version of the model and the number of entity changes that the most recent checkpoint captured.
+     */
+    private long checkpointedVersion = -1;
+
+    private long checkpointedEntityChanges = -1;
+
+    ViDatacenter(ViDatacenterId id, ViConnection connection, ViConnectionDetails details, LogFactory logFactory,
+                 ExecutorService executorService)
+            throws RuntimeFaultFaultMsg, InvalidStateFaultMsg, InvalidPropertyFaultMsg,
+            InvalidCollectorVersionFaultMsg, InterruptedException {
         super(logFactory, id, BasicProfile.getInstance()); // TODO get capabilities
+        this.managedObjectIds = new ViManagedObjectIds(id);
         this.connection = connection;
         this.connectionExecutor = executorService;
-
-        getLog().debug("Starting event collector");
-
-        // 1. start collecting events
-        eventDispatcher = new ViEventDispatcher(this, logFactory);
-        eventCollector = new ViEventCollector(this, logFactory);
-        taskCollector = new ViTaskCollector(this, logFactory);
-        connectionExecutor.submit(new DefaultPollingTask(taskController, eventCollector, 1, TimeUnit.SECONDS));
+        getLog().debug("Connected to {0} in {1}ms", id.getDatacenterUrl(), connection.getConnectTime());
+        int commandSessions = details.getIntParam(ViConnectionDetails.COMMAND_SESSIONS, ViSessionPool.DEFAULT_SIZE);
+        this.sessionPool = new ViSessionPool(connection, getLog(), commandSessions);
+        this.commandQueue = new ViCommandQueue(executorService, getLog(), commandSessions);
+        this.changeTracking = details.getBooleanParam(ViConnectionDetails.CHANGE_TRACKING, false);
+        this.retainRawProperties = details.getBooleanParam(ViConnectionDetails.RAW_PROPERTIES, false);
+        this.propertyCache = details.getBooleanParam(ViConnectionDetails.LAZY_PROPERTIES, false)
+                ? new ViComputerPropertyCache(this, getLog(), ViComputerPropertyCache.DEFAULT_BATCH_SIZE,
+                        details.getIntParam(ViConnectionDetails.PROPERTY_CACHE_SIZE,
+                                ViComputerPropertyCache.DEFAULT_CAPACITY))
+                : null;
+        String checkpointPath = details.getParam(ViConnectionDetails.CHECKPOINT, null);
+        this.checkpointFile = checkpointPath == null || changeTracking ? null : new File(checkpointPath);
+        final ViCheckpoint checkpoint = checkpointFile == null
+                ? null
+                : loadCheckpoint(details.getLongParam(ViConnectionDetails.CHECKPOINT_MAX_AGE,
+                        ResourceHolder.CHECKPOINT_MAX_AGE));
+
+        if (changeTracking) {
+            eventDispatcher = null;
+            eventCollector = null;
+        } else {
+            if (checkpoint != null) {
+                initialEventKey = checkpoint.getEventKey();
+                initialEventTime = checkpoint.getEventTime();
+            } else {
+                initialEventTime = connection.getProxy().currentTime(connection.getServiceInstance())
+                        .toGregorianCalendar().getTimeInMillis();
+            }
+            getLog().debug("Starting event collector");
+
+            // 1. start collecting events
+            eventDispatcher = new ViEventDispatcher(this, logFactory, executorService,
+                    details.getIntParam(ViConnectionDetails.DISPATCH_WORKERS, ViEventDispatcher.DEFAULT_WORKER_COUNT),
+                    details.getLongParam(ViConnectionDetails.COALESCE_WINDOW, 0));
+            eventCollector = new ViEventCollector(this, logFactory, ViEventCollector.DEFAULT_QUEUE_CAPACITY,
+                    details.getListParam(ViConnectionDetails.EVENT_TYPES), newPollingRate(details), checkpoint);
+            connectionExecutor.submit(new AdaptivePollingTask(taskController, eventCollector,
+                    eventCollector.getRate()));
+        }
+        updateCollector = new ViUpdateCollector(this, logFactory);
         try {
             getLog().debug("Getting datacenter inventory");
 
             // 2. find what's out there
-            TraversalSpec folderTraversalSpec =
-                    Helper.newTraversalSpec("folderTraversalSpec", "Folder", "childEntity", false,
-                            Helper.newSelectionSpec("folderTraversalSpec"),
-                            Helper.newTraversalSpec("datacenterHostTraversalSpec", "Datacenter", "hostFolder",
-                                    false, Helper.newSelectionSpec("folderTraversalSpec")),
-                            Helper.newTraversalSpec("datacenterVmTraversalSpec", "Datacenter", "vmFolder",
-                                    false, Helper.newSelectionSpec("folderTraversalSpec")),
-                            Helper.newTraversalSpec("computeResourceRpTraversalSpec", "ComputeResource",
-                                    "resourcePool", false,
-                                    Helper.newSelectionSpec("resourcePoolTraversalSpec")),
-                            Helper.newTraversalSpec("computeResourceHostTraversalSpec", "ComputeResource",
-                                    "host", false),
-                            Helper.newTraversalSpec("resourcePoolTraversalSpec", "ResourcePool",
-                                    "resourcePool", false, Helper.newSelectionSpec(
-                                            "resourcePoolTraversalSpec")));
-
             rootFolder = connection.getServiceContent().getRootFolder();
-            PropertyFilterSpec spec = Helper.newPropertyFilterSpec(
-                    new PropertySpec[]{
-                            Helper.newPropertySpec("ManagedEntity", false, "name"),
-                            Helper.newPropertySpec("ManagedEntity", false, "parent"),
-                            Helper.newPropertySpec("VirtualMachine", false, "resourcePool"),
-                            Helper.newPropertySpec("VirtualMachine", false, "config"),
-                            Helper.newPropertySpec("VirtualMachine", false, "runtime"),
-                            Helper.newPropertySpec("VirtualMachine", false, "snapshot"),
-                    },
-                    new ObjectSpec[]{Helper.newObjectSpec(rootFolder, false, folderTraversalSpec)});
-
-            Map<String, AbstractManagedObject> model = new HashMap<String, AbstractManagedObject>();
             model.put(rootFolder.getValue(), this);
-            Map<String, Collection<AbstractManagedObject>> waiting =
-                    new HashMap<String, Collection<AbstractManagedObject>>();
-            Map<String, String> proxyParents = new HashMap<String, String>();
-            List<ObjectContent> entities =
-                    connection.getProxy().retrieveProperties(connection.getServiceContent().getPropertyCollector(),
-                            Collections.singletonList(spec));
-
-            getLog().debug("Building model from inventory");
-
-            for (ObjectContent entity : entities) {
-                ManagedObjectReference entityObject = entity.getObj();
-                if (model.containsKey(entityObject.getValue())) {
-                    continue;
-                }
-                AbstractManagedObject entityMO;
-                String entityType = entityObject.getType();
-                String entityName = (String) Helper.getDynamicProperty(entity, "name");
-                if ("VirtualMachine".equals(entityType)) {
-                    VirtualMachineConfigInfo config = (VirtualMachineConfigInfo) Helper
-                            .getDynamicProperty(entity, "config");
-                    VirtualMachineRuntimeInfo runtime = (VirtualMachineRuntimeInfo) Helper
-                            .getDynamicProperty(entity, "runtime");
-                    VirtualMachineSnapshotInfo snapshot = (VirtualMachineSnapshotInfo) Helper
-                            .getDynamicProperty(entity, "snapshot");
-                    if (config != null && config.isTemplate()) {
-                        entityMO = new ViComputerTemplate(this, new ViComputerTemplateId(getId(), entityObject), null,
-                                entityName, config, runtime, snapshot);
-                    } else {
-                        entityMO = new ViComputer(this, new ViComputerId(getId(), entityObject), null, entityName,
-                                config, runtime, snapshot);
-                    }
-                } else if ("ComputeResource".equals(entityType)) {
-                    entityMO = new ViHost(this, new ViHostId(getId(), entityObject), null, entityName);
-                } else if ("ResourcePool".equals(entityType)) {
-                    entityMO = new ViHostResourceGroup(this, new ViHostResourceGroupId(getId(), entityObject), null,
-                            entityName);
-                } else if ("Folder".equals(entityType)) {
-                    ManagedObjectReference parent = (ManagedObjectReference) Helper
-                            .getDynamicProperty(entity, "parent");
-                    if (parent != null && "Datacenter".equals(parent.getType())) {
-                        proxyParents.put(entityObject.getValue(), parent.getValue());
-                        continue;
-                    }
-                    entityMO = new ViDatacenterResourceGroup(this,
-                            new ViDatacenterResourceGroupId(getId(), entityObject),
-                            null, entityName);
-                } else if ("Datacenter".equals(entityType)) {
-                    entityMO = new ViDatacenterResourceGroup(this,
-                            new ViDatacenterResourceGroupId(getId(), entityObject),
-                            null, entityName);
-                } else {
-                    // unknown object type
-                    continue;
-                }
-                ManagedObjectReference parent =
-                        (ManagedObjectReference) Helper.getDynamicProperty(entity, "resourcePool");
-                if (parent == null) {
-                    parent = (ManagedObjectReference) Helper.getDynamicProperty(entity, "parent");
-                }
-                if (parent != null) {
-                    AbstractManagedObject parentMO;
-                    if (proxyParents.containsKey(parent.getValue())) {
-                        parentMO = model.get(proxyParents.get(parent.getValue()));
-                    } else {
-                        parentMO = model.get(parent.getValue());
-                    }
-                    if (parentMO != null) {
-                        addChildMO(parentMO, entityMO);
-                    } else {
-                        Collection<AbstractManagedObject> pendingChildMOs = waiting.get(parent.getValue());
-                        if (pendingChildMOs == null) {
-                            waiting.put(parent.getValue(), pendingChildMOs = new ArrayList<AbstractManagedObject>());
-                        }
-                        pendingChildMOs.add(entityMO);
-                    }
-                }
-                Collection<AbstractManagedObject> _waiting = waiting.get(entityObject.getValue());
-                if (_waiting != null) {
-                    for (AbstractManagedObject childMO : _waiting) {
-                        addChildMO(entityMO, childMO);
-                    }
-                    waiting.remove(entityObject.getValue());
-                }
-                model.put(entityObject.getValue(), entityMO);
+            PropertyFilterSpec spec = newInventorySpec(rootFolder, getInventoryPropertySpecs(), true);
+
+            if (changeTracking) {
+                updateCollector.addFilter(spec, inventoryBuilder);
+                getLog().debug("Building model from initial update set");
+                updateCollector.collect();
+            } else if (checkpoint != null) {
+                getLog().info("Restoring model of {0} entities from checkpoint, replaying events after {1}",
+                        checkpoint.getEntityCount(), new Date(checkpoint.getEventTime()));
+                checkpoint.restore(this);
+            } else {
+                getLog().debug("Building model from inventory");
+                new ViInventoryLoader(this, getLog(),
+                        details.getIntParam(ViConnectionDetails.LOAD_PAGE_SIZE, ViInventoryLoader.DEFAULT_PAGE_SIZE),
+                        details.getIntParam(ViConnectionDetails.LOAD_SESSIONS, ViInventoryLoader.DEFAULT_SESSION_COUNT),
+                        connectionExecutor).load(rootFolder);
+            }
+            inventoryBuilder.complete();
+
+            // 3. start dispatching events and updates
+            if (!changeTracking) {
+                getLog().debug("Starting event dispatcher");
+                connectionExecutor.submit(eventDispatcher);
             }
-            this.model.putAll(model);
-            for (Iterator<Map.Entry<String, Collection<AbstractManagedObject>>> it = waiting.entrySet().iterator();
-                 it.hasNext();) {
-                Map.Entry<String, Collection<AbstractManagedObject>> waitingMOs = it.next();
-                if (proxyParents.containsKey(waitingMOs.getKey())) {
-                    AbstractManagedObject parentMO;
-                    if (proxyParents.containsKey(waitingMOs.getKey())) {
-                        parentMO = model.get(proxyParents.get(waitingMOs.getKey()));
-                        for (AbstractManagedObject childMO : waitingMOs.getValue()) {
-                            addChildMO(parentMO, childMO);
-                        }
+            getLog().debug("Starting update collector");
+            connectionExecutor.submit(updateCollector);
+            long keepAliveInterval =
+                    details.getLongParam(ViConnectionDetails.KEEPALIVE_INTERVAL, ResourceHolder.KEEPALIVE_INTERVAL);
+            if (keepAliveInterval > 0) {
+                connectionExecutor.submit(new DefaultPollingTask(taskController, new Runnable() {
+                    public void run() {
+                        keepAlive();
                     }
-                    it.remove();
-                }
+                }, keepAliveInterval, TimeUnit.MILLISECONDS));
             }
-
-            if (waiting.isEmpty()) {
-                getLog().debug("Datacenter model constructed successfully");
-            } else {
-                getLog().warn("Datacenter model is not complete: "
-                        + "{0} parents were referenced from the inventory but not provided in the inventory",
-                        waiting.size());
+            if (checkpointFile != null) {
+                connectionExecutor.submit(new DefaultPollingTask(taskController, new Runnable() {
+                    public void run() {
+                        writeCheckpoint();
+                    }
+                }, details.getLongParam(ViConnectionDetails.CHECKPOINT_INTERVAL, ResourceHolder.CHECKPOINT_INTERVAL),
+                        TimeUnit.MILLISECONDS));
             }
-            // 3. start dispatching events
-
-            getLog().debug("Starting event dispatcher");
-            connectionExecutor.submit(eventDispatcher);
-            connectionExecutor.submit(new DefaultPollingTask(taskController, taskCollector, 1, TimeUnit.SECONDS));
         } catch (RuntimeException e) {
             close();
             throw e;
@@ -256,65 +283,300 @@ final class ViDatacenter
         } catch (InvalidPropertyFaultMsg e) {
             close();
             throw e;
+        } catch (InvalidCollectorVersionFaultMsg e) {
+            close();
+            throw e;
+        } catch (InterruptedException e) {
+            close();
+            throw e;
         }
         getLog().debug("Datacenter created");
     }
 
-    private void addChildMO(AbstractManagedObject parentMO, AbstractManagedObject childMO) {
-        if (parentMO instanceof ViHostResourceGroup) {
-            if (childMO instanceof ViComputer) {
-                ((ViHostResourceGroup) parentMO).addComputer((ViComputer) childMO);
-            } else if (childMO instanceof ViHostResourceGroup) {
-                ((ViHostResourceGroup) parentMO).addHostResourceGroup((ViHostResourceGroup) childMO);
+    /**
+     * Keeps the sessions alive, so that the server does not end them while they are idle. If the server has ended the
+     * datacenter's session anyway, the call opens it again and the collectors pick up the new session.
+     */
+    private void keepAlive() {
+        ViConnection connection = getConnection();
+        if (connection == null) {
+            return;
+        }
+        int generation = connection.getGeneration();
+        try {
+            connection.keepAlive();
+        } catch (RuntimeFaultFaultMsg e) {
+            getLog().warn(e, "Could not keep the session alive");
+        } catch (RuntimeException e) {
+            if (!isClosing()) {
+                getLog().warn(e, "Could not keep the session alive");
+            }
+        }
+        if (connection.getGeneration() != generation) {
+            getLog().info("Logged in to {0} again after the session ended", getId().getDatacenterUrl());
+        }
+        sessionPool.keepAlive();
+    }
+
+    /**
+     * Reads the checkpoint, if it is usable.
+     *
+     * @param maxAge the maximum age of a usable checkpoint in milliseconds.
+     *
+     * @return the checkpoint or {@code null} if there is no usable checkpoint.
+     */
+    private ViCheckpoint loadCheckpoint(long maxAge) {
+        if (!checkpointFile.isFile()) {
+            getLog().debug("No checkpoint at {0}", checkpointFile);
+            return null;
+        }
+        try {
+            ViCheckpoint checkpoint = ViCheckpoint.read(checkpointFile);
+            if (!getId().getDatacenterUrl().equals(checkpoint.getUrl())) {
+                getLog().warn("Checkpoint {0} is for {1}, ignoring it", checkpointFile, checkpoint.getUrl());
+                return null;
+            }
+            long age = System.currentTimeMillis() - checkpoint.getSavedAt();
+            if (age > maxAge) {
+                getLog().info("Checkpoint {0} is {1}s old, loading the full inventory", checkpointFile, age / 1000);
+                return null;
+            }
+            return checkpoint;
+        } catch (IOException e) {
+            getLog().warn(e, "Could not read checkpoint {0}, loading the full inventory", checkpointFile);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the model to the checkpoint, provided every event that has been dispatched has been fully applied, so that
+     * the model is consistent with the last dispatched event. The model is only captured again if it has changed since
+     * the last checkpoint; otherwise only the last event read is recorded.
+     */
+    private void writeCheckpoint() {
+        if (checkpointFile == null || eventDispatcher == null) {
+            return;
+        }
+        final Event lastRouted = eventDispatcher.getLastRouted();
+        if (eventDispatcher.getInFlight() != 0) {
+            return;
+        }
+        final int eventKey;
+        final long eventTime;
+        if (lastRouted == null) {
+            eventKey = initialEventKey;
+            eventTime = initialEventTime;
+        } else {
+            eventKey = lastRouted.getKey();
+            eventTime = lastRouted.getCreatedTime().toGregorianCalendar().getTimeInMillis();
+        }
+        // read before capturing, so that a change made while capturing is captured by the next checkpoint
+        final long version = versionedModel.snapshot().getVersion();
+        final long changes = entityChanges.get();
+        synchronized (checkpointFile) {
+            if (checkpointedEventKey != null && checkpointedEventKey == eventKey) {
+                return;
             }
-        } else if (parentMO instanceof ViHost) {
-            if (childMO instanceof ViComputer) {
-                ((ViHost) parentMO).addComputer((ViComputer) childMO);
-            } else if (childMO instanceof ViHostResourceGroup) {
-                ((ViHost) parentMO).addHostResourceGroup((ViHostResourceGroup) childMO);
+            if (version == checkpointedVersion && changes == checkpointedEntityChanges) {
+                // none of the events since the last checkpoint changed the model, so only record having read them
+                try {
+                    ViCheckpoint.advance(checkpointFile, System.currentTimeMillis(), eventKey, eventTime);
+                    checkpointedEventKey = eventKey;
+                } catch (IOException e) {
+                    getLog().warn(e, "Could not update checkpoint {0}", checkpointFile);
+                }
+                return;
             }
-        } else if (parentMO instanceof ViDatacenterResourceGroup) {
-            if (childMO instanceof ViHost) {
-                ((ViDatacenterResourceGroup) parentMO).addHost((ViHost) childMO);
-            } else if (childMO instanceof ViDatacenterResourceGroup) {
-                ((ViDatacenterResourceGroup) parentMO).addResourceGroup((ViDatacenterResourceGroup) childMO);
-            } else if (childMO instanceof ViComputerTemplate) {
-                ((ViDatacenterResourceGroup) parentMO).addComputerTemplate((ViComputerTemplate) childMO);
+            ViCheckpoint checkpoint = ViCheckpoint.capture(this, eventKey, eventTime);
+            if (eventDispatcher.getInFlight() != 0 || eventDispatcher.getLastRouted() != lastRouted) {
+                // events were applied while capturing, try again later
+                return;
             }
-        } else if (parentMO instanceof ViDatacenter) {
-            if (childMO instanceof ViDatacenterResourceGroup) {
-                ((ViDatacenter) parentMO).addDatacenterResourceGroup((ViDatacenterResourceGroup) childMO);
-            } else if (childMO instanceof ViHost) {
-                ((ViDatacenter) parentMO).addHost((ViHost) childMO);
+            try {
+                checkpoint.write(checkpointFile);
+                checkpointedEventKey = eventKey;
+                checkpointedVersion = version;
+                checkpointedEntityChanges = changes;
+                getLog().debug("Checkpointed {0} entities at event {1}", checkpoint.getEntityCount(), eventKey);
+            } catch (IOException e) {
+                getLog().warn(e, "Could not write checkpoint {0}", checkpointFile);
             }
         }
     }
 
+    /**
+     * Creates the controller for the page size and polling interval of a collector.
+     *
+     * @param details the connection details, or {@code null} to use the defaults.
+     *
+     * @return the controller for the page size and polling interval of a collector.
+     */
+    static AdaptiveRate newPollingRate(ViConnectionDetails details) {
+        int maxPageSize = ResourceHolder.MAX_PAGE_SIZE;
+        long maxInterval = ResourceHolder.MAX_POLL_INTERVAL;
+        if (details != null) {
+            maxPageSize = details.getIntParam(ViConnectionDetails.MAX_PAGE_SIZE, maxPageSize);
+            maxInterval = details.getLongParam(ViConnectionDetails.MAX_POLL_INTERVAL, maxInterval);
+        }
+        return new AdaptiveRate(Math.min(ResourceHolder.MIN_PAGE_SIZE, maxPageSize), maxPageSize,
+                ResourceHolder.MIN_POLL_INTERVAL, Math.min(ResourceHolder.POLL_INTERVAL, maxInterval), maxInterval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates the specification of some properties of every managed entity reachable from the root folder.
+     *
+     * @param rootFolder    the root folder of the inventory.
+     * @param propertySpecs the properties.
+     * @param resourcePools {@code true} to include the resource pools of each compute resource.
+     *
+     * @return the specification of the inventory.
+     */
+    static PropertyFilterSpec newInventorySpec(ManagedObjectReference rootFolder, PropertySpec[] propertySpecs,
+                                               boolean resourcePools) {
+        List<SelectionSpec> selectSet = new ArrayList<SelectionSpec>();
+        selectSet.add(Helper.newSelectionSpec("folderTraversalSpec"));
+        selectSet.add(Helper.newTraversalSpec("datacenterHostTraversalSpec", "Datacenter", "hostFolder",
+                false, Helper.newSelectionSpec("folderTraversalSpec")));
+        selectSet.add(Helper.newTraversalSpec("datacenterVmTraversalSpec", "Datacenter", "vmFolder",
+                false, Helper.newSelectionSpec("folderTraversalSpec")));
+        if (resourcePools) {
+            selectSet.add(newComputeResourceRpTraversalSpec());
+        }
+        selectSet.add(Helper.newTraversalSpec("computeResourceHostTraversalSpec", "ComputeResource",
+                "host", false));
+        selectSet.add(newResourcePoolTraversalSpec());
+        TraversalSpec folderTraversalSpec = Helper.newTraversalSpec("folderTraversalSpec", "Folder", "childEntity",
+                false, selectSet.toArray(new SelectionSpec[selectSet.size()]));
+
+        return Helper.newPropertyFilterSpec(propertySpecs,
+                new ObjectSpec[]{Helper.newObjectSpec(rootFolder, false, folderTraversalSpec)});
+    }
+
+    /**
+     * Creates the specification of some properties of the resource pools of a compute resource.
+     *
+     * @param computeResource the compute resource.
+     * @param propertySpecs   the properties.
+     *
+     * @return the specification of the resource pools.
+     */
+    static PropertyFilterSpec newResourcePoolSpec(ManagedObjectReference computeResource,
+                                                  PropertySpec[] propertySpecs) {
+        return Helper.newPropertyFilterSpec(propertySpecs, new ObjectSpec[]{
+                Helper.newObjectSpec(computeResource, true, newComputeResourceRpTraversalSpec(),
+                        newResourcePoolTraversalSpec())});
+    }
+
+    private static TraversalSpec newComputeResourceRpTraversalSpec() {
+        return Helper.newTraversalSpec("computeResourceRpTraversalSpec", "ComputeResource", "resourcePool", false,
+                Helper.newSelectionSpec("resourcePoolTraversalSpec"));
+    }
+
+    private static TraversalSpec newResourcePoolTraversalSpec() {
+        return Helper.newTraversalSpec("resourcePoolTraversalSpec", "ResourcePool", "resourcePool", false,
+                Helper.newSelectionSpec("resourcePoolTraversalSpec"));
+    }
+
+    /**
+     * Gets the specification of the properties needed to build and maintain the model.
+     *
+     * @return the specification of the properties needed to build and maintain the model.
+     */
+    PropertySpec[] getInventoryPropertySpecs() {
+        if (propertyCache != null) {
+            // the rest of the virtual machine's properties are retrieved by the property cache
+            return new PropertySpec[]{
+                    Helper.newPropertySpec("ManagedEntity", false, "name"),
+                    Helper.newPropertySpec("ManagedEntity", false, "parent"),
+                    Helper.newPropertySpec("VirtualMachine", false, "resourcePool"),
+                    Helper.newPropertySpec("VirtualMachine", false, "config.template"),
+                    Helper.newPropertySpec("VirtualMachine", false, "runtime.powerState"),
+            };
+        }
+        if (!retainRawProperties) {
+            // only the parts of the configuration and runtime that the model keeps, rather than the device lists,
+            // file layouts and extra configuration that make up most of the inventory
+            return new PropertySpec[]{
+                    Helper.newPropertySpec("ManagedEntity", false, "name"),
+                    Helper.newPropertySpec("ManagedEntity", false, "parent"),
+                    Helper.newPropertySpec("VirtualMachine", false, "resourcePool"),
+                    Helper.newPropertySpec("VirtualMachine", false, "config.annotation"),
+                    Helper.newPropertySpec("VirtualMachine", false, "config.template"),
+                    Helper.newPropertySpec("VirtualMachine", false, "runtime.powerState"),
+                    Helper.newPropertySpec("VirtualMachine", false, "snapshot"),
+            };
+        }
+        return new PropertySpec[]{
+                Helper.newPropertySpec("ManagedEntity", false, "name"),
+                Helper.newPropertySpec("ManagedEntity", false, "parent"),
+                Helper.newPropertySpec("VirtualMachine", false, "resourcePool"),
+                Helper.newPropertySpec("VirtualMachine", false, "config"),
+                Helper.newPropertySpec("VirtualMachine", false, "runtime"),
+                Helper.newPropertySpec("VirtualMachine", false, "snapshot"),
+        };
+    }
+
+    /**
+     * Gets the specification of the configuration properties that the model holds for a virtual machine.
+     *
+     * @return the specification of the configuration properties that the model holds for a virtual machine.
+     */
+    PropertySpec[] getConfigPropertySpecs() {
+        if (!retainRawProperties) {
+            return new PropertySpec[]{Helper.newPropertySpec("VirtualMachine", false, "config.annotation")};
+        }
+        return new PropertySpec[]{Helper.newPropertySpec("VirtualMachine", false, "config")};
+    }
+
     void addHost(ViHost viHost) {
         hosts.put(viHost.getId(), viHost);
+        invalidateAggregates();
     }
 
     void removeHost(ViHost viHost) {
         hosts.remove(viHost.getId());
+        invalidateAggregates();
     }
 
     public void addDatacenterResourceGroup(ViDatacenterResourceGroup viResourceGroup) {
         resourceGroups.put(viResourceGroup.getId(), viResourceGroup);
+        invalidateAggregates();
     }
 
     public void removeResourceGroup(ViDatacenterResourceGroup viResourceGroup) {
         resourceGroups.remove(viResourceGroup.getId());
+        invalidateAggregates();
     }
 
     public Set<Class<? extends Command>> getCommands() {
-        return Collections.emptySet(); // TODO get commands
+        return Collections.<Class<? extends Command>>singleton(StartComputers.class);
     }
 
     public <T extends Command> T execute(T command) {
+        if (command instanceof StartComputers) {
+            bulkStart.execute((StartComputers) command);
+            return command;
+        }
         command.setSubmitted(new CompletedFuture("Unsupported command", new UnsupportedOperationException()));
         return command;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Runs the task on the connection's executor. The commands themselves are submitted through the command queue,
+     * so the batch's concurrency limit bounds the power operations the server is running, not the calls in flight.
+     */
+    protected void dispatch(Runnable dispatcher) {
+        try {
+            connectionExecutor.submit(dispatcher);
+        } catch (RejectedExecutionException e) {
+            // closed, let the commands be refused one by one
+            super.dispatch(dispatcher);
+        }
+    }
+
     public String getName() {
         return getId().getDatacenterUrl();
     }
@@ -359,6 +621,15 @@ final class ViDatacenter
         finally {
             connectionLock.unlock();
         }
+        if (eventCollector != null) {
+            eventCollector.close();
+        }
+        writeCheckpoint();
+        if (updateCollector != null) {
+            updateCollector.close();
+        }
+        commandQueue.close();
+        sessionPool.close();
         connectionLock.lock();
         try {
             try {
@@ -467,6 +738,14 @@ final class ViDatacenter
         return connection;
     }
 
+    ViSessionPool getSessionPool() {
+        return sessionPool;
+    }
+
+    ViCommandQueue getCommandQueue() {
+        return commandQueue;
+    }
+
     public ViEventCollector getEventCollector() {
         return eventCollector;
     }
@@ -475,32 +754,157 @@ final class ViDatacenter
         return model.get(value.getValue());
     }
 
-    <T> Future<T> addPendingTask(ManagedObjectReference moRef, ViTaskContinuation<T> c) {
+    AbstractManagedObject getManagedObject(String key) {
+        return model.get(key);
+    }
+
+    void putManagedObject(String key, AbstractManagedObject managedObject) {
+        model.put(key, managedObject);
+    }
+
+    AbstractManagedObject removeManagedObject(String key) {
+        return model.remove(key);
+    }
+
+    /**
+     * Gets the managed objects of the model.
+     *
+     * @return a copy of the managed objects of the model, keyed by the value of their managed object reference.
+     */
+    Map<String, AbstractManagedObject> getManagedObjects() {
+        synchronized (model) {
+            return new HashMap<String, AbstractManagedObject>(model);
+        }
+    }
+
+    @Override
+    protected boolean isCachingAggregates() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected ComputerIndex getComputerIndex() {
+        return computerIndex;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected VersionedModel getVersionedModel() {
+        return versionedModel;
+    }
+
+    /**
+     * Notes that the name, description or power state of an entity has changed, so that the next checkpoint
+     * captures the model again.
+     */
+    void entityChanged() {
+        entityChanges.incrementAndGet();
+    }
+
+    boolean isRetainingRawProperties() {
+        return retainRawProperties;
+    }
+
+    ViComputerPropertyCache getPropertyCache() {
+        return propertyCache;
+    }
+
+    ViManagedObjectIds getManagedObjectIds() {
+        return managedObjectIds;
+    }
+
+    ViInventoryBuilder getInventoryBuilder() {
+        return inventoryBuilder;
+    }
+
+    /**
+     * Watches a task until it completes.
+     *
+     * @param moRef the task.
+     * @param c     what to do when the task completes.
+     *
+     * @return the future result of the task.
+     *
+     * @throws RuntimeFaultFaultMsg    if the task could not be watched.
+     * @throws InvalidPropertyFaultMsg if the task could not be watched.
+     */
+    <T> Future<T> addPendingTask(ManagedObjectReference moRef, ViTaskContinuation<T> c)
+            throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
         pendingTasks.put(moRef.getValue(), c);
+        try {
+            PropertyFilterSpec spec = Helper.newPropertyFilterSpec(
+                    new PropertySpec[]{Helper.newPropertySpec("Task", false, "info.state", "info.error")},
+                    new ObjectSpec[]{Helper.newObjectSpec(moRef, false)});
+            ManagedObjectReference filter = updateCollector.addFilter(spec, taskWatcher);
+            taskFilters.put(moRef.getValue(), filter);
+            if (!pendingTasks.containsKey(moRef.getValue())) {
+                // completed before we could record the filter
+                unwatchTask(moRef.getValue());
+            }
+        } catch (RuntimeFaultFaultMsg e) {
+            pendingTasks.remove(moRef.getValue(), c);
+            throw e;
+        } catch (InvalidPropertyFaultMsg e) {
+            pendingTasks.remove(moRef.getValue(), c);
+            throw e;
+        }
         return c.getFuture();
     }
 
+    /**
+     * Gets the number of tasks that have not yet completed.
+     *
+     * @return the number of tasks that have not yet completed.
+     */
+    int getPendingTaskCount() {
+        return pendingTasks.size();
+    }
+
     void processTask(TaskEvent taskEvent) {
         processTask(taskEvent.getInfo());
     }
 
     public void processTask(TaskInfo taskInfo) {
-        ViTaskContinuation<?> continuation = pendingTasks.get(taskInfo.getTask().getValue());
-        if (continuation != null) {
-            switch (taskInfo.getState()) {
-                case SUCCESS:
-                    continuation.onSuccess();
-                    pendingTasks.remove(taskInfo.getTask().getValue(), continuation);
-                    break;
-                case ERROR:
-                    continuation.onError(taskInfo.getError());
-                    pendingTasks.remove(taskInfo.getTask().getValue(), continuation);
-                    break;
-            }
+        processTask(taskInfo.getTask().getValue(), taskInfo.getState(), taskInfo.getError());
+    }
+
+    private void processTask(String taskKey, TaskInfoState state, LocalizedMethodFault error) {
+        if (state != TaskInfoState.SUCCESS && state != TaskInfoState.ERROR) {
+            return;
+        }
+        ViTaskContinuation<?> continuation = pendingTasks.remove(taskKey);
+        if (continuation == null) {
+            return;
+        }
+        unwatchTask(taskKey);
+        if (state == TaskInfoState.SUCCESS) {
+            continuation.onSuccess();
+        } else {
+            continuation.onError(error);
+        }
+    }
+
+    private void unwatchTask(String taskKey) {
+        ManagedObjectReference filter = taskFilters.remove(taskKey);
+        if (filter != null) {
+            updateCollector.removeFilter(filter);
         }
     }
 
     private static final class ResourceHolder {
+        private static final int MIN_PAGE_SIZE = 100;
+        private static final int MAX_PAGE_SIZE = 1000;
+        private static final long MIN_POLL_INTERVAL = 100;
+        private static final long POLL_INTERVAL = 1000;
+        private static final long MAX_POLL_INTERVAL = 30000;
+        private static final long CHECKPOINT_MAX_AGE = TimeUnit.HOURS.toMillis(1);
+        private static final long CHECKPOINT_INTERVAL = TimeUnit.SECONDS.toMillis(60);
+        private static final long KEEPALIVE_INTERVAL = TimeUnit.MINUTES.toMillis(5);
         private static final Map<PowerState, Set<PowerState>> ALLOWED_TRANSITIONS;
 
         static {
@@ -515,6 +919,31 @@ final class ViDatacenter
         }
     }
 
+    /**
+     * Completes pending tasks from the updates to their {@code info.state} property.
+     */
+    private final class ViTaskWatcher
+            implements ViUpdateReceiver {
+
+        /**
+         * {@inheritDoc}
+         */
+        public void receiveUpdate(ObjectUpdate update) {
+            TaskInfoState state = null;
+            LocalizedMethodFault error = null;
+            for (PropertyChange change : update.getChangeSet()) {
+                if ("info.state".equals(change.getName())) {
+                    state = (TaskInfoState) ViUpdateCollector.valueOf(change);
+                } else if ("info.error".equals(change.getName())) {
+                    error = (LocalizedMethodFault) ViUpdateCollector.valueOf(change);
+                }
+            }
+            if (state != null) {
+                processTask(update.getObj().getValue(), state, error);
+            }
+        }
+    }
+
     private final class ViTaskController
             implements TaskController {
 
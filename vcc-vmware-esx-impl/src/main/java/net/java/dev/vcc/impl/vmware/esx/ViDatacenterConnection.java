@@ -5,9 +5,12 @@ import net.java.dev.vcc.spi.AbstractDatacenter;
 import net.java.dev.vcc.spi.DatacenterConnection;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * A {@link net.java.dev.vcc.spi.DatacenterConnection} for VMware ESX.
@@ -22,10 +25,11 @@ public class ViDatacenterConnection implements DatacenterConnection {
         assert url.startsWith("vcc+vi+");
         logFactory.getClass();
         try {
+            ViConnectionDetails details = parseUrl(url);
             ExecutorService executorService = Executors.newCachedThreadPool(new ViThreadFactory());
-            ViConnection connection = new ViConnection(url.substring("vcc+vi+".length()), username, password,
-                    executorService);
-            return new ViDatacenter(new ViDatacenterId(url), connection, logFactory, executorService);
+            ViConnection connection = new ViConnection(details, username, password);
+            return new ViDatacenter(new ViDatacenterId("vcc+vi+" + details.getUrl()), connection, details,
+                    logFactory, executorService);
         } catch (Exception e) {
             IOException ioe = new IOException(e.getMessage());
             ioe.initCause(e);
@@ -33,6 +37,26 @@ public class ViDatacenterConnection implements DatacenterConnection {
         }
     }
 
+    private final static Pattern PARAMS_PATTERN =
+            Pattern.compile(";([a-zA-Z][a-zA-Z0-9\\-\\_]*)=([^;]*)");
+
+    ViConnectionDetails parseUrl(String url) {
+        if (!acceptsUrl(url)) {
+            return null;
+        }
+        url = url.substring("vcc+vi+".length());
+        final HashMap<String, String> params = new HashMap<String, String>();
+        int index = url.indexOf(';');
+        if (index != -1) {
+            Matcher m = PARAMS_PATTERN.matcher(url.substring(index));
+            while (m.find()) {
+                params.put(m.group(1).toLowerCase(), m.group(2));
+            }
+            url = url.substring(0, index);
+        }
+        return new ViConnectionDetails(url, params);
+    }
+
     private static class ViThreadFactory
             implements ThreadFactory {
         private final ThreadFactory delegate = Executors.defaultThreadFactory();
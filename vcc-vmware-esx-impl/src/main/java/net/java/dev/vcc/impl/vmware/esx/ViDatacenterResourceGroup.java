@@ -75,26 +75,37 @@ final class ViDatacenterResourceGroup
 
     void addHost(ViHost viHost) {
         hosts.put(viHost.getId(), viHost);
+        invalidateAggregates();
     }
 
     void removeHost(ViHost viHost) {
         hosts.remove(viHost.getId());
+        invalidateAggregates();
     }
 
     public void addResourceGroup(ViDatacenterResourceGroup viResourceGroup) {
         resourceGroups.put(viResourceGroup.getId(), viResourceGroup);
+        invalidateAggregates();
     }
 
     public void removeResourceGroup(ViDatacenterResourceGroup viResourceGroup) {
         resourceGroups.remove(viResourceGroup.getId());
+        invalidateAggregates();
     }
 
     public void addComputerTemplate(ViComputerTemplate computerTemplate) {
         templates.put(computerTemplate.getId(), computerTemplate);
+        invalidateAggregates();
     }
 
     public void removeComputerTemplate(ViComputerTemplate computerTemplate) {
         templates.remove(computerTemplate.getId());
+        invalidateAggregates();
+    }
+
+    @Override
+    protected boolean isCachingAggregates() {
+        return true;
     }
 
     @Override
@@ -0,0 +1,112 @@
+package net.java.dev.vcc.impl.vmware.esx;
+
+import com.vmware.vim25.Event;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.VmPoweredOffEvent;
+import com.vmware.vim25.VmPoweredOnEvent;
+import com.vmware.vim25.VmReconfiguredEvent;
+import com.vmware.vim25.VmResumingEvent;
+import com.vmware.vim25.VmStartingEvent;
+import com.vmware.vim25.VmStoppingEvent;
+import com.vmware.vim25.VmSuspendedEvent;
+import com.vmware.vim25.VmSuspendingEvent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Merges bursts of events for the same virtual machine so that only the net power state transition is delivered.
+ * Within a batch, for each virtual machine:
+ * <ul>
+ * <li>only the last power state event ({@link VmPoweredOnEvent}, {@link VmPoweredOffEvent},
+ * {@link VmSuspendedEvent}) is kept;</li>
+ * <li>a state changing event ({@link VmStartingEvent}, {@link VmStoppingEvent}, {@link VmSuspendingEvent},
+ * {@link VmResumingEvent}) is only kept if it is the last power event;</li>
+ * <li>only the last {@link VmReconfiguredEvent} is kept.</li>
+ * </ul>
+ * All other events, including task events, are kept. The events that are kept are delivered in their original
+ * order, so any pending future state is completed by the same transition it would have been without coalescing.
+ */
+final class ViEventCoalescer {
+
+    private final AtomicLong mergedCount = new AtomicLong();
+
+    /**
+     * Coalesces a batch of events.
+     *
+     * @param batch the events, in the order they were collected.
+     *
+     * @return the events that should be delivered, in the order they were collected.
+     */
+    List<Event> coalesce(List<Event> batch) {
+        if (batch.size() < 2) {
+            return batch;
+        }
+        boolean[] dropped = new boolean[batch.size()];
+        Map<String, Seen> seen = new HashMap<String, Seen>();
+        int count = 0;
+        for (int i = batch.size() - 1; i >= 0; i--) {
+            Event event = batch.get(i);
+            ManagedObjectReference target = ViEventDispatcher.targetOf(event);
+            if (target == null || target.getValue() == null) {
+                continue;
+            }
+            Seen s = seen.get(target.getValue());
+            if (s == null) {
+                seen.put(target.getValue(), s = new Seen());
+            }
+            if (isPowerState(event)) {
+                dropped[i] = s.powerState;
+                s.powerState = s.powerEvent = true;
+            } else if (isStateChanging(event)) {
+                dropped[i] = s.powerEvent;
+                s.powerEvent = true;
+            } else if (event instanceof VmReconfiguredEvent) {
+                dropped[i] = s.reconfigured;
+                s.reconfigured = true;
+            }
+            if (dropped[i]) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return batch;
+        }
+        mergedCount.addAndGet(count);
+        List<Event> result = new ArrayList<Event>(batch.size() - count);
+        for (int i = 0; i < dropped.length; i++) {
+            if (!dropped[i]) {
+                result.add(batch.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the number of events that have been merged away.
+     *
+     * @return the number of events that have been merged away.
+     */
+    long getMergedCount() {
+        return mergedCount.get();
+    }
+
+    private static boolean isPowerState(Event event) {
+        return event instanceof VmPoweredOnEvent || event instanceof VmPoweredOffEvent
+                || event instanceof VmSuspendedEvent;
+    }
+
+    private static boolean isStateChanging(Event event) {
+        return event instanceof VmStartingEvent || event instanceof VmStoppingEvent
+                || event instanceof VmSuspendingEvent || event instanceof VmResumingEvent;
+    }
+
+    private static final class Seen {
+        private boolean powerState;
+        private boolean powerEvent;
+        private boolean reconfigured;
+    }
+}
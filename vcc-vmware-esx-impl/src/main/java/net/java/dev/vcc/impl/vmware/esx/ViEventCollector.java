@@ -2,67 +2,341 @@ package net.java.dev.vcc.impl.vmware.esx;
 
 import com.vmware.vim25.Event;
 import com.vmware.vim25.EventFilterSpec;
+import com.vmware.vim25.EventFilterSpecByTime;
 import com.vmware.vim25.InvalidStateFaultMsg;
 import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.DrsVmPoweredOnEvent;
+import com.vmware.vim25.ResourcePoolCreatedEvent;
+import com.vmware.vim25.ResourcePoolDestroyedEvent;
+import com.vmware.vim25.ResourcePoolMovedEvent;
+import com.vmware.vim25.ResourcePoolReconfiguredEvent;
 import com.vmware.vim25.RuntimeFaultFaultMsg;
+import com.vmware.vim25.TaskEvent;
+import com.vmware.vim25.TaskTimeoutEvent;
+import com.vmware.vim25.VmClonedEvent;
+import com.vmware.vim25.VmCreatedEvent;
+import com.vmware.vim25.VmDeployedEvent;
+import com.vmware.vim25.VmPowerOffOnIsolationEvent;
+import com.vmware.vim25.VmPoweredOffEvent;
+import com.vmware.vim25.VmPoweredOnEvent;
+import com.vmware.vim25.VmReconfiguredEvent;
+import com.vmware.vim25.VmRegisteredEvent;
+import com.vmware.vim25.VmRemovedEvent;
+import com.vmware.vim25.VmRenamedEvent;
+import com.vmware.vim25.VmResourcePoolMovedEvent;
+import com.vmware.vim25.VmRestartedOnAlternateHostEvent;
+import com.vmware.vim25.VmResumingEvent;
+import com.vmware.vim25.VmShutdownOnIsolationEvent;
+import com.vmware.vim25.VmStartingEvent;
+import com.vmware.vim25.VmStoppingEvent;
+import com.vmware.vim25.VmSuspendedEvent;
+import com.vmware.vim25.VmSuspendingEvent;
+import com.vmware.vim25.VmUnsupportedStartingEvent;
 import net.java.dev.vcc.api.Log;
 import net.java.dev.vcc.api.LogFactory;
+import net.java.dev.vcc.util.AdaptiveRate;
+import net.java.dev.vcc.util.HandoffQueue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.GregorianCalendar;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
 
 /**
- * Collects events and queues them up for later processing.
+ * Collects events and queues them up for later processing. The queue is bounded, so when the dispatcher falls behind
+ * the collector stops reading events from the server until there is space.
+ * <p/>
+ * The event history collector ends with the session that created it. When the session has been opened again the
+ * collector creates a new one, rewound to the creation time of the last event read so that no event is missed.
  */
 final class ViEventCollector implements Runnable {
 
-    private final ManagedObjectReference eventHistoryCollector;
+    /**
+     * The default maximum number of events waiting to be dispatched.
+     */
+    static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+    private ManagedObjectReference eventHistoryCollector;
+
+    private final EventFilterSpec filter;
+
+    /**
+     * The generation of the session that created the event history collector.
+     */
+    private int generation;
+
+    private final HandoffQueue<Event> events;
+    private final AdaptiveRate rate;
 
-    private final Queue<Event> events = new ConcurrentLinkedQueue<Event>();
+    /**
+     * Events up to and including this key have already been applied to the model.
+     */
+    private int resumeAfterKey;
+
+    /**
+     * When the last event that was read was created, or when collecting started if no event has been read.
+     */
+    private long resumeTime;
     private ViDatacenter viDatacenter;
     private final Log log;
 
+    /**
+     * Matches every event type, turning off server side filtering.
+     */
+    static final String ALL_EVENT_TYPES = "*";
+
     public ViEventCollector(ViDatacenter viDatacenter, LogFactory logFactory)
             throws RuntimeFaultFaultMsg, InvalidStateFaultMsg {
+        this(viDatacenter, logFactory, DEFAULT_QUEUE_CAPACITY, Collections.<String>emptySet(),
+                ViDatacenter.newPollingRate(null), null);
+    }
+
+    /**
+     * Creates a new event collector.
+     *
+     * @param viDatacenter    the datacenter.
+     * @param logFactory      the log factory.
+     * @param queueCapacity   the maximum number of events waiting to be dispatched.
+     * @param additionalTypes the names of event types to collect in addition to those the model consumes, or
+     *                        {@link #ALL_EVENT_TYPES} to collect every event.
+     * @param rate            picks the page size and polling interval.
+     * @param resumeFrom      the checkpoint to replay events from, or {@code null} to collect only new events.
+     *
+     * @throws RuntimeFaultFaultMsg  if the event history collector could not be created.
+     * @throws InvalidStateFaultMsg  if the event history collector could not be reset.
+     */
+    public ViEventCollector(ViDatacenter viDatacenter, LogFactory logFactory, int queueCapacity,
+                            Collection<String> additionalTypes, AdaptiveRate rate, ViCheckpoint resumeFrom)
+            throws RuntimeFaultFaultMsg, InvalidStateFaultMsg {
         this.viDatacenter = viDatacenter;
         this.log = logFactory.getLog(getClass());
+        this.events = new HandoffQueue<Event>(queueCapacity);
+        this.rate = rate;
 
-        this.eventHistoryCollector =
-                viDatacenter.getConnection().getProxy()
-                        .createCollectorForEvents(viDatacenter.getConnection().getServiceContent().getEventManager(),
-                                new EventFilterSpec());
-        viDatacenter.getConnection().getProxy().resetCollector(eventHistoryCollector);
+        filter = new EventFilterSpec();
+        if (!additionalTypes.contains(ALL_EVENT_TYPES)) {
+            Set<String> types = new TreeSet<String>(ResourceHolder.CONSUMED_TYPES);
+            types.addAll(additionalTypes);
+            filter.setType(new ArrayList<String>(types));
+            log.debug("Collecting events of types {0}", types);
+        }
+        ViConnection connection = viDatacenter.getConnection();
+        if (resumeFrom != null) {
+            resumeAfterKey = resumeFrom.getEventKey();
+            resumeTime = resumeFrom.getEventTime();
+            createCollector(connection, true);
+        } else {
+            resumeAfterKey = Integer.MIN_VALUE;
+            resumeTime = connection.getProxy().currentTime(connection.getServiceInstance())
+                    .toGregorianCalendar().getTimeInMillis();
+            createCollector(connection, false);
+        }
+    }
+
+    /**
+     * Creates the event history collector.
+     *
+     * @param connection the connection.
+     * @param rewind     {@code true} to start from the oldest event created since {@link #resumeTime}, {@code false}
+     *                   to start from the latest event.
+     *
+     * @throws RuntimeFaultFaultMsg if the event history collector could not be created.
+     * @throws InvalidStateFaultMsg if the event history collector could not be reset.
+     */
+    private void createCollector(ViConnection connection, boolean rewind)
+            throws RuntimeFaultFaultMsg, InvalidStateFaultMsg {
+        generation = connection.getGeneration();
+        if (rewind) {
+            GregorianCalendar beginTime = new GregorianCalendar();
+            beginTime.setTimeInMillis(resumeTime);
+            EventFilterSpecByTime time = new EventFilterSpecByTime();
+            time.setBeginTime(ResourceHolder.DATATYPE_FACTORY.newXMLGregorianCalendar(beginTime));
+            filter.setTime(time);
+        }
+        eventHistoryCollector = connection.getProxy()
+                .createCollectorForEvents(connection.getServiceContent().getEventManager(), filter);
+        if (rewind) {
+            // start from the oldest event after the last one read rather than from the latest
+            connection.getProxy().rewindCollector(eventHistoryCollector);
+        } else {
+            connection.getProxy().resetCollector(eventHistoryCollector);
+        }
     }
 
     public void run() {
         log.debug("Starting collecting events");
         try {
-            boolean finished = false;
-            while (!viDatacenter.isClosing() && !finished) {
+            final int pageSize = rate.getPageSize();
+            int count = 0;
+            boolean full = false;
+            while (!viDatacenter.isClosing()) {
                 List<Event> events;
                 try {
-                    events = viDatacenter.getConnection().getProxy().readNextEvents(eventHistoryCollector, 100);
+                    ViConnection connection = viDatacenter.getConnection();
+                    if (generation != connection.getGeneration()) {
+                        log.info("Session ended, collecting events again from {0}", new Date(resumeTime));
+                        createCollector(connection, true);
+                    }
+                    events = connection.getProxy().readNextEvents(eventHistoryCollector, pageSize);
                 }
                 catch (RuntimeFaultFaultMsg e) {
+                    if (!ViConnection.isNotAuthenticated(e)) {
+                        log.error(e, e.getMessage());
+                    } else {
+                        viDatacenter.getConnection().renew(generation);
+                    }
+                    return;
+                }
+                catch (InvalidStateFaultMsg e) {
                     log.error(e, e.getMessage());
                     return;
                 }
-                if (events.isEmpty()) {
-                    finished = true;
-                } else {
-                    this.events.addAll(events);
+                catch (RuntimeException e) {
+                    if (!ViConnection.isNotAuthenticated(e)) {
+                        throw e;
+                    }
+                    viDatacenter.getConnection().renew(generation);
+                    return;
                 }
+                for (Event event : events) {
+                    if (event.getKey() <= resumeAfterKey) {
+                        continue;
+                    }
+                    if (!this.events.put(event)) {
+                        return;
+                    }
+                    resumeAfterKey = event.getKey();
+                    resumeTime = event.getCreatedTime().toGregorianCalendar().getTimeInMillis();
+                }
+                count += events.size();
+                if (events.size() < pageSize) {
+                    break;
+                }
+                full = true;
             }
-            if (viDatacenter.isClosing() && finished) {
-                this.events.add(new ViClosingConnectionEvent());
+            if (rate.record(count, full)) {
+                log.debug("Now reading events in pages of {0} every {1}s (recently {2} events/s)",
+                        rate.getPageSize(), rate.getInterval(), rate.getItemRate());
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } finally {
-            log.debug("Finished collecting events. Currently there are {0} events in the queue.", events.size());
+            log.debug("Finished collecting events. Currently there are {0} events in the queue "
+                    + "(high water mark {1}, average enqueue wait {2}s, average dispatch latency {3}s).",
+                    events.getSize(), events.getHighWaterMark(), events.getEnqueueWaitAverage(),
+                    events.getDequeueLatencyAverage());
         }
     }
 
-    public Event poll() {
-        return events.poll();
+    /**
+     * Gets the controller that picks the page size and polling interval of this collector.
+     *
+     * @return the controller that picks the page size and polling interval of this collector.
+     */
+    public AdaptiveRate getRate() {
+        return rate;
+    }
+
+    /**
+     * Removes the next event, waiting for one to be collected if necessary.
+     *
+     * @return the next event or {@code null} if the collector has been closed.
+     *
+     * @throws InterruptedException if the calling thread was interrupted while waiting.
+     */
+    public Event take() throws InterruptedException {
+        return events.take();
+    }
+
+    /**
+     * Stops accepting events and releases any threads waiting on the queue.
+     */
+    public void close() {
+        events.close();
+    }
+
+    /**
+     * Gets the number of events waiting to be dispatched.
+     *
+     * @return the number of events waiting to be dispatched.
+     */
+    public int getQueueDepth() {
+        return events.getSize();
+    }
+
+    /**
+     * Gets the recent average time the collector has been blocked waiting for the dispatcher to make space.
+     *
+     * @return the recent average enqueue wait in seconds.
+     */
+    public double getEnqueueWaitAverage() {
+        return events.getEnqueueWaitAverage();
+    }
+
+    /**
+     * Gets the recent average time between an event being collected and it being dispatched.
+     *
+     * @return the recent average dispatch latency in seconds.
+     */
+    public double getDispatchLatencyAverage() {
+        return events.getDequeueLatencyAverage();
+    }
+
+    private static final class ResourceHolder {
+        /**
+         * The names of the event types that the model consumes. The server matches event types exactly, so subtypes
+         * of the consumed events are listed too.
+         */
+        private static final Set<String> CONSUMED_TYPES;
+
+        private static final DatatypeFactory DATATYPE_FACTORY;
+
+        static {
+            try {
+                DATATYPE_FACTORY = DatatypeFactory.newInstance();
+            } catch (DatatypeConfigurationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+            List<Class<? extends Event>> classes = Arrays.asList(
+                    VmPoweredOnEvent.class,
+                    DrsVmPoweredOnEvent.class,
+                    VmRestartedOnAlternateHostEvent.class,
+                    VmPoweredOffEvent.class,
+                    VmPowerOffOnIsolationEvent.class,
+                    VmShutdownOnIsolationEvent.class,
+                    VmSuspendedEvent.class,
+                    VmStartingEvent.class,
+                    VmUnsupportedStartingEvent.class,
+                    VmStoppingEvent.class,
+                    VmSuspendingEvent.class,
+                    VmResumingEvent.class,
+                    VmReconfiguredEvent.class,
+                    VmResourcePoolMovedEvent.class,
+                    VmRenamedEvent.class,
+                    VmCreatedEvent.class,
+                    VmRegisteredEvent.class,
+                    VmClonedEvent.class,
+                    VmDeployedEvent.class,
+                    VmRemovedEvent.class,
+                    ResourcePoolCreatedEvent.class,
+                    ResourcePoolDestroyedEvent.class,
+                    ResourcePoolMovedEvent.class,
+                    ResourcePoolReconfiguredEvent.class,
+                    TaskEvent.class,
+                    TaskTimeoutEvent.class);
+            Set<String> names = new TreeSet<String>();
+            for (Class<? extends Event> c : classes) {
+                names.add(c.getSimpleName());
+            }
+            CONSUMED_TYPES = Collections.unmodifiableSet(names);
+        }
     }
 }
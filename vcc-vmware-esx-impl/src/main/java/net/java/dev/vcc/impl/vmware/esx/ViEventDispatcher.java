@@ -5,9 +5,12 @@ import com.vmware.vim25.ManagedObjectReference;
 import com.vmware.vim25.ResourcePoolEvent;
 import com.vmware.vim25.TaskEvent;
 import com.vmware.vim25.VmEvent;
+import com.vmware.vim25.VmReconfiguredEvent;
+import com.vmware.vim25.VmRemovedEvent;
 import net.java.dev.vcc.api.Log;
 import net.java.dev.vcc.api.LogFactory;
 import net.java.dev.vcc.spi.AbstractManagedObject;
+import net.java.dev.vcc.util.HandoffQueue;
 
 import java.beans.IntrospectionException;
 import java.beans.Introspector;
@@ -17,66 +20,303 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Created by IntelliJ IDEA. User: connollys Date: Aug 10, 2009 Time: 1:25:21 PM To change this template use File |
- * Settings | File Templates.
+ * Dispatches collected events to the managed objects they concern. Events are sharded by the managed object they
+ * target across a number of worker threads, so that events for the same object are delivered in the order they were
+ * collected while events for different objects are delivered in parallel.
  */
 final class ViEventDispatcher implements Runnable {
+
+    /**
+     * The default number of worker threads.
+     */
+    static final int DEFAULT_WORKER_COUNT = 4;
+
+    /**
+     * The maximum number of events waiting for each worker.
+     */
+    private static final int WORKER_QUEUE_CAPACITY = 1000;
+
+    /**
+     * The maximum number of events coalesced together.
+     */
+    private static final int MAX_BATCH_SIZE = 500;
+
     private ViDatacenter viDatacenter;
     private final Log log;
+    private final ExecutorService executorService;
+    private final HandoffQueue<Event>[] shards;
+
+    /**
+     * How long, in milliseconds, each worker waits to gather events for coalescing, or {@code 0} to deliver every
+     * event as soon as it arrives.
+     */
+    private final long coalesceWindow;
 
-    public ViEventDispatcher(ViDatacenter viDatacenter, LogFactory logFactory) {
+    private final ViEventCoalescer coalescer = new ViEventCoalescer();
+
+    /**
+     * The number of events that have been routed to a worker but not yet applied to the model.
+     */
+    private final AtomicLong inFlight = new AtomicLong();
+
+    /**
+     * The most recent event routed to a worker.
+     */
+    private volatile Event lastRouted = null;
+
+    public ViEventDispatcher(ViDatacenter viDatacenter, LogFactory logFactory, ExecutorService executorService) {
+        this(viDatacenter, logFactory, executorService, DEFAULT_WORKER_COUNT, 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ViEventDispatcher(ViDatacenter viDatacenter, LogFactory logFactory, ExecutorService executorService,
+                             int workerCount, long coalesceWindow) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("Must have at least one worker, was: " + workerCount);
+        }
         this.viDatacenter = viDatacenter;
-        log = logFactory.getLog(getClass());
+        this.log = logFactory.getLog(getClass());
+        this.executorService = executorService;
+        this.coalesceWindow = coalesceWindow;
+        this.shards = new HandoffQueue[workerCount];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new HandoffQueue<Event>(WORKER_QUEUE_CAPACITY);
+        }
     }
 
     public void run() {
-        log.debug("Event dispatcher thread started.");
+        log.debug("Event dispatcher thread started with {0} workers.", shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            executorService.submit(new Worker(i));
+        }
         try {
             while (!viDatacenter.isClosing()) {
-                final Event event = viDatacenter.getEventCollector().poll();
-                if (null == event) {
-                    continue;
+                final Event event;
+                try {
+                    event = viDatacenter.getEventCollector().take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
                 }
-                if (event instanceof ViClosingConnectionEvent) {
-                    log.debug("Received connection closing event");
+                if (null == event) {
+                    log.debug("Event collector closed");
                     break;
                 }
-                log.debug("Received event: {0}", event.getClass());
-                ManagedObjectReference ref = null;
-                if (event instanceof VmEvent) {
-                    ref = event.getVm().getVm();
-                } else if (event instanceof ResourcePoolEvent) {
-                    ref = ((ResourcePoolEvent) event).getResourcePool().getResourcePool();
-                } else if (event instanceof TaskEvent) {
-                    viDatacenter.processTask((TaskEvent) event);
-                } else {
-//                    try {
-//                        log.info("Received event:\n{0}", toString(event));
-//                    } catch (IntrospectionException e) {
-//                        log.info(e, e.getMessage());
-//                    } catch (IllegalAccessException e) {
-//                        log.info(e, e.getMessage());
-//                    } catch (InvocationTargetException e) {
-//                        log.info(e, e.getMessage());
-//                    }
+                inFlight.incrementAndGet();
+                lastRouted = event;
+                if (!shards[shardOf(event)].put(event)) {
+                    break;
                 }
-                if (ref != null) {
-                    final AbstractManagedObject managedObject = viDatacenter.getManagedObject(ref);
-                    if (managedObject instanceof ViEventReceiver) {
-                        ((ViEventReceiver) managedObject).receiveEvent(event);
-                    } else if (managedObject == null) {
-                        // try creating it
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (HandoffQueue<Event> shard : shards) {
+                shard.close();
+            }
+            log.debug("Event dispatcher thread stopped. {0} events were merged by coalescing.",
+                    coalescer.getMergedCount());
+        }
+    }
+
+    /**
+     * Gets the number of events that have been routed to a worker but not yet applied to the model. When this is
+     * zero the model reflects every event up to and including {@link #getLastRouted()}.
+     *
+     * @return the number of events that have been routed to a worker but not yet applied to the model.
+     */
+    public long getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Gets the most recent event routed to a worker.
+     *
+     * @return the most recent event routed to a worker or {@code null} if no events have been routed.
+     */
+    public Event getLastRouted() {
+        return lastRouted;
+    }
+
+    /**
+     * Gets the number of events that have been merged away by coalescing.
+     *
+     * @return the number of events that have been merged away by coalescing.
+     */
+    public long getMergedCount() {
+        return coalescer.getMergedCount();
+    }
+
+    /**
+     * Gets the number of events waiting for each worker.
+     *
+     * @return the number of events waiting for each worker.
+     */
+    public int[] getShardDepths() {
+        int[] result = new int[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            result[i] = shards[i].getSize();
+        }
+        return result;
+    }
+
+    /**
+     * Gets the managed object that an event concerns.
+     *
+     * @param event the event.
+     *
+     * @return the managed object that the event concerns or {@code null} if the event does not concern a modelled
+     *         object.
+     */
+    static ManagedObjectReference targetOf(Event event) {
+        if (event instanceof ResourcePoolEvent) {
+            return ((ResourcePoolEvent) event).getResourcePool().getResourcePool();
+        } else if (event.getVm() != null) {
+            // task events carry their virtual machine too, keeping task completion in order with its events
+            return event.getVm().getVm();
+        }
+        return null;
+    }
+
+    private int shardOf(Event event) {
+        ManagedObjectReference ref = targetOf(event);
+        if (ref == null || ref.getValue() == null) {
+            return 0;
+        }
+        return (ref.getValue().hashCode() & 0x7fffffff) % shards.length;
+    }
+
+    private void dispatch(Event event) {
+        log.debug("Received event: {0}", event.getClass());
+        if (event instanceof TaskEvent) {
+            viDatacenter.processTask((TaskEvent) event);
+        } else if (event instanceof VmRemovedEvent) {
+            AbstractManagedObject removed = viDatacenter.getInventoryBuilder().remove(targetOf(event));
+            if (removed != null) {
+                log.debug("{0} has been removed", removed);
+            }
+        } else if (event instanceof VmEvent || event instanceof ResourcePoolEvent) {
+            final AbstractManagedObject managedObject = viDatacenter.getManagedObject(targetOf(event));
+            if (managedObject instanceof ViEventReceiver) {
+                ((ViEventReceiver) managedObject).receiveEvent(event);
+            }
+        }
+    }
+
+    /**
+     * Checks if an event must wait for its managed object to be added to the model before it is dispatched.
+     *
+     * @param event    the event.
+     * @param target   the managed object that the event concerns.
+     * @param resolver the resolver of the worker that will dispatch the event.
+     *
+     * @return {@code true} if the event must wait.
+     */
+    private boolean mustHold(Event event, ManagedObjectReference target, ViObjectResolver resolver) {
+        if (target == null || target.getValue() == null) {
+            return false;
+        }
+        if (resolver.isHolding(target)) {
+            // keep the events for an object in order
+            return true;
+        }
+        return (event instanceof VmEvent || event instanceof ResourcePoolEvent) && !(event instanceof VmRemovedEvent)
+                && viDatacenter.getManagedObject(target) == null;
+    }
+
+    private void deliver(Event event, ViObjectResolver resolver) {
+        ManagedObjectReference target = targetOf(event);
+        if (mustHold(event, target, resolver)) {
+            resolver.hold(target, event);
+        } else if (event instanceof VmReconfiguredEvent && viDatacenter.getPropertyCache() == null) {
+            // the model holds the configuration, so it must be retrieved again
+            resolver.reload(target);
+        } else {
+            dispatchSafely(event);
+        }
+    }
+
+    private void dispatchSafely(Event event) {
+        try {
+            dispatch(event);
+        } catch (RuntimeException e) {
+            log.error(e, "Could not dispatch {0}", event.getClass());
+        }
+    }
+
+    private final class Worker implements Runnable {
+        private final int index;
+
+        private Worker(int index) {
+            this.index = index;
+        }
+
+        public void run() {
+            final HandoffQueue<Event> shard = shards[index];
+            final ViObjectResolver resolver = new ViObjectResolver(viDatacenter, log,
+                    ViObjectResolver.DEFAULT_BATCH_SIZE);
+            try {
+                while (!viDatacenter.isClosing()) {
+                    Event event = shard.take();
+                    if (event == null) {
+                        break;
                     }
+                    final int heldBefore = resolver.getHeldEventCount();
+                    if (coalesceWindow <= 0) {
+                        deliver(event, resolver);
+                        resolve(shard, resolver);
+                        inFlight.addAndGet(resolver.getHeldEventCount() - heldBefore - 1);
+                        continue;
+                    }
+                    List<Event> batch = new ArrayList<Event>();
+                    batch.add(event);
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(coalesceWindow);
+                    while (batch.size() < MAX_BATCH_SIZE) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0 || (event = shard.poll(remaining, TimeUnit.NANOSECONDS)) == null) {
+                            break;
+                        }
+                        batch.add(event);
+                    }
+                    for (Event e : coalescer.coalesce(batch)) {
+                        deliver(e, resolver);
+                    }
+                    resolve(shard, resolver);
+                    inFlight.addAndGet(resolver.getHeldEventCount() - heldBefore - batch.size());
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                log.debug("Event dispatcher worker {0} stopped (high water mark {1}, average latency {2}s, "
+                        + "{3} objects added to the model).",
+                        index, shard.getHighWaterMark(), shard.getDequeueLatencyAverage(),
+                        resolver.getResolvedCount());
+            }
+        }
 
+        /**
+         * Resolves the held objects once the worker has caught up or a batch has filled.
+         *
+         * @param shard    the worker's events.
+         * @param resolver the worker's resolver.
+         */
+        private void resolve(HandoffQueue<Event> shard, ViObjectResolver resolver) {
+            while (!resolver.isEmpty() && (shard.getSize() == 0 || resolver.isFlushDue())
+                    && !viDatacenter.isClosing()) {
+                for (Event e : resolver.flush()) {
+                    dispatchSafely(e);
+                }
             }
-        } finally {
-            log.debug("Event dispatcher thread stopped.");
         }
     }
 
@@ -65,18 +65,27 @@ final class ViHostResourceGroup
 
     void addComputer(ViComputer viComputer) {
         computers.put(viComputer.getId(), viComputer);
+        invalidateAggregates();
     }
 
     public void addHostResourceGroup(ViHostResourceGroup viResourceGroup) {
         resourceGroups.put(viResourceGroup.getId(), viResourceGroup);
+        invalidateAggregates();
     }
 
     void removeComputer(ViComputer viComputer) {
         computers.remove(viComputer.getId());
+        invalidateAggregates();
     }
 
     public void removeResourceGroup(ViHostResourceGroup viResourceGroup) {
         resourceGroups.remove(viResourceGroup.getId());
+        invalidateAggregates();
+    }
+
+    @Override
+    protected boolean isCachingAggregates() {
+        return true;
     }
 
     @Override
@@ -0,0 +1,617 @@
+package net.java.dev.vcc.impl.vmware.esx;
+
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.VirtualMachineConfigInfo;
+import com.vmware.vim25.VirtualMachinePowerState;
+import com.vmware.vim25.VirtualMachineRuntimeInfo;
+import com.vmware.vim25.VirtualMachineSnapshotInfo;
+import net.java.dev.vcc.spi.AbstractManagedObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds the datacenter model from inventory entities and keeps the parent/child links of the model up to date as
+ * entities are added, moved and removed. Entities may arrive in any order; children whose parent has not been seen yet
+ * are held until the parent arrives. When the model is maintained by tracking property changes, the builder receives
+ * the updates of the inventory property filter.
+ */
+final class ViInventoryBuilder implements ViUpdateReceiver {
+
+    private final ViDatacenter datacenter;
+
+    /**
+     * Children waiting for their parent to be added, keyed by the value of the parent's managed object reference.
+     */
+    private final Map<String, Collection<AbstractManagedObject>> waiting =
+            new HashMap<String, Collection<AbstractManagedObject>>();
+
+    /**
+     * The {@code hostFolder} and {@code vmFolder} folders, which are not part of the model and stand in for their
+     * datacenter, keyed by folder.
+     */
+    private final Map<String, String> proxyParents = new HashMap<String, String>();
+
+    /**
+     * The parent of each entity in the model, keyed by entity.
+     */
+    private final Map<String, String> parents = new HashMap<String, String>();
+
+    /**
+     * The children of each entity, the reverse of {@link #parents}, so that a subtree can be walked when it moves.
+     */
+    private final Map<String, Set<String>> children = new HashMap<String, Set<String>>();
+
+    /**
+     * {@code true} once the inventory has been loaded.
+     */
+    private boolean completed = false;
+
+    ViInventoryBuilder(ViDatacenter datacenter) {
+        this.datacenter = datacenter;
+    }
+
+    /**
+     * Adds an entity to the model.
+     *
+     * @param entityObject the entity.
+     * @param properties   the properties of the entity, keyed by property path.
+     *
+     * @return the new managed object or {@code null} if the entity is already in the model, is not modelled or only
+     *         stands in for its parent.
+     */
+    synchronized AbstractManagedObject add(ManagedObjectReference entityObject, Map<String, Object> properties) {
+        final String key = entityObject.getValue();
+        if (datacenter.getManagedObject(key) != null) {
+            return null;
+        }
+        AbstractManagedObject entityMO;
+        ViManagedObjectIds ids = datacenter.getManagedObjectIds();
+        String entityType = entityObject.getType();
+        String entityName = (String) properties.get("name");
+        if ("VirtualMachine".equals(entityType)) {
+            VirtualMachineConfigInfo config = (VirtualMachineConfigInfo) properties.get("config");
+            VirtualMachineRuntimeInfo runtime = (VirtualMachineRuntimeInfo) properties.get("runtime");
+            VirtualMachineSnapshotInfo snapshot = (VirtualMachineSnapshotInfo) properties.get("snapshot");
+            boolean template = config != null
+                    ? config.isTemplate()
+                    : Boolean.TRUE.equals(properties.get("config.template"));
+            if (config == null && properties.containsKey("config.annotation")) {
+                config = newConfig((String) properties.get("config.annotation"), template);
+            }
+            if (runtime == null && properties.containsKey("runtime.powerState")) {
+                runtime = newRuntime((VirtualMachinePowerState) properties.get("runtime.powerState"));
+            }
+            if (datacenter.getPropertyCache() != null) {
+                // the property cache retrieves these when they are needed
+                config = null;
+                snapshot = null;
+            }
+            if (template) {
+                entityMO = new ViComputerTemplate(datacenter, ids.getComputerTemplateId(entityObject), null,
+                        entityName, config, runtime, snapshot);
+            } else {
+                entityMO = new ViComputer(datacenter, ids.getComputerId(entityObject), null, entityName, config,
+                        runtime, snapshot);
+            }
+        } else if ("ComputeResource".equals(entityType)) {
+            entityMO = new ViHost(datacenter, ids.getHostId(entityObject), null, entityName);
+        } else if ("ResourcePool".equals(entityType)) {
+            entityMO = new ViHostResourceGroup(datacenter, ids.getHostResourceGroupId(entityObject), null, entityName);
+        } else if ("Folder".equals(entityType)) {
+            ManagedObjectReference parent = (ManagedObjectReference) properties.get("parent");
+            if (parent != null && "Datacenter".equals(parent.getType())) {
+                addProxy(key, parent.getValue());
+                return null;
+            }
+            entityMO = new ViDatacenterResourceGroup(datacenter, ids.getDatacenterResourceGroupId(entityObject), null,
+                    entityName);
+        } else if ("Datacenter".equals(entityType)) {
+            entityMO = new ViDatacenterResourceGroup(datacenter, ids.getDatacenterResourceGroupId(entityObject), null,
+                    entityName);
+        } else {
+            // unknown object type
+            return null;
+        }
+        ManagedObjectReference parent = (ManagedObjectReference) properties.get("resourcePool");
+        if (parent == null) {
+            parent = (ManagedObjectReference) properties.get("parent");
+        }
+        if (parent != null) {
+            link(key, parent.getValue(), entityMO);
+        }
+        Collection<AbstractManagedObject> children = waiting.remove(key);
+        if (children != null) {
+            for (AbstractManagedObject childMO : children) {
+                addChildMO(entityMO, childMO);
+            }
+        }
+        datacenter.putManagedObject(key, entityMO);
+        if (entityMO instanceof ViComputer) {
+            ViComputer computer = (ViComputer) entityMO;
+            if (datacenter.getPropertyCache() != null) {
+                datacenter.getPropertyCache().register(computer);
+            }
+            datacenter.getComputerIndex().add(computer, entityName, computer.getState(), getHost(key));
+        }
+        if (children != null && completed) {
+            // computers below the new entity may have found their host
+            refreshHosts(key);
+        }
+        commit();
+        return entityMO;
+    }
+
+    /**
+     * Removes an entity from the model.
+     *
+     * @param entityObject the entity.
+     *
+     * @return the managed object that was removed or {@code null} if the entity was not in the model.
+     */
+    synchronized AbstractManagedObject remove(ManagedObjectReference entityObject) {
+        final String key = entityObject.getValue();
+        proxyParents.remove(key);
+        AbstractManagedObject entityMO = datacenter.removeManagedObject(key);
+        if (entityMO != null) {
+            unlink(key, entityMO);
+            if (entityMO instanceof ViComputer) {
+                if (datacenter.getPropertyCache() != null) {
+                    datacenter.getPropertyCache().forget(key);
+                }
+                datacenter.getComputerIndex().remove(((ViComputer) entityMO).getId());
+            }
+            datacenter.getManagedObjectIds().forget(key);
+            commit();
+        }
+        return entityMO;
+    }
+
+    /**
+     * Moves an entity in the model to a new parent.
+     *
+     * @param entityObject the entity.
+     * @param newParent    the new parent of the entity.
+     */
+    synchronized void move(ManagedObjectReference entityObject, ManagedObjectReference newParent) {
+        final String key = entityObject.getValue();
+        AbstractManagedObject entityMO = datacenter.getManagedObject(key);
+        if (entityMO == null) {
+            return;
+        }
+        String newParentKey = resolve(newParent.getValue());
+        if (newParentKey.equals(parents.get(key))) {
+            return;
+        }
+        unlink(key, entityMO);
+        link(key, newParentKey, entityMO);
+        datacenter.getLog().debug("Moved {0} to {1}", entityMO, newParentKey);
+        if (entityMO instanceof ViComputer) {
+            datacenter.getComputerIndex().setHost(((ViComputer) entityMO).getId(), getHost(key));
+        } else if (completed) {
+            refreshHosts(key);
+        }
+        commit();
+    }
+
+    /**
+     * Applies a change to the inventory.
+     *
+     * @param objectUpdate the change.
+     */
+    public void receiveUpdate(ObjectUpdate objectUpdate) {
+        ManagedObjectReference obj = objectUpdate.getObj();
+        switch (objectUpdate.getKind()) {
+            case ENTER:
+                if (datacenter.getManagedObject(obj) == null) {
+                    Map<String, Object> properties = new HashMap<String, Object>();
+                    for (PropertyChange change : objectUpdate.getChangeSet()) {
+                        properties.put(change.getName(), ViUpdateCollector.valueOf(change));
+                    }
+                    add(obj, properties);
+                    break;
+                }
+                // an object we already know about has re-entered the filter, treat as a modification
+            case MODIFY:
+                AbstractManagedObject entityMO = datacenter.getManagedObject(obj);
+                if (entityMO == null) {
+                    break;
+                }
+                for (PropertyChange change : objectUpdate.getChangeSet()) {
+                    update(obj, entityMO, change.getName(), ViUpdateCollector.valueOf(change));
+                }
+                break;
+            case LEAVE:
+                AbstractManagedObject removed = remove(obj);
+                if (removed != null) {
+                    datacenter.getLog().debug("{0} has been removed", removed);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Applies properties retrieved again for an entity that is in the model.
+     *
+     * @param entityObject the entity.
+     * @param properties   the properties of the entity, keyed by property path.
+     */
+    void refresh(ManagedObjectReference entityObject, Map<String, Object> properties) {
+        AbstractManagedObject entityMO = datacenter.getManagedObject(entityObject);
+        if (entityMO == null) {
+            return;
+        }
+        for (Map.Entry<String, Object> property : properties.entrySet()) {
+            update(entityObject, entityMO, property.getKey(), property.getValue());
+        }
+    }
+
+    private void update(ManagedObjectReference obj, AbstractManagedObject entityMO, String name, Object value) {
+        if ("name".equals(name)) {
+            if (entityMO instanceof ViComputer) {
+                ((ViComputer) entityMO).setName((String) value);
+            } else if (entityMO instanceof ViComputerTemplate) {
+                ((ViComputerTemplate) entityMO).setName((String) value);
+            } else if (entityMO instanceof ViHost) {
+                ((ViHost) entityMO).setName((String) value);
+            } else if (entityMO instanceof ViHostResourceGroup) {
+                ((ViHostResourceGroup) entityMO).setName((String) value);
+            } else if (entityMO instanceof ViDatacenterResourceGroup) {
+                ((ViDatacenterResourceGroup) entityMO).setName((String) value);
+            }
+            datacenter.entityChanged();
+        } else if ("resourcePool".equals(name)) {
+            if (value != null) {
+                move(obj, (ManagedObjectReference) value);
+            }
+        } else if ("parent".equals(name)) {
+            // virtual machines hang off their resource pool rather than their folder
+            if (value != null && !(entityMO instanceof ViComputer)) {
+                move(obj, (ManagedObjectReference) value);
+            }
+        } else if (entityMO instanceof ViComputer) {
+            ViComputer computer = (ViComputer) entityMO;
+            if ("config".equals(name)) {
+                computer.setConfig((VirtualMachineConfigInfo) value);
+            } else if ("runtime".equals(name)) {
+                computer.setRuntime((VirtualMachineRuntimeInfo) value);
+            } else if ("config.annotation".equals(name)) {
+                computer.setDescription((String) value);
+            } else if ("runtime.powerState".equals(name)) {
+                computer.setRuntime(newRuntime((VirtualMachinePowerState) value));
+            } else if ("snapshot".equals(name)) {
+                computer.setSnapshot((VirtualMachineSnapshotInfo) value);
+            }
+        }
+    }
+
+    /**
+     * Gets the parent of each entity in the model.
+     *
+     * @return a copy of the parent of each entity in the model, keyed by entity.
+     */
+    synchronized Map<String, String> getParents() {
+        return new HashMap<String, String>(parents);
+    }
+
+    /**
+     * Gets the folders that stand in for their datacenter.
+     *
+     * @return a copy of the datacenter of each folder that stands in for its datacenter, keyed by folder.
+     */
+    synchronized Map<String, String> getProxyParents() {
+        return new HashMap<String, String>(proxyParents);
+    }
+
+    /**
+     * Checks if an entity is neither in the model nor stands in for an entity in the model.
+     *
+     * @param entityObject the entity.
+     *
+     * @return {@code true} if the entity is unknown.
+     */
+    synchronized boolean isUnknown(ManagedObjectReference entityObject) {
+        return datacenter.getManagedObject(entityObject) == null
+                && !proxyParents.containsKey(entityObject.getValue());
+    }
+
+    /**
+     * Gets the number of parents that have been referenced by entities but have not been added to the model.
+     *
+     * @return the number of parents that have been referenced by entities but have not been added to the model.
+     */
+    synchronized int getWaitingCount() {
+        return waiting.size();
+    }
+
+    /**
+     * Logs the state of the model once the inventory has been loaded.
+     */
+    synchronized void complete() {
+        completed = true;
+        refreshHosts();
+        commit();
+        if (waiting.isEmpty()) {
+            datacenter.getLog().debug("Datacenter model constructed successfully");
+        } else {
+            datacenter.getLog().warn("Datacenter model is not complete: "
+                    + "{0} parents were referenced from the inventory but not provided in the inventory",
+                    waiting.size());
+        }
+    }
+
+    /**
+     * Gets the host that an entity belongs to.
+     *
+     * @param key the entity.
+     *
+     * @return the closest host above the entity or {@code null} if there is none in the model.
+     */
+    synchronized ViHost getHost(String key) {
+        for (int depth = 0; depth <= parents.size(); depth++) {
+            key = parents.get(key);
+            if (key == null) {
+                return null;
+            }
+            AbstractManagedObject parentMO = datacenter.getManagedObject(key);
+            if (parentMO instanceof ViHost) {
+                return (ViHost) parentMO;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the VMware datacenter that an entity belongs to, which is not the same as the {@link ViDatacenter}: one
+     * server can hold many VMware datacenters.
+     *
+     * @param key the entity.
+     *
+     * @return the closest VMware datacenter above the entity or {@code null} if there is none in the model.
+     */
+    synchronized ManagedObjectReference getVimDatacenter(String key) {
+        for (int depth = 0; depth <= parents.size(); depth++) {
+            key = parents.get(key);
+            if (key == null) {
+                return null;
+            }
+            AbstractManagedObject parentMO = datacenter.getManagedObject(key);
+            if (parentMO instanceof ViDatacenterResourceGroup) {
+                ManagedObjectReference parent = ((ViManagedObjectId) parentMO.getId()).getMORef();
+                if ("Datacenter".equals(parent.getType())) {
+                    return parent;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Brings the host of every computer in the index up to date once the whole tree has been loaded.
+     */
+    private void refreshHosts() {
+        for (AbstractManagedObject entityMO : datacenter.getManagedObjects().values()) {
+            if (entityMO instanceof ViComputer) {
+                datacenter.getComputerIndex().setHost(((ViComputer) entityMO).getId(), getHost(keyOf(entityMO)));
+            }
+        }
+    }
+
+    /**
+     * Brings the host of the computers below an entity up to date after the entity has been attached or moved. Only
+     * the entity's subtree is walked, and each computer's host is carried down from its parent rather than looked up.
+     *
+     * @param key the entity.
+     */
+    private void refreshHosts(String key) {
+        AbstractManagedObject rootMO = datacenter.getManagedObject(key);
+        LinkedList<String> keys = new LinkedList<String>();
+        LinkedList<ViHost> hosts = new LinkedList<ViHost>();
+        keys.add(key);
+        hosts.add(rootMO instanceof ViHost ? (ViHost) rootMO : getHost(key));
+        while (!keys.isEmpty()) {
+            String parentKey = keys.removeFirst();
+            ViHost host = hosts.removeFirst();
+            Set<String> childKeys = children.get(parentKey);
+            if (childKeys == null) {
+                continue;
+            }
+            for (String childKey : childKeys) {
+                AbstractManagedObject childMO = datacenter.getManagedObject(childKey);
+                if (childMO instanceof ViComputer) {
+                    datacenter.getComputerIndex().setHost(((ViComputer) childMO).getId(), host);
+                } else if (childMO != null) {
+                    keys.add(childKey);
+                    hosts.add(childMO instanceof ViHost ? (ViHost) childMO : host);
+                }
+            }
+        }
+    }
+
+    /**
+     * Publishes the changes to the model as a new version, once the inventory has been loaded.
+     */
+    private void commit() {
+        if (completed) {
+            datacenter.getVersionedModel().commit();
+        }
+    }
+
+    private String resolve(String parentKey) {
+        String proxied = proxyParents.get(parentKey);
+        return proxied == null ? parentKey : proxied;
+    }
+
+    /**
+     * Records that a folder stands in for its datacenter.
+     *
+     * @param key       the folder.
+     * @param parentKey the datacenter.
+     */
+    synchronized void addProxy(String key, String parentKey) {
+        proxyParents.put(key, parentKey);
+        Collection<AbstractManagedObject> children = waiting.remove(key);
+        if (children != null) {
+            for (AbstractManagedObject childMO : children) {
+                link(keyOf(childMO), parentKey, childMO);
+            }
+            commit();
+        }
+    }
+
+    private void link(String key, String parentKey, AbstractManagedObject entityMO) {
+        parentKey = resolve(parentKey);
+        removeChild(parents.put(key, parentKey), key);
+        Set<String> childKeys = children.get(parentKey);
+        if (childKeys == null) {
+            children.put(parentKey, childKeys = new HashSet<String>());
+        }
+        childKeys.add(key);
+        AbstractManagedObject parentMO = datacenter.getManagedObject(parentKey);
+        if (parentMO != null) {
+            addChildMO(parentMO, entityMO);
+        } else {
+            Collection<AbstractManagedObject> pendingChildMOs = waiting.get(parentKey);
+            if (pendingChildMOs == null) {
+                waiting.put(parentKey, pendingChildMOs = new ArrayList<AbstractManagedObject>());
+            }
+            pendingChildMOs.add(entityMO);
+        }
+    }
+
+    private void unlink(String key, AbstractManagedObject entityMO) {
+        String parentKey = parents.remove(key);
+        if (parentKey == null) {
+            return;
+        }
+        removeChild(parentKey, key);
+        AbstractManagedObject parentMO = datacenter.getManagedObject(parentKey);
+        if (parentMO != null) {
+            removeChildMO(parentMO, entityMO);
+        } else {
+            Collection<AbstractManagedObject> pendingChildMOs = waiting.get(parentKey);
+            if (pendingChildMOs != null) {
+                pendingChildMOs.remove(entityMO);
+                if (pendingChildMOs.isEmpty()) {
+                    waiting.remove(parentKey);
+                }
+            }
+        }
+    }
+
+    private void removeChild(String parentKey, String key) {
+        Set<String> childKeys = parentKey == null ? null : children.get(parentKey);
+        if (childKeys != null) {
+            childKeys.remove(key);
+            if (childKeys.isEmpty()) {
+                children.remove(parentKey);
+            }
+        }
+    }
+
+    private static VirtualMachineConfigInfo newConfig(String annotation, boolean template) {
+        VirtualMachineConfigInfo config = new VirtualMachineConfigInfo();
+        config.setAnnotation(annotation);
+        config.setTemplate(template);
+        return config;
+    }
+
+    private static VirtualMachineRuntimeInfo newRuntime(VirtualMachinePowerState powerState) {
+        VirtualMachineRuntimeInfo runtime = new VirtualMachineRuntimeInfo();
+        runtime.setPowerState(powerState);
+        return runtime;
+    }
+
+    private static String keyOf(AbstractManagedObject entityMO) {
+        return ((ViManagedObjectId) entityMO.getId()).getMORef().getValue();
+    }
+
+    private void addChildMO(AbstractManagedObject parentMO, AbstractManagedObject childMO) {
+        if (parentMO instanceof ViHostResourceGroup) {
+            if (childMO instanceof ViComputer) {
+                ((ViHostResourceGroup) parentMO).addComputer((ViComputer) childMO);
+            } else if (childMO instanceof ViHostResourceGroup) {
+                ((ViHostResourceGroup) parentMO).addHostResourceGroup((ViHostResourceGroup) childMO);
+            } else {
+                return;
+            }
+        } else if (parentMO instanceof ViHost) {
+            if (childMO instanceof ViComputer) {
+                ((ViHost) parentMO).addComputer((ViComputer) childMO);
+            } else if (childMO instanceof ViHostResourceGroup) {
+                ((ViHost) parentMO).addHostResourceGroup((ViHostResourceGroup) childMO);
+            } else {
+                return;
+            }
+        } else if (parentMO instanceof ViDatacenterResourceGroup) {
+            if (childMO instanceof ViHost) {
+                ((ViDatacenterResourceGroup) parentMO).addHost((ViHost) childMO);
+            } else if (childMO instanceof ViDatacenterResourceGroup) {
+                ((ViDatacenterResourceGroup) parentMO).addResourceGroup((ViDatacenterResourceGroup) childMO);
+            } else if (childMO instanceof ViComputerTemplate) {
+                ((ViDatacenterResourceGroup) parentMO).addComputerTemplate((ViComputerTemplate) childMO);
+            } else {
+                return;
+            }
+        } else if (parentMO instanceof ViDatacenter) {
+            if (childMO instanceof ViDatacenterResourceGroup) {
+                ((ViDatacenter) parentMO).addDatacenterResourceGroup((ViDatacenterResourceGroup) childMO);
+            } else if (childMO instanceof ViHost) {
+                ((ViDatacenter) parentMO).addHost((ViHost) childMO);
+            } else {
+                return;
+            }
+        } else {
+            return;
+        }
+        datacenter.getVersionedModel().add(parentMO, childMO);
+    }
+
+    private void removeChildMO(AbstractManagedObject parentMO, AbstractManagedObject childMO) {
+        if (parentMO instanceof ViHostResourceGroup) {
+            if (childMO instanceof ViComputer) {
+                ((ViHostResourceGroup) parentMO).removeComputer((ViComputer) childMO);
+            } else if (childMO instanceof ViHostResourceGroup) {
+                ((ViHostResourceGroup) parentMO).removeResourceGroup((ViHostResourceGroup) childMO);
+            } else {
+                return;
+            }
+        } else if (parentMO instanceof ViHost) {
+            if (childMO instanceof ViComputer) {
+                ((ViHost) parentMO).removeComputer((ViComputer) childMO);
+            } else if (childMO instanceof ViHostResourceGroup) {
+                ((ViHost) parentMO).removeResourceGroup((ViHostResourceGroup) childMO);
+            } else {
+                return;
+            }
+        } else if (parentMO instanceof ViDatacenterResourceGroup) {
+            if (childMO instanceof ViHost) {
+                ((ViDatacenterResourceGroup) parentMO).removeHost((ViHost) childMO);
+            } else if (childMO instanceof ViDatacenterResourceGroup) {
+                ((ViDatacenterResourceGroup) parentMO).removeResourceGroup((ViDatacenterResourceGroup) childMO);
+            } else if (childMO instanceof ViComputerTemplate) {
+                ((ViDatacenterResourceGroup) parentMO).removeComputerTemplate((ViComputerTemplate) childMO);
+            } else {
+                return;
+            }
+        } else if (parentMO instanceof ViDatacenter) {
+            if (childMO instanceof ViDatacenterResourceGroup) {
+                ((ViDatacenter) parentMO).removeResourceGroup((ViDatacenterResourceGroup) childMO);
+            } else if (childMO instanceof ViHost) {
+                ((ViDatacenter) parentMO).removeHost((ViHost) childMO);
+            } else {
+                return;
+            }
+        } else {
+            return;
+        }
+        datacenter.getVersionedModel().remove(parentMO, childMO);
+    }
+}
@@ -0,0 +1,278 @@
+package net.java.dev.vcc.impl.vmware.esx;
+
+import com.vmware.vim25.InvalidPropertyFaultMsg;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.ObjectSpec;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertySpec;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+import net.java.dev.vcc.api.Log;
+import net.java.dev.vcc.impl.vmware.esx.vim25.Helper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Loads the inventory into the model a part at a time. The folders, datacenters, compute resources and virtual
+ * machines are first retrieved with only the properties that place each entity in the tree, and everything except
+ * the virtual machines is added to the model straight away. What remains is then split into parts: the resource pool
+ * tree of each compute resource, and pages of virtual machines, whose configuration and runtime make up almost all of
+ * the inventory. Each part is added to the model before its session retrieves the next, so that only one page of
+ * full virtual machine properties per session is held at any time.
+ * <p/>
+ * With more than one session the parts are retrieved concurrently, the extra sessions being cloned from the
+ * datacenter's session for the duration of the load. Parts can arrive in any order; the {@link ViInventoryBuilder}
+ * links children whose parents have yet to arrive once they do.
+ */
+final class ViInventoryLoader {
+
+    /**
+     * The default number of virtual machines retrieved in one call.
+     */
+    static final int DEFAULT_PAGE_SIZE = 100;
+
+    /**
+     * The default number of sessions used to retrieve the inventory.
+     */
+    static final int DEFAULT_SESSION_COUNT = 1;
+
+    private final ViDatacenter viDatacenter;
+
+    private final Log log;
+
+    private final int pageSize;
+
+    private final int sessionCount;
+
+    private final ExecutorService executor;
+
+    private final Queue<Part> parts = new ConcurrentLinkedQueue<Part>();
+
+    /**
+     * The first failure of any session, which aborts the load.
+     */
+    private final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+    private final AtomicInteger pageCount = new AtomicInteger();
+
+    ViInventoryLoader(ViDatacenter viDatacenter, Log log, int pageSize, int sessionCount, ExecutorService executor) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be at least 1");
+        }
+        if (sessionCount < 1) {
+            throw new IllegalArgumentException("Session count must be at least 1");
+        }
+        this.viDatacenter = viDatacenter;
+        this.log = log;
+        this.pageSize = pageSize;
+        this.sessionCount = sessionCount;
+        this.executor = executor;
+    }
+
+    /**
+     * Loads the inventory below a root folder.
+     *
+     * @param rootFolder the root folder of the inventory.
+     *
+     * @return the number of parts the inventory was loaded in, after the outline.
+     *
+     * @throws RuntimeFaultFaultMsg    if the inventory could not be retrieved.
+     * @throws InvalidPropertyFaultMsg if the inventory specification is not valid.
+     * @throws InterruptedException    if the calling thread was interrupted while waiting for the other sessions.
+     */
+    int load(ManagedObjectReference rootFolder)
+            throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg, InterruptedException {
+        final ViConnection connection = viDatacenter.getConnection();
+        List<ObjectContent> outline = retrieveProperties(connection,
+                ViDatacenter.newInventorySpec(rootFolder, newOutlinePropertySpecs(), false));
+        List<ManagedObjectReference> vms = new ArrayList<ManagedObjectReference>();
+        for (ObjectContent entity : outline) {
+            ManagedObjectReference ref = entity.getObj();
+            if ("VirtualMachine".equals(ref.getType())) {
+                vms.add(ref);
+                continue;
+            }
+            viDatacenter.getInventoryBuilder().add(ref, Helper.asMap(entity.getPropSet()));
+            if (ref.getType().endsWith("ComputeResource")) {
+                parts.add(new ResourcePools(ref));
+            }
+        }
+        log.debug("Loaded outline of {0} entities, loading {1} virtual machines in pages of {2}", outline.size(),
+                vms.size(), pageSize);
+        outline = null; // let the outline be collected while the parts are loaded
+        for (int start = 0; start < vms.size(); start += pageSize) {
+            parts.add(new VirtualMachines(vms.subList(start, Math.min(start + pageSize, vms.size()))));
+        }
+        final int partCount = parts.size();
+
+        List<Future<?>> clones = new ArrayList<Future<?>>();
+        for (int i = 1; i < Math.min(sessionCount, partCount); i++) {
+            clones.add(executor.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    ViConnection clone;
+                    try {
+                        clone = connection.cloneSession();
+                    } catch (Exception e) {
+                        log.warn(e, "Could not open another session, continuing with fewer");
+                        return null;
+                    }
+                    try {
+                        loadParts(clone);
+                    } finally {
+                        try {
+                            clone.logout();
+                        } catch (RuntimeException e) {
+                            log.debug("Could not end session: {0}", e.getMessage());
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        loadParts(connection);
+        for (Future<?> clone : clones) {
+            try {
+                clone.get();
+            } catch (ExecutionException e) {
+                // failures are recorded by the session itself
+            }
+        }
+        Exception e = failure.get();
+        if (e instanceof RuntimeFaultFaultMsg) {
+            throw (RuntimeFaultFaultMsg) e;
+        } else if (e instanceof InvalidPropertyFaultMsg) {
+            throw (InvalidPropertyFaultMsg) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        return partCount;
+    }
+
+    /**
+     * Gets the number of pages of virtual machines that have been loaded.
+     *
+     * @return the number of pages of virtual machines that have been loaded.
+     */
+    int getPageCount() {
+        return pageCount.get();
+    }
+
+    /**
+     * Loads parts over one session until there are none left or a session has failed.
+     *
+     * @param connection the session.
+     */
+    private void loadParts(ViConnection connection) {
+        Part part;
+        while (failure.get() == null && (part = parts.poll()) != null) {
+            try {
+                part.load(connection);
+            } catch (Exception e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+    }
+
+    /**
+     * Adds retrieved entities to the model. Each entity is dropped from the list before it is added, so that the
+     * properties the model does not keep can be collected while the rest of the page is still being added.
+     *
+     * @param entities the entities, emptied as they are added.
+     */
+    private void add(List<ObjectContent> entities) {
+        for (ListIterator<ObjectContent> i = entities.listIterator(); i.hasNext();) {
+            ObjectContent entity = i.next();
+            i.set(null);
+            viDatacenter.getInventoryBuilder().add(entity.getObj(), Helper.asMap(entity.getPropSet()));
+        }
+    }
+
+    private static List<ObjectContent> retrieveProperties(ViConnection connection, PropertyFilterSpec spec)
+            throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
+        return connection.getProxy().retrieveProperties(connection.getServiceContent().getPropertyCollector(),
+                Collections.singletonList(spec));
+    }
+
+    /**
+     * Creates the specification of the properties that place each entity in the tree.
+     *
+     * @return the specification of the properties that place each entity in the tree.
+     */
+    private static PropertySpec[] newOutlinePropertySpecs() {
+        return new PropertySpec[]{
+                Helper.newPropertySpec("ManagedEntity", false, "name", "parent"),
+        };
+    }
+
+    /**
+     * A part of the inventory that is retrieved in one go.
+     */
+    private interface Part {
+        void load(ViConnection connection) throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg;
+    }
+
+    /**
+     * The resource pool tree of a compute resource.
+     */
+    private final class ResourcePools implements Part {
+        private final ManagedObjectReference computeResource;
+
+        private ResourcePools(ManagedObjectReference computeResource) {
+            this.computeResource = computeResource;
+        }
+
+        public void load(ViConnection connection) throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
+            add(retrieveProperties(connection,
+                    ViDatacenter.newResourcePoolSpec(computeResource, viDatacenter.getInventoryPropertySpecs())));
+        }
+    }
+
+    /**
+     * A page of virtual machines.
+     */
+    private final class VirtualMachines implements Part {
+        private final List<ManagedObjectReference> refs;
+
+        private VirtualMachines(List<ManagedObjectReference> refs) {
+            this.refs = refs;
+        }
+
+        public void load(ViConnection connection) throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
+            load(connection, refs);
+            pageCount.incrementAndGet();
+        }
+
+        private void load(ViConnection connection, List<ManagedObjectReference> refs)
+                throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
+            ObjectSpec[] objectSpecs = new ObjectSpec[refs.size()];
+            for (int i = 0; i < objectSpecs.length; i++) {
+                objectSpecs[i] = Helper.newObjectSpec(refs.get(i), false);
+            }
+            try {
+                add(retrieveProperties(connection,
+                        Helper.newPropertyFilterSpec(viDatacenter.getInventoryPropertySpecs(), objectSpecs)));
+            } catch (RuntimeFaultFaultMsg e) {
+                if (refs.size() == 1) {
+                    // most likely the virtual machine has been destroyed since the outline was loaded
+                    log.debug("Could not retrieve {0}: {1}", refs.get(0).getValue(), e.getMessage());
+                    return;
+                }
+                // one missing object fails the whole page, so retrieve them individually
+                for (ManagedObjectReference ref : refs) {
+                    load(connection, Collections.singletonList(ref));
+                }
+            }
+        }
+    }
+}
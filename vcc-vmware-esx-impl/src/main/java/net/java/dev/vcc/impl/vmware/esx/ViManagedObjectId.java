@@ -22,6 +22,15 @@ class ViManagedObjectId<T extends ManagedObject> extends ManagedObjectId<T> {
      */
     private transient ManagedObjectReference moRef;
 
+    /**
+     * The hash code, computed when first needed.
+     */
+    private transient int hash;
+
+    /**
+     * The string form, computed when first needed.
+     */
+    private transient String string;
 
     private static final long serialVersionUID = 1L;
     private static final ObjectStreamField[] serialPersistentFields = {
@@ -66,7 +75,11 @@ class ViManagedObjectId<T extends ManagedObject> extends ManagedObjectId<T> {
 
         ViManagedObjectId that = (ViManagedObjectId) o;
 
-        if (!moRef.equals(that.moRef)) {
+        // the bindings compare references by identity
+        if (!moRef.getValue().equals(that.moRef.getValue())) {
+            return false;
+        }
+        if (!moRef.getType().equals(that.moRef.getType())) {
             return false;
         }
 
@@ -75,22 +88,31 @@ class ViManagedObjectId<T extends ManagedObject> extends ManagedObjectId<T> {
 
     @Override
     public int hashCode() {
-        int result = super.hashCode();
-        result = 31 * result + moRef.hashCode();
+        int result = hash;
+        if (result == 0) {
+            result = super.hashCode();
+            result = 31 * result + moRef.getType().hashCode();
+            result = 31 * result + moRef.getValue().hashCode();
+            hash = result;
+        }
         return result;
     }
 
     @Override
     public String toString() {
-        final StringBuilder sb = new StringBuilder(super.toString());
-        try {
-            sb.append(";type=");
-            sb.append(URLEncoder.encode(moRef.getType(), "UTF-8"));
-            sb.append(";value=");
-            sb.append(URLEncoder.encode(moRef.getValue(), "UTF-8"));
-        } catch (UnsupportedEncodingException e) {
-            // ignore, this cannot happen
+        String result = string;
+        if (result == null) {
+            final StringBuilder sb = new StringBuilder(super.toString());
+            try {
+                sb.append(";type=");
+                sb.append(URLEncoder.encode(moRef.getType(), "UTF-8"));
+                sb.append(";value=");
+                sb.append(URLEncoder.encode(moRef.getValue(), "UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                // ignore, this cannot happen
+            }
+            string = result = sb.toString();
         }
-        return sb.toString();
+        return result;
     }
 }
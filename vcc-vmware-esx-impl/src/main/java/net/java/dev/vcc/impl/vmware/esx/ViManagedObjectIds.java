@@ -0,0 +1,106 @@
+package net.java.dev.vcc.impl.vmware.esx;
+
+import com.vmware.vim25.ManagedObjectReference;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Hands out one ID per managed object reference for the entities of a datacenter, so that the model holds a single
+ * instance of each ID and its hash code and string form are only ever computed once. IDs are looked up by the value of
+ * the managed object reference, so a lookup does not allocate.
+ */
+final class ViManagedObjectIds {
+
+    private final ViDatacenterId datacenterId;
+
+    private final ConcurrentMap<String, ViComputerId> computers = new ConcurrentHashMap<String, ViComputerId>();
+
+    private final ConcurrentMap<String, ViComputerTemplateId> computerTemplates =
+            new ConcurrentHashMap<String, ViComputerTemplateId>();
+
+    private final ConcurrentMap<String, ViHostId> hosts = new ConcurrentHashMap<String, ViHostId>();
+
+    private final ConcurrentMap<String, ViHostResourceGroupId> hostResourceGroups =
+            new ConcurrentHashMap<String, ViHostResourceGroupId>();
+
+    private final ConcurrentMap<String, ViDatacenterResourceGroupId> datacenterResourceGroups =
+            new ConcurrentHashMap<String, ViDatacenterResourceGroupId>();
+
+    ViManagedObjectIds(ViDatacenterId datacenterId) {
+        this.datacenterId = datacenterId;
+    }
+
+    ViComputerId getComputerId(ManagedObjectReference mo) {
+        ViComputerId id = computers.get(mo.getValue());
+        if (id == null) {
+            id = intern(computers, mo.getValue(), new ViComputerId(datacenterId, copyOf(mo)));
+        }
+        return id;
+    }
+
+    ViComputerTemplateId getComputerTemplateId(ManagedObjectReference mo) {
+        ViComputerTemplateId id = computerTemplates.get(mo.getValue());
+        if (id == null) {
+            id = intern(computerTemplates, mo.getValue(), new ViComputerTemplateId(datacenterId, copyOf(mo)));
+        }
+        return id;
+    }
+
+    ViHostId getHostId(ManagedObjectReference mo) {
+        ViHostId id = hosts.get(mo.getValue());
+        if (id == null) {
+            id = intern(hosts, mo.getValue(), new ViHostId(datacenterId, copyOf(mo)));
+        }
+        return id;
+    }
+
+    ViHostResourceGroupId getHostResourceGroupId(ManagedObjectReference mo) {
+        ViHostResourceGroupId id = hostResourceGroups.get(mo.getValue());
+        if (id == null) {
+            id = intern(hostResourceGroups, mo.getValue(), new ViHostResourceGroupId(datacenterId, copyOf(mo)));
+        }
+        return id;
+    }
+
+    ViDatacenterResourceGroupId getDatacenterResourceGroupId(ManagedObjectReference mo) {
+        ViDatacenterResourceGroupId id = datacenterResourceGroups.get(mo.getValue());
+        if (id == null) {
+            id = intern(datacenterResourceGroups, mo.getValue(),
+                    new ViDatacenterResourceGroupId(datacenterId, copyOf(mo)));
+        }
+        return id;
+    }
+
+    /**
+     * Forgets the IDs of an entity that has left the model.
+     *
+     * @param key the value of the entity's managed object reference.
+     */
+    void forget(String key) {
+        computers.remove(key);
+        computerTemplates.remove(key);
+        hosts.remove(key);
+        hostResourceGroups.remove(key);
+        datacenterResourceGroups.remove(key);
+    }
+
+    private static <T> T intern(ConcurrentMap<String, T> ids, String key, T id) {
+        T existing = ids.putIfAbsent(key, id);
+        return existing == null ? id : existing;
+    }
+
+    /**
+     * Copies a managed object reference, so that whoever passed it cannot change the ID.
+     *
+     * @param mo the managed object reference.
+     *
+     * @return the copy.
+     */
+    private static ManagedObjectReference copyOf(ManagedObjectReference mo) {
+        ManagedObjectReference result = new ManagedObjectReference();
+        result.setType(mo.getType());
+        result.setValue(mo.getValue());
+        return result;
+    }
+}
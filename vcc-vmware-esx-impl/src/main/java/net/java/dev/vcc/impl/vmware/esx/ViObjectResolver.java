@@ -0,0 +1,304 @@
+package net.java.dev.vcc.impl.vmware.esx;
+
+import com.vmware.vim25.Event;
+import com.vmware.vim25.InvalidPropertyFaultMsg;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.ObjectSpec;
+import com.vmware.vim25.PropertySpec;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+import net.java.dev.vcc.api.Log;
+import net.java.dev.vcc.impl.vmware.esx.vim25.Helper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Adds managed objects that appeared after the inventory was loaded to the model. Events for objects that are not in
+ * the model are held, together with any later events for the same objects, while the objects are retrieved from the
+ * server in small batches. Once retrieved, the objects are added to the model and their held events are released in
+ * their original order.
+ * <p/>
+ * The resolver also retrieves the configuration of virtual machines that have been reconfigured, again in batches, as
+ * the model holds the parts of it that it exposes.
+ * <p/>
+ * A resolver is not thread safe; each dispatcher worker has its own.
+ */
+final class ViObjectResolver {
+
+    /**
+     * The default number of objects retrieved in one call.
+     */
+    static final int DEFAULT_BATCH_SIZE = 50;
+
+    /**
+     * How many levels of missing parents are retrieved for a new object.
+     */
+    private static final int MAX_DEPTH = 8;
+
+    private final ViDatacenter viDatacenter;
+
+    private final Log log;
+
+    private final int batchSize;
+
+    /**
+     * The objects being resolved, with their held events, in the order they were first seen.
+     */
+    private final Map<String, Held> held = new LinkedHashMap<String, Held>();
+
+    /**
+     * The virtual machines whose configuration must be retrieved again, in the order they were reconfigured.
+     */
+    private final Map<String, ManagedObjectReference> reloads = new LinkedHashMap<String, ManagedObjectReference>();
+
+    private int heldEventCount = 0;
+
+    private long resolvedCount = 0;
+
+    ViObjectResolver(ViDatacenter viDatacenter, Log log, int batchSize) {
+        this.viDatacenter = viDatacenter;
+        this.log = log;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Checks if events for an object are being held.
+     *
+     * @param ref the object.
+     *
+     * @return {@code true} if events for the object are being held.
+     */
+    boolean isHolding(ManagedObjectReference ref) {
+        return held.containsKey(ref.getValue());
+    }
+
+    /**
+     * Holds an event until its object has been resolved.
+     *
+     * @param ref   the object.
+     * @param event the event.
+     */
+    void hold(ManagedObjectReference ref, Event event) {
+        Held h = held.get(ref.getValue());
+        if (h == null) {
+            held.put(ref.getValue(), h = new Held(ref));
+        }
+        h.events.add(event);
+        heldEventCount++;
+    }
+
+    /**
+     * Retrieves the configuration of a virtual machine that is in the model with the next batch.
+     *
+     * @param ref the virtual machine.
+     */
+    void reload(ManagedObjectReference ref) {
+        reloads.put(ref.getValue(), ref);
+    }
+
+    /**
+     * Gets the number of events being held.
+     *
+     * @return the number of events being held.
+     */
+    int getHeldEventCount() {
+        return heldEventCount;
+    }
+
+    /**
+     * Checks if there are any events being held or configurations waiting to be retrieved.
+     *
+     * @return {@code true} if there is nothing waiting.
+     */
+    boolean isEmpty() {
+        return held.isEmpty() && reloads.isEmpty();
+    }
+
+    /**
+     * Checks if there are enough objects waiting to fill a batch.
+     *
+     * @return {@code true} if there are enough objects waiting to fill a batch.
+     */
+    boolean isFlushDue() {
+        return held.size() >= batchSize || reloads.size() >= batchSize;
+    }
+
+    /**
+     * Gets the number of objects that have been added to the model.
+     *
+     * @return the number of objects that have been added to the model.
+     */
+    long getResolvedCount() {
+        return resolvedCount;
+    }
+
+    /**
+     * Retrieves a batch of the waiting objects, adds them to the model and releases their events. Also retrieves a
+     * batch of the waiting configurations.
+     *
+     * @return the released events, in their original order.
+     */
+    List<Event> flush() {
+        if (!reloads.isEmpty()) {
+            reload();
+        }
+        if (held.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Held> batch = new ArrayList<Held>(Math.min(batchSize, held.size()));
+        for (Iterator<Held> it = held.values().iterator(); it.hasNext() && batch.size() < batchSize;) {
+            Held h = it.next();
+            batch.add(h);
+            heldEventCount -= h.events.size();
+            it.remove();
+        }
+        List<ManagedObjectReference> refs = new ArrayList<ManagedObjectReference>(batch.size());
+        for (Held h : batch) {
+            refs.add(h.ref);
+        }
+        for (int depth = 0; depth < MAX_DEPTH && !refs.isEmpty(); depth++) {
+            refs = retrieve(refs);
+        }
+        List<Event> result = new ArrayList<Event>();
+        for (Held h : batch) {
+            if (viDatacenter.getManagedObject(h.ref) == null) {
+                log.debug("Could not resolve {0}, dropping {1} events", h.ref.getValue(), h.events.size());
+            } else {
+                result.addAll(h.events);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Retrieves a batch of the waiting configurations and applies them to the model.
+     */
+    private void reload() {
+        List<ManagedObjectReference> refs = new ArrayList<ManagedObjectReference>(Math.min(batchSize, reloads.size()));
+        Iterator<ManagedObjectReference> it = reloads.values().iterator();
+        while (it.hasNext() && refs.size() < batchSize) {
+            refs.add(it.next());
+            it.remove();
+        }
+        ViSessionPool sessions = viDatacenter.getSessionPool();
+        ViConnection session;
+        try {
+            session = sessions.checkout();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            for (ObjectContent content : retrieveIndividually(session, refs, viDatacenter.getConfigPropertySpecs())) {
+                viDatacenter.getInventoryBuilder().refresh(content.getObj(), Helper.asMap(content.getPropSet()));
+            }
+        } finally {
+            sessions.checkin(session);
+        }
+    }
+
+    /**
+     * Retrieves objects and adds them to the model.
+     *
+     * @param refs the objects.
+     *
+     * @return the parents of the objects that are not yet in the model.
+     */
+    private List<ManagedObjectReference> retrieve(List<ManagedObjectReference> refs) {
+        ViSessionPool sessions = viDatacenter.getSessionPool();
+        ViConnection session;
+        try {
+            session = sessions.checkout();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        }
+        try {
+            return retrieve(session, refs);
+        } finally {
+            sessions.checkin(session);
+        }
+    }
+
+    private List<ManagedObjectReference> retrieve(ViConnection session, List<ManagedObjectReference> refs) {
+        List<ManagedObjectReference> parents = new ArrayList<ManagedObjectReference>();
+        for (ObjectContent content : retrieveIndividually(session, refs, viDatacenter.getInventoryPropertySpecs())) {
+            Map<String, Object> properties = Helper.asMap(content.getPropSet());
+            if (viDatacenter.getInventoryBuilder().add(content.getObj(), properties) != null) {
+                resolvedCount++;
+                log.debug("Added {0} to the model", content.getObj().getValue());
+            }
+            ManagedObjectReference parent = (ManagedObjectReference) properties.get("resourcePool");
+            if (parent == null) {
+                parent = (ManagedObjectReference) properties.get("parent");
+            }
+            if (parent != null && viDatacenter.getInventoryBuilder().isUnknown(parent)) {
+                parents.add(parent);
+            }
+        }
+        return parents;
+    }
+
+    /**
+     * Retrieves properties of objects, falling back to one object at a time if the batch fails.
+     *
+     * @param session       the session to use.
+     * @param refs          the objects.
+     * @param propertySpecs the properties to retrieve.
+     *
+     * @return the properties of the objects that could be retrieved.
+     */
+    private List<ObjectContent> retrieveIndividually(ViConnection session, List<ManagedObjectReference> refs,
+                                                     PropertySpec[] propertySpecs) {
+        List<ObjectContent> contents;
+        try {
+            contents = retrieveProperties(session, refs, propertySpecs);
+        } catch (RuntimeFaultFaultMsg e) {
+            if (refs.size() == 1) {
+                // most likely the object has been destroyed in the meantime
+                log.debug("Could not retrieve {0}: {1}", refs.get(0).getValue(), e.getMessage());
+                return Collections.emptyList();
+            }
+            // one bad object fails the whole batch, so retrieve them individually
+            contents = new ArrayList<ObjectContent>();
+            for (ManagedObjectReference ref : refs) {
+                try {
+                    contents.addAll(retrieveProperties(session, Collections.singletonList(ref), propertySpecs));
+                } catch (RuntimeFaultFaultMsg e1) {
+                    log.debug("Could not retrieve {0}: {1}", ref.getValue(), e1.getMessage());
+                } catch (InvalidPropertyFaultMsg e1) {
+                    log.warn(e1, "Could not retrieve {0}", ref.getValue());
+                }
+            }
+        } catch (InvalidPropertyFaultMsg e) {
+            log.warn(e, "Could not retrieve {0} objects", refs.size());
+            return Collections.emptyList();
+        }
+        return contents;
+    }
+
+    private List<ObjectContent> retrieveProperties(ViConnection session, List<ManagedObjectReference> refs,
+                                                   PropertySpec[] propertySpecs)
+            throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
+        ObjectSpec[] objectSpecs = new ObjectSpec[refs.size()];
+        for (int i = 0; i < objectSpecs.length; i++) {
+            objectSpecs[i] = Helper.newObjectSpec(refs.get(i), false);
+        }
+        return session.getProxy().retrieveProperties(session.getServiceContent().getPropertyCollector(),
+                Collections.singletonList(Helper.newPropertyFilterSpec(propertySpecs, objectSpecs)));
+    }
+
+    private static final class Held {
+        private final ManagedObjectReference ref;
+        private final List<Event> events = new ArrayList<Event>();
+
+        private Held(ManagedObjectReference ref) {
+            this.ref = ref;
+        }
+    }
+}
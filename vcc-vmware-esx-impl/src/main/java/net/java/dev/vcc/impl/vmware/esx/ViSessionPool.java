@@ -0,0 +1,207 @@
+package net.java.dev.vcc.impl.vmware.esx;
+
+import net.java.dev.vcc.api.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A pool of sessions for interactive calls, such as power operations and on demand property retrieval, kept apart
+ * from the datacenter's own session. The datacenter's session carries the long polls of the event and update
+ * collectors, so a slow poll cannot hold up a command. Sessions are cloned from the datacenter's session when first
+ * needed, up to the size of the pool.
+ * <p/>
+ * A caller checks a session out, makes its calls and checks the session back in:
+ * <pre>
+ * ViConnection session = pool.checkout();
+ * try {
+ *     ...
+ * } finally {
+ *     pool.checkin(session);
+ * }
+ * </pre>
+ * If the pool has no sessions of its own, because its size is zero or the server would not clone a session, callers
+ * are given the datacenter's session.
+ */
+final class ViSessionPool {
+
+    /**
+     * The default number of sessions in the pool.
+     */
+    static final int DEFAULT_SIZE = 1;
+
+    private final ViConnection primary;
+
+    private final Log log;
+
+    private final Lock lock = new ReentrantLock();
+
+    private final Condition sessionReturned = lock.newCondition();
+
+    /**
+     * The sessions that are not checked out, most recently returned first.
+     */
+    private final LinkedList<ViConnection> idle = new LinkedList<ViConnection>();
+
+    /**
+     * Every session the pool has opened.
+     */
+    private final List<ViConnection> sessions = new ArrayList<ViConnection>();
+
+    /**
+     * The number of sessions the pool may open. Reduced if the server will not clone a session.
+     */
+    private int size;
+
+    /**
+     * The number of sessions being opened.
+     */
+    private int opening = 0;
+
+    private boolean closed = false;
+
+    ViSessionPool(ViConnection primary, Log log, int size) {
+        this.primary = primary;
+        this.log = log;
+        this.size = Math.max(0, size);
+    }
+
+    /**
+     * Checks out a session, waiting for one to be checked in if they are all in use.
+     *
+     * @return the session.
+     *
+     * @throws InterruptedException if the calling thread was interrupted while waiting.
+     */
+    ViConnection checkout() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                if (closed || size == 0) {
+                    return primary;
+                }
+                if (!idle.isEmpty()) {
+                    return idle.removeFirst();
+                }
+                if (sessions.size() + opening < size) {
+                    opening++;
+                    break;
+                }
+                sessionReturned.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+        ViConnection session = null;
+        try {
+            session = primary.cloneSession();
+            log.debug("Opened command session {0} in {1}ms", session.getSession().getKey(),
+                    session.getConnectTime());
+        } catch (Exception e) {
+            log.warn(e, "Could not open another session, using {0} command sessions", sessions.size());
+        }
+        lock.lock();
+        try {
+            opening--;
+            if (session == null) {
+                size = sessions.size();
+                sessionReturned.signalAll();
+                return idle.isEmpty() ? primary : idle.removeFirst();
+            }
+            sessions.add(session);
+            return session;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks a session back in.
+     *
+     * @param session the session returned by {@link #checkout()}.
+     */
+    void checkin(ViConnection session) {
+        if (session == primary) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (!closed) {
+                idle.addFirst(session);
+                sessionReturned.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        logout(session);
+    }
+
+    /**
+     * Keeps the idle sessions alive. Each is checked out while it is used, so that no command is given it meanwhile.
+     */
+    void keepAlive() {
+        List<ViConnection> toKeep;
+        lock.lock();
+        try {
+            toKeep = new ArrayList<ViConnection>(idle);
+            idle.clear();
+        } finally {
+            lock.unlock();
+        }
+        for (ViConnection session : toKeep) {
+            try {
+                session.keepAlive();
+            } catch (Exception e) {
+                log.debug("Could not keep command session alive: {0}", e.getMessage());
+            }
+            checkin(session);
+        }
+    }
+
+    /**
+     * Gets the number of sessions the pool has opened.
+     *
+     * @return the number of sessions the pool has opened.
+     */
+    int getSessionCount() {
+        lock.lock();
+        try {
+            return sessions.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends the idle sessions. Sessions that are checked out are ended when they are checked in, and callers are given
+     * the datacenter's session from now on.
+     */
+    void close() {
+        List<ViConnection> toLogout;
+        lock.lock();
+        try {
+            closed = true;
+            toLogout = new ArrayList<ViConnection>(idle);
+            idle.clear();
+            sessionReturned.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (ViConnection session : toLogout) {
+            logout(session);
+        }
+    }
+
+    private void logout(ViConnection session) {
+        try {
+            session.logout();
+        } catch (Exception e) {
+            log.debug("Could not end command session: {0}", e.getMessage());
+        }
+    }
+}
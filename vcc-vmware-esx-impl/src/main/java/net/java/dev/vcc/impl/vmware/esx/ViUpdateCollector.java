@@ -0,0 +1,336 @@
+package net.java.dev.vcc.impl.vmware.esx;
+
+import com.vmware.vim25.InvalidCollectorVersionFaultMsg;
+import com.vmware.vim25.InvalidPropertyFaultMsg;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyChangeOp;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+import com.vmware.vim25.UpdateSet;
+import net.java.dev.vcc.api.Log;
+import net.java.dev.vcc.api.LogFactory;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Waits on the session's property collector for changes to the objects covered by its property filters and hands
+ * each change to the {@link ViUpdateReceiver} that registered the filter. A session has only one property collector,
+ * so every filter of the session shares this collector. While there are no filters the collector does not call the
+ * server at all.
+ * <p/>
+ * Filters end with the session that created them. When the session has been opened again the collector creates its
+ * filters again and starts over from the initial update set, which the receivers treat as modifications of the
+ * objects they already know about. Callers keep using the filter they were given by {@link #addFilter}.
+ */
+final class ViUpdateCollector implements Runnable {
+
+    private final ViDatacenter viDatacenter;
+
+    private final Log log;
+
+    /**
+     * The filters, keyed by the filter that was given to the caller.
+     */
+    private final ConcurrentMap<String, Filter> filters = new ConcurrentHashMap<String, Filter>();
+
+    /**
+     * The filters, keyed by the filter on the server.
+     */
+    private final ConcurrentMap<String, Filter> receivers = new ConcurrentHashMap<String, Filter>();
+
+    private final Lock lock = new ReentrantLock();
+
+    private final Condition filtersChanged = lock.newCondition();
+
+    private boolean closed = false;
+
+    private String version = "";
+
+    ViUpdateCollector(ViDatacenter viDatacenter, LogFactory logFactory) {
+        this.viDatacenter = viDatacenter;
+        this.log = logFactory.getLog(getClass());
+    }
+
+    /**
+     * Creates a property filter and starts delivering its updates.
+     *
+     * @param spec     the specification of the filter.
+     * @param receiver the receiver of the filter's updates.
+     *
+     * @return the filter.
+     *
+     * @throws RuntimeFaultFaultMsg     if the filter could not be created.
+     * @throws InvalidPropertyFaultMsg  if the specification is not valid.
+     */
+    ManagedObjectReference addFilter(PropertyFilterSpec spec, ViUpdateReceiver receiver)
+            throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
+        // hold the lock so that the filter is registered before the collector can see its first update
+        lock.lock();
+        try {
+            ViConnection connection = viDatacenter.getConnection();
+            ManagedObjectReference filter = connection.getProxy().createFilter(
+                    connection.getServiceContent().getPropertyCollector(), spec, false);
+            Filter registration = new Filter(spec, receiver, filter, connection.getGeneration());
+            filters.put(filter.getValue(), registration);
+            receivers.put(filter.getValue(), registration);
+            filtersChanged.signalAll();
+            return filter;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Destroys a property filter.
+     *
+     * @param filter the filter.
+     */
+    void removeFilter(ManagedObjectReference filter) {
+        Filter registration;
+        lock.lock();
+        try {
+            registration = filters.remove(filter.getValue());
+            if (registration == null) {
+                return;
+            }
+            receivers.remove(registration.current.getValue());
+        } finally {
+            lock.unlock();
+        }
+        if (registration.generation != viDatacenter.getConnection().getGeneration()) {
+            // the filter ended with the session
+            return;
+        }
+        try {
+            viDatacenter.getConnection().getProxy().destroyPropertyFilter(registration.current);
+        } catch (RuntimeFaultFaultMsg e) {
+            log.warn(e, "Could not destroy property filter {0}", filter.getValue());
+        } catch (RuntimeException e) {
+            if (!viDatacenter.isClosing()) {
+                log.warn(e, "Could not destroy property filter {0}", filter.getValue());
+            }
+        }
+    }
+
+    /**
+     * Gets the number of property filters.
+     *
+     * @return the number of property filters.
+     */
+    int getFilterCount() {
+        return filters.size();
+    }
+
+    /**
+     * Stops collecting, releasing the collector if it is waiting for a filter or for updates. Must be called before
+     * the session is ended, as the server can only cancel the wait of a session that is still open.
+     */
+    void close() {
+        boolean waiting;
+        lock.lock();
+        try {
+            closed = true;
+            waiting = !filters.isEmpty();
+            filtersChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        ViConnection connection = viDatacenter.getConnection();
+        if (!waiting || connection == null) {
+            return;
+        }
+        try {
+            // the session waits for updates without a read timeout, so only the server can release the collector
+            connection.getProxy().cancelWaitForUpdates(connection.getServiceContent().getPropertyCollector());
+        } catch (RuntimeFaultFaultMsg e) {
+            log.debug("Could not cancel waiting for updates: {0}", e.getMessage());
+        } catch (RuntimeException e) {
+            log.debug("Could not cancel waiting for updates: {0}", e.getMessage());
+        }
+    }
+
+    public void run() {
+        log.debug("Starting collecting updates");
+        try {
+            while (!viDatacenter.isClosing()) {
+                if (!awaitFilters()) {
+                    break;
+                }
+                int generation = viDatacenter.getConnection().getGeneration();
+                try {
+                    collect();
+                } catch (InvalidCollectorVersionFaultMsg e) {
+                    log.warn("Property collector version {0} rejected, requesting all properties again", version);
+                    version = "";
+                } catch (RuntimeFaultFaultMsg e) {
+                    if (!ViConnection.isNotAuthenticated(e) || !viDatacenter.getConnection().renew(generation)) {
+                        throw e;
+                    }
+                    log.info("Session ended, creating {0} property filters again", filters.size());
+                } catch (RuntimeException e) {
+                    if (!ViConnection.isNotAuthenticated(e) || !viDatacenter.getConnection().renew(generation)) {
+                        throw e;
+                    }
+                    log.info("Session ended, creating {0} property filters again", filters.size());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeFaultFaultMsg e) {
+            if (!viDatacenter.isClosing()) {
+                log.error(e, e.getMessage());
+            }
+        } catch (RuntimeException e) {
+            if (!viDatacenter.isClosing()) {
+                log.error(e, e.getMessage());
+            }
+        } finally {
+            log.debug("Finished collecting updates at version {0}", version);
+        }
+    }
+
+    /**
+     * Waits until there is at least one filter.
+     *
+     * @return {@code true} if there is a filter, {@code false} if the collector has been closed.
+     *
+     * @throws InterruptedException if the calling thread was interrupted while waiting.
+     */
+    private boolean awaitFilters() throws InterruptedException {
+        lock.lock();
+        try {
+            while (filters.isEmpty() && !closed) {
+                filtersChanged.await();
+            }
+            return !closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for the next set of changes and hands them to their receivers.
+     *
+     * @return the number of objects that were updated.
+     *
+     * @throws InvalidCollectorVersionFaultMsg if the server no longer recognises the current version.
+     * @throws RuntimeFaultFaultMsg            if the server could not provide the changes.
+     */
+    int collect() throws InvalidCollectorVersionFaultMsg, RuntimeFaultFaultMsg {
+        ViConnection connection = viDatacenter.getConnection();
+        renewFilters(connection);
+        UpdateSet updateSet = connection.getProxy().waitForUpdates(
+                connection.getServiceContent().getPropertyCollector(), version);
+        if (updateSet == null) {
+            return 0;
+        }
+        int count = 0;
+        for (PropertyFilterUpdate filterUpdate : updateSet.getFilterSet()) {
+            Filter filter;
+            lock.lock();
+            try {
+                filter = receivers.get(filterUpdate.getFilter().getValue());
+            } finally {
+                lock.unlock();
+            }
+            if (filter == null) {
+                continue;
+            }
+            for (ObjectUpdate objectUpdate : filterUpdate.getObjectSet()) {
+                try {
+                    filter.receiver.receiveUpdate(objectUpdate);
+                } catch (RuntimeException e) {
+                    log.error(e, "Could not apply update to {0}", objectUpdate.getObj().getValue());
+                }
+                count++;
+            }
+        }
+        version = updateSet.getVersion();
+        log.debug("Applied {0} object updates, now at version {1}", count, version);
+        return count;
+    }
+
+    /**
+     * Creates the filters that ended with the session again, if the session has been opened again since they were
+     * created.
+     *
+     * @param connection the connection.
+     *
+     * @throws RuntimeFaultFaultMsg if a filter could not be created.
+     */
+    private void renewFilters(ViConnection connection) throws RuntimeFaultFaultMsg {
+        int generation = connection.getGeneration();
+        lock.lock();
+        try {
+            for (Iterator<Filter> i = filters.values().iterator(); i.hasNext();) {
+                Filter filter = i.next();
+                if (filter.generation == generation) {
+                    continue;
+                }
+                receivers.remove(filter.current.getValue());
+                try {
+                    ManagedObjectReference current = connection.getProxy().createFilter(
+                            connection.getServiceContent().getPropertyCollector(), filter.spec, false);
+                    filter.current = current;
+                    filter.generation = generation;
+                    receivers.put(current.getValue(), filter);
+                } catch (InvalidPropertyFaultMsg e) {
+                    log.warn(e, "Could not create property filter {0} again, dropping it", filter.current.getValue());
+                    i.remove();
+                }
+                // the new filters know nothing of the old version
+                version = "";
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the new value of a changed property.
+     *
+     * @param change the change.
+     *
+     * @return the new value of the property, or {@code null} if it has been removed.
+     */
+    static Object valueOf(PropertyChange change) {
+        return change.getOp() == PropertyChangeOp.REMOVE || change.getOp() == PropertyChangeOp.INDIRECT_REMOVE
+                ? null
+                : change.getVal();
+    }
+
+    /**
+     * A property filter and where its updates go.
+     */
+    private static final class Filter {
+        private final PropertyFilterSpec spec;
+
+        private final ViUpdateReceiver receiver;
+
+        /**
+         * The filter on the server.
+         */
+        private volatile ManagedObjectReference current;
+
+        /**
+         * The generation of the session that created the filter on the server.
+         */
+        private volatile int generation;
+
+        private Filter(PropertyFilterSpec spec, ViUpdateReceiver receiver, ManagedObjectReference current,
+                       int generation) {
+            this.spec = spec;
+            this.receiver = receiver;
+            this.current = current;
+            this.generation = generation;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package net.java.dev.vcc.impl.vmware.esx;
+
+import com.vmware.vim25.ObjectUpdate;
+
+/**
+ * A receiver of property collector updates.
+ */
+interface ViUpdateReceiver {
+    /**
+     * Called when an object covered by this receiver's property filter has changed.
+     *
+     * @param update the update.
+     */
+    void receiveUpdate(ObjectUpdate update);
+}
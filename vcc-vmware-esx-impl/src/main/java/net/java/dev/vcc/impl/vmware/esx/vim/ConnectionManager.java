@@ -20,10 +20,19 @@ public class ConnectionManager {
 
     private static final Logger LOGGER = Logger.getLogger(ConnectionManager.class.getName());
 
+    /**
+     * The service, shared by every connection. Creating it parses the WSDL and builds the JAXB context for the whole
+     * API, which takes seconds, whereas the ports it creates are cheap and each has its own request context.
+     */
+    private static VimService service;
+
+    private static SSLSocketFactory sslSocketFactory;
+
+    private static HostnameVerifier hostnameVerifier;
+
     public static VimPortType getConnection(String url) throws MalformedURLException {
-        final VimPortType proxy = new VimService(VimService.class.getResource("vimService.wsdl"),
-                new QName("urn:vim2Service", "VimService")
-        ).getVimPort();
+        long start = System.nanoTime();
+        final VimPortType proxy = getService().getVimPort();
         final BindingProvider bindingProvider = (BindingProvider) proxy;
         if (url.endsWith("/")) {
             url = url.substring(0, url.length() - 1);
@@ -33,50 +42,74 @@ public class ConnectionManager {
 
         // Install the all-trusting trust manager
         // VMware ESX servers typically have a self-signed cert with the correct hostname
-        try {
-            SSLContext sc = SSLContext.getInstance("SSL");
-            sc.init(null, new TrustManager[]{
-                    new X509TrustManager() {
-                        public java.security.cert.X509Certificate[] getAcceptedIssuers() {
-                            return null;
-                        }
-
-                        public void checkClientTrusted(
-                                java.security.cert.X509Certificate[] certs, String authType) {
-                        }
-
-                        public void checkServerTrusted(
-                                java.security.cert.X509Certificate[] certs, String authType) {
-                        }
-                    }
-            }, new java.security.SecureRandom());
-            SSLSocketFactory sslSocketFactory = sc.getSocketFactory();
+        SSLSocketFactory sslSocketFactory = getSSLSocketFactory();
+        if (sslSocketFactory != null) {
             bindingProvider.getRequestContext()
                     .put("com.sun.xml.internal.ws.transport.https.client.SSLSocketFactory", sslSocketFactory);
             bindingProvider.getRequestContext()
                     .put("com.sun.xml.ws.transport.https.client.SSLSocketFactory", sslSocketFactory);
-//            bindingProvider.getRequestContext().put(com.sun.xml.internal.ws.developer.JAXWSProperties.SSL_SOCKET_FACTORY, sslSocketFactory);
-//            bindingProvider.getRequestContext().put(com.sun.xml.ws.developer.JAXWSProperties.SSL_SOCKET_FACTORY, sslSocketFactory);
-        } catch (Exception e) {
-            LOGGER.log(Level.INFO, "Could not install the all-trusting socket factory", e);
         }
 
         // Install the all-trusting hostname verifier
         // VMware ESX servers typically do not have a cert with the correct hostname
-        final HostnameVerifier verifier = new HostnameVerifier() {
-            public boolean verify(String s, SSLSession sslSession) {
-                System.out.println("verifying " + s);
-                return true;
-            }
-        };
+        final HostnameVerifier verifier = getHostnameVerifier();
         bindingProvider.getRequestContext()
                 .put("com.sun.xml.internal.ws.transport.https.client.hostname.verifier", verifier);
         bindingProvider.getRequestContext().put("com.sun.xml.ws.transport.https.client.hostname.verifier", verifier);
-//        bindingProvider.getRequestContext().put(com.sun.xml.internal.ws.developer.JAXWSProperties.HOSTNAME_VERIFIER, verifier);
-//        bindingProvider.getRequestContext().put(com.sun.xml.ws.developer.JAXWSProperties.HOSTNAME_VERIFIER, verifier);
+        LOGGER.log(Level.FINE, "Created port for {0} in {1}ms",
+                new Object[]{url, (System.nanoTime() - start) / 1000000});
         return proxy;
     }
 
+    private static synchronized VimService getService() {
+        if (service == null) {
+            long start = System.nanoTime();
+            service = new VimService(VimService.class.getResource("vimService.wsdl"),
+                    new QName("urn:vim2Service", "VimService"));
+            LOGGER.log(Level.FINE, "Created service in {0}ms", (System.nanoTime() - start) / 1000000);
+        }
+        return service;
+    }
+
+    private static synchronized SSLSocketFactory getSSLSocketFactory() {
+        if (sslSocketFactory == null) {
+            try {
+                SSLContext sc = SSLContext.getInstance("SSL");
+                sc.init(null, new TrustManager[]{
+                        new X509TrustManager() {
+                            public java.security.cert.X509Certificate[] getAcceptedIssuers() {
+                                return null;
+                            }
+
+                            public void checkClientTrusted(
+                                    java.security.cert.X509Certificate[] certs, String authType) {
+                            }
+
+                            public void checkServerTrusted(
+                                    java.security.cert.X509Certificate[] certs, String authType) {
+                            }
+                        }
+                }, new java.security.SecureRandom());
+                sslSocketFactory = sc.getSocketFactory();
+            } catch (Exception e) {
+                LOGGER.log(Level.INFO, "Could not install the all-trusting socket factory", e);
+            }
+        }
+        return sslSocketFactory;
+    }
+
+    private static synchronized HostnameVerifier getHostnameVerifier() {
+        if (hostnameVerifier == null) {
+            hostnameVerifier = new HostnameVerifier() {
+                public boolean verify(String s, SSLSession sslSession) {
+                    LOGGER.log(Level.FINE, "Verifying hostname: {0}", s);
+                    return true;
+                }
+            };
+        }
+        return hostnameVerifier;
+    }
+
     public static final ManagedObjectReference getServiceInstance() {
         ManagedObjectReference serviceInstance = new ManagedObjectReference();
         serviceInstance.setType("ServiceInstance");
@@ -14,19 +14,61 @@ import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 import javax.xml.namespace.QName;
 import javax.xml.ws.BindingProvider;
+import javax.xml.ws.handler.MessageContext;
 import java.net.MalformedURLException;
-import java.util.concurrent.Executor;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class ConnectionManager {
 
+    /**
+     * The service, shared by every connection. Creating it parses the WSDL and builds the JAXB context for the whole
+     * API, which takes seconds, whereas the ports it creates are cheap and each has its own request context.
+     */
+    private static VimService service;
 
-    public static VimPortType getConnection(String url, Executor executor) throws MalformedURLException {
+    private static SSLSocketFactory sslSocketFactory;
+
+    private static HostnameVerifier hostnameVerifier;
+
+    /**
+     * Creates a port for a new connection to a server, with uncompressed messages and no timeouts.
+     *
+     * @param url the URL of the server's SDK.
+     *
+     * @return the port, not shared with any other connection.
+     *
+     * @throws MalformedURLException if the URL is not valid.
+     */
+    public static VimPortType getConnection(String url) throws MalformedURLException {
+        return getConnection(url, false, false, 0, 0);
+    }
+
+    /**
+     * Creates a port for a new connection to a server.
+     * <p/>
+     * The port uses the HTTP client of the JAX-WS runtime, which keeps connections alive between calls and pools idle
+     * connections by server. The pool keeps up to {@code http.maxConnections} idle connections to each server; because
+     * every port shares the same socket factory, the ports of one server share their connections.
+     *
+     * @param url              the URL of the server's SDK.
+     * @param compress         {@code true} to ask the server to compress its responses.
+     * @param compressRequests {@code true} to compress requests, which not every server accepts.
+     * @param connectTimeout   how long to wait for a connection, in milliseconds, or {@code 0} to wait forever.
+     * @param readTimeout      how long to wait for a response, in milliseconds, or {@code 0} to wait forever. Ports
+     *                         that wait for updates must wait forever.
+     *
+     * @return the port, not shared with any other connection.
+     *
+     * @throws MalformedURLException if the URL is not valid.
+     */
+    public static VimPortType getConnection(String url, boolean compress, boolean compressRequests, int connectTimeout,
+                                            int readTimeout) throws MalformedURLException {
         final Log LOGGER = LogFactoryManager.getLogFactory().getLog(ConnectionManager.class);
-        VimService vimService = new VimService(VimService.class.getResource("vimService.wsdl"),
-                new QName("urn:vim25Service", "VimService")
-        );
-        vimService.setExecutor(executor);
-        final VimPortType proxy = vimService.getVimPort();
+        long start = System.nanoTime();
+        final VimPortType proxy = getService(LOGGER).getVimPort();
         final BindingProvider bindingProvider = (BindingProvider) proxy;
         if (url.endsWith("/")) {
             url = url.substring(0, url.length() - 1);
@@ -34,50 +76,96 @@ public class ConnectionManager {
         bindingProvider.getRequestContext().put(BindingProvider.ENDPOINT_ADDRESS_PROPERTY, url);
         bindingProvider.getRequestContext().put(BindingProvider.SESSION_MAINTAIN_PROPERTY, true);
 
+        Map<String, List<String>> headers = new HashMap<String, List<String>>();
+        if (compress) {
+            headers.put("Accept-Encoding", Collections.singletonList("gzip"));
+        }
+        if (compressRequests) {
+            headers.put("Content-Encoding", Collections.singletonList("gzip"));
+        }
+        if (!headers.isEmpty()) {
+            bindingProvider.getRequestContext().put(MessageContext.HTTP_REQUEST_HEADERS, headers);
+        }
+        if (connectTimeout > 0) {
+            bindingProvider.getRequestContext().put("com.sun.xml.internal.ws.connect.timeout", connectTimeout);
+            bindingProvider.getRequestContext().put("com.sun.xml.ws.connect.timeout", connectTimeout);
+        }
+        if (readTimeout > 0) {
+            bindingProvider.getRequestContext().put("com.sun.xml.internal.ws.request.timeout", readTimeout);
+            bindingProvider.getRequestContext().put("com.sun.xml.ws.request.timeout", readTimeout);
+        }
+
         // Install the all-trusting trust manager
         // VMware ESX servers typically have a self-signed cert with the correct hostname
-        try {
-            SSLContext sc = SSLContext.getInstance("SSL");
-            sc.init(null, new TrustManager[]{
-                    new X509TrustManager() {
-                        public java.security.cert.X509Certificate[] getAcceptedIssuers() {
-                            return null;
-                        }
-
-                        public void checkClientTrusted(
-                                java.security.cert.X509Certificate[] certs, String authType) {
-                        }
-
-                        public void checkServerTrusted(
-                                java.security.cert.X509Certificate[] certs, String authType) {
-                        }
-                    }
-            }, new java.security.SecureRandom());
-            SSLSocketFactory sslSocketFactory = sc.getSocketFactory();
+        SSLSocketFactory sslSocketFactory = getSSLSocketFactory(LOGGER);
+        if (sslSocketFactory != null) {
             bindingProvider.getRequestContext()
                     .put("com.sun.xml.internal.ws.transport.https.client.SSLSocketFactory", sslSocketFactory);
             bindingProvider.getRequestContext()
                     .put("com.sun.xml.ws.transport.https.client.SSLSocketFactory", sslSocketFactory);
-        } catch (Exception e) {
-            LOGGER.info(e, "Could not install the all-trusting socket factory");
         }
 
         // Install the all-trusting hostname verifier
         // VMware ESX servers typically do not have a cert with the correct hostname
-        final HostnameVerifier verifier = new HostnameVerifier() {
-            public boolean verify(String s, SSLSession sslSession) {
-                LOGGER.debug("Verifying hostname: {0}", s);
-                return true;
-            }
-        };
+        final HostnameVerifier verifier = getHostnameVerifier(LOGGER);
 
         bindingProvider.getRequestContext()
                 .put("com.sun.xml.internal.ws.transport.https.client.hostname.verifier", verifier);
         bindingProvider.getRequestContext().put("com.sun.xml.ws.transport.https.client.hostname.verifier", verifier);
 
+        LOGGER.debug("Created port for {0} in {1}ms", url, (System.nanoTime() - start) / 1000000);
         return proxy;
     }
 
+    private static synchronized VimService getService(Log log) {
+        if (service == null) {
+            long start = System.nanoTime();
+            service = new VimService(VimService.class.getResource("vimService.wsdl"),
+                    new QName("urn:vim25Service", "VimService"));
+            log.debug("Created service in {0}ms", (System.nanoTime() - start) / 1000000);
+        }
+        return service;
+    }
+
+    private static synchronized SSLSocketFactory getSSLSocketFactory(Log log) {
+        if (sslSocketFactory == null) {
+            try {
+                SSLContext sc = SSLContext.getInstance("SSL");
+                sc.init(null, new TrustManager[]{
+                        new X509TrustManager() {
+                            public java.security.cert.X509Certificate[] getAcceptedIssuers() {
+                                return null;
+                            }
+
+                            public void checkClientTrusted(
+                                    java.security.cert.X509Certificate[] certs, String authType) {
+                            }
+
+                            public void checkServerTrusted(
+                                    java.security.cert.X509Certificate[] certs, String authType) {
+                            }
+                        }
+                }, new java.security.SecureRandom());
+                sslSocketFactory = sc.getSocketFactory();
+            } catch (Exception e) {
+                log.info(e, "Could not install the all-trusting socket factory");
+            }
+        }
+        return sslSocketFactory;
+    }
+
+    private static synchronized HostnameVerifier getHostnameVerifier(final Log log) {
+        if (hostnameVerifier == null) {
+            hostnameVerifier = new HostnameVerifier() {
+                public boolean verify(String s, SSLSession sslSession) {
+                    log.debug("Verifying hostname: {0}", s);
+                    return true;
+                }
+            };
+        }
+        return hostnameVerifier;
+    }
+
     public static final ManagedObjectReference getServiceInstance() {
         ManagedObjectReference serviceInstance = new ManagedObjectReference();
         serviceInstance.setType("ServiceInstance");
@@ -99,8 +99,15 @@ public final class Helper {
         return pSpec;
     }
 
+    /**
+     * Gets the values of properties by name, in a single pass over the properties.
+     *
+     * @param propSet the properties.
+     *
+     * @return the values of the properties, keyed by name.
+     */
     public static Map<String, Object> asMap(List<DynamicProperty> propSet) {
-        Map<String, Object> result = new HashMap<String, Object>();
+        Map<String, Object> result = new HashMap<String, Object>(Math.max(16, propSet.size() * 4 / 3 + 1));
         for (DynamicProperty prop : propSet) {
             result.put(prop.getName(), prop.getVal());
         }
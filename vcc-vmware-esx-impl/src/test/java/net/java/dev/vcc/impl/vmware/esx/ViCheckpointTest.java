@@ -0,0 +1,86 @@
+package net.java.dev.vcc.impl.vmware.esx;
+
+import net.java.dev.vcc.api.PowerState;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class ViCheckpointTest {
+
+    @Test
+    public void roundTrip() throws IOException {
+        File file = File.createTempFile("vcc", ".checkpoint");
+        try {
+            new ViCheckpoint("vcc+vi+https://host/sdk", 1000L, 42, 900L, Collections.singletonMap("group-v3", "dc"),
+                    Arrays.asList(
+                            new ViCheckpoint.Entity("Folder", "group-v3", "vm", null, false, null, null),
+                            new ViCheckpoint.Entity("VirtualMachine", "vm-1", "one", "group-v3", false, "notes",
+                                    PowerState.RUNNING))).write(file);
+            ViCheckpoint checkpoint = ViCheckpoint.read(file);
+            assertThat(checkpoint.getUrl(), is("vcc+vi+https://host/sdk"));
+            assertThat(checkpoint.getSavedAt(), is(1000L));
+            assertThat(checkpoint.getEventKey(), is(42));
+            assertThat(checkpoint.getEventTime(), is(900L));
+            assertThat(checkpoint.getEntityCount(), is(2));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void keepsLongAnnotations() throws IOException {
+        StringBuilder annotation = new StringBuilder();
+        while (annotation.length() < 70000) {
+            annotation.append("notes \u00e9\u4e2d ");
+        }
+        File file = File.createTempFile("vcc", ".checkpoint");
+        try {
+            new ViCheckpoint("vcc+vi+https://host/sdk", 1000L, 42, 900L, Collections.<String, String>emptyMap(),
+                    Collections.singletonList(new ViCheckpoint.Entity("VirtualMachine", "vm-1", "one", null, false,
+                            annotation.toString(), PowerState.STOPPED))).write(file);
+            assertThat(ViCheckpoint.read(file).getEntityCount(), is(1));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void advancesInPlace() throws IOException {
+        File file = File.createTempFile("vcc", ".checkpoint");
+        try {
+            new ViCheckpoint("vcc+vi+https://host/sdk", 1000L, 42, 900L, Collections.<String, String>emptyMap(),
+                    Collections.singletonList(new ViCheckpoint.Entity("Folder", "group-v3", "vm", null, false, null,
+                            null))).write(file);
+            ViCheckpoint.advance(file, 2000L, 50, 1900L);
+            ViCheckpoint checkpoint = ViCheckpoint.read(file);
+            assertThat(checkpoint.getSavedAt(), is(2000L));
+            assertThat(checkpoint.getEventKey(), is(50));
+            assertThat(checkpoint.getEventTime(), is(1900L));
+            assertThat(checkpoint.getEntityCount(), is(1));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        File file = File.createTempFile("vcc", ".checkpoint");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(new byte[]{0, 3, 'f', 'o', 'o'});
+            } finally {
+                out.close();
+            }
+            ViCheckpoint.read(file);
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package net.java.dev.vcc.impl.vmware.esx;
+
+import net.java.dev.vcc.spi.LogFactoryManager;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ViCommandQueueTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final ViCommandQueue instance =
+            new ViCommandQueue(executor, LogFactoryManager.getLogFactory().getLog(getClass()), 2);
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void submitsEveryCommandWithAtMostTheMaximumWorkers() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger highWater = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(20);
+        for (int i = 0; i < 20; i++) {
+            instance.submit(new ViCommandQueue.Submission() {
+                public void submit() {
+                    int count = running.incrementAndGet();
+                    while (highWater.get() < count && !highWater.compareAndSet(highWater.get(), count)) {
+                        // retry
+                    }
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+
+                public void abandon(Exception reason) {
+                    throw new AssertionError(reason);
+                }
+            });
+        }
+        assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+        assertThat(highWater.get() <= 2, is(true));
+    }
+
+    @Test
+    public void abandonsCommandsAfterClose() {
+        instance.close();
+        final AtomicInteger abandoned = new AtomicInteger();
+        instance.submit(new ViCommandQueue.Submission() {
+            public void submit() {
+                throw new AssertionError("submitted after close");
+            }
+
+            public void abandon(Exception reason) {
+                abandoned.incrementAndGet();
+            }
+        });
+        assertThat(abandoned.get(), is(1));
+    }
+}
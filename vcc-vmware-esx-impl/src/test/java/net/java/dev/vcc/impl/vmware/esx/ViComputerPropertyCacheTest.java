@@ -0,0 +1,108 @@
+package net.java.dev.vcc.impl.vmware.esx;
+
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.ObjectSpec;
+import com.vmware.vim25.VirtualMachineConfigInfo;
+import com.vmware.vim25.VirtualMachineSnapshotInfo;
+import net.java.dev.vcc.spi.LogFactoryManager;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class ViComputerPropertyCacheTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final CountDownLatch retrieving = new CountDownLatch(1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final ViComputerPropertyCache instance = new ViComputerPropertyCache(new ViComputerPropertyCache.Source() {
+        public List<ObjectContent> retrieve(ObjectSpec[] objectSpecs) throws InterruptedException {
+            retrieving.countDown();
+            release.await();
+            List<ObjectContent> contents = new ArrayList<ObjectContent>();
+            for (ObjectSpec spec : objectSpecs) {
+                ObjectContent content = new ObjectContent();
+                content.setObj(spec.getObj());
+                DynamicProperty config = new DynamicProperty();
+                config.setName("config");
+                config.setVal(new VirtualMachineConfigInfo());
+                content.getPropSet().add(config);
+                contents.add(content);
+            }
+            return contents;
+        }
+    }, LogFactoryManager.getLogFactory().getLog(getClass()), 10, 10);
+
+    @After
+    public void shutdown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void updatesTheModelWhileRetrieving() throws Exception {
+        final Holder one = new Holder("vm-1");
+        final Holder two = new Holder("vm-2");
+        final Holder three = new Holder("vm-3");
+        instance.register(one);
+        instance.register(two);
+        Future<?> load = executor.submit(new Runnable() {
+            public void run() {
+                instance.load(one);
+            }
+        });
+        assertThat(retrieving.await(10, TimeUnit.SECONDS), is(true));
+
+        // none of these may wait for the retrieval
+        executor.submit(new Runnable() {
+            public void run() {
+                instance.register(three);
+                instance.evict(two);
+                instance.forget("vm-3");
+            }
+        }).get(10, TimeUnit.SECONDS);
+
+        release.countDown();
+        load.get(10, TimeUnit.SECONDS);
+        assertThat(one.loaded, is(true));
+        // evicted while its properties were being retrieved, so they may be out of date
+        assertThat(two.loaded, is(false));
+        assertThat(instance.getSize(), is(1));
+    }
+
+    private static final class Holder implements ViComputerPropertyCache.Holder {
+        private final ManagedObjectReference moRef = new ManagedObjectReference();
+
+        private volatile boolean loaded = false;
+
+        private Holder(String value) {
+            moRef.setType("VirtualMachine");
+            moRef.setValue(value);
+        }
+
+        public ManagedObjectReference getMORef() {
+            return moRef;
+        }
+
+        public void setDetails(VirtualMachineConfigInfo config, VirtualMachineSnapshotInfo snapshot) {
+            loaded = true;
+        }
+
+        public void evictDetails() {
+            loaded = false;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package net.java.dev.vcc.impl.vmware.esx;
+
+import com.vmware.vim25.Description;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.OptionValue;
+import com.vmware.vim25.VirtualDisk;
+import com.vmware.vim25.VirtualHardware;
+import com.vmware.vim25.VirtualMachineConfigInfo;
+import com.vmware.vim25.VirtualMachineFileInfo;
+import com.vmware.vim25.VirtualMachinePowerState;
+import com.vmware.vim25.VirtualMachineRuntimeInfo;
+import com.vmware.vim25.VirtualMachineSnapshotInfo;
+import com.vmware.vim25.VirtualMachineSnapshotTree;
+import net.java.dev.vcc.api.ComputerSnapshot;
+import net.java.dev.vcc.api.PowerState;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class ViComputerStateTest {
+
+    @Test
+    public void projectsTheExposedProperties() {
+        VirtualMachineSnapshotTree child = snapshot("snapshot-2", "after");
+        child.setState(VirtualMachinePowerState.POWERED_ON);
+        VirtualMachineSnapshotTree root = snapshot("snapshot-1", "before");
+        root.getChildSnapshotList().add(child);
+        VirtualMachineSnapshotInfo snapshot = new VirtualMachineSnapshotInfo();
+        snapshot.getRootSnapshotList().add(root);
+        snapshot.setCurrentSnapshot(child.getSnapshot());
+
+        ViComputerState state = ViComputerState.valueOf(config(1), runtime(VirtualMachinePowerState.SUSPENDED),
+                snapshot);
+
+        assertThat(state.getDescription(), is("vm 1"));
+        assertThat(state.isTemplate(), is(false));
+        assertThat(state.getState(), is(PowerState.SUSPENDED));
+        assertThat(state.getCurrentSnapshot(), is("snapshot-2"));
+        assertThat(state.getSnapshots().size(), is(1));
+        assertThat(state.getSnapshots().get(0).getName(), is("before"));
+        assertThat(state.getSnapshots().get(0).getChildren().get(0).getKey(), is("snapshot-2"));
+
+        List<ComputerSnapshot> snapshots = new ArrayList<ComputerSnapshot>(ViComputerSnapshot.valueOf(
+                new ViDatacenterId("vcc+vi+https://localhost/sdk"), state.getSnapshots()));
+        assertThat(snapshots.size(), is(2));
+        assertThat(snapshots.get(1).getName(), is("after"));
+        assertThat(snapshots.get(1).getState(), is(PowerState.RUNNING));
+        assertThat(snapshots.get(1).getParent(), is(snapshots.get(0)));
+        assertThat(snapshots.get(0).getChildren(), is(Collections.singleton(snapshots.get(1))));
+    }
+
+    @Test
+    public void changesProduceNewStates() {
+        ViComputerState state = ViComputerState.valueOf(config(1), runtime(VirtualMachinePowerState.POWERED_OFF),
+                null);
+        ViComputerState on = state.withPowerState(VirtualMachinePowerState.POWERED_ON);
+
+        assertThat(state.getState(), is(PowerState.STOPPED));
+        assertThat(on.getState(), is(PowerState.RUNNING));
+        assertThat(on.getDescription(), is("vm 1"));
+        assertThat(on.withConfig(null).getDescription(), nullValue());
+        assertThat(ViComputerState.UNKNOWN.getState(), is(PowerState.STOPPED));
+    }
+
+    @Test
+    public void keepsNoneOfTheRawProperties() {
+        assertKeepsOnly(ViComputerState.class, "description", "template", "powerState", "currentSnapshot",
+                "snapshots");
+        assertKeepsOnly(ViComputerState.Snapshot.class, "key", "name", "description", "createTime",
+                "powerState", "children");
+    }
+
+    @Test
+    public void isAFractionOfTheSizeOfTheRawProperties() throws Exception {
+        VirtualMachineSnapshotTree root = snapshot("snapshot-1", "before");
+        root.getChildSnapshotList().add(snapshot("snapshot-2", "after"));
+        VirtualMachineSnapshotInfo snapshot = new VirtualMachineSnapshotInfo();
+        snapshot.getRootSnapshotList().add(root);
+        VirtualMachineConfigInfo config = config(1);
+        VirtualMachineRuntimeInfo runtime = runtime(VirtualMachinePowerState.POWERED_ON);
+
+        int raw = countReachable(config, runtime, snapshot);
+        int compact = countReachable(ViComputerState.valueOf(config, runtime, snapshot));
+
+        assertTrue(compact + " objects against " + raw + " raw", compact * 4 < raw);
+    }
+
+    /**
+     * Counts the objects reachable from some roots, which is what a virtual machine costs the heap in proportion to.
+     * Only the server's bindings and our own classes are looked into; the objects they hold of any other class, such
+     * as strings and calendars, count as one each.
+     */
+    private static int countReachable(Object... roots) throws IllegalAccessException {
+        Map<Object, Object> seen = new IdentityHashMap<Object, Object>();
+        List<Object> pending = new ArrayList<Object>(Arrays.asList(roots));
+        while (!pending.isEmpty()) {
+            Object o = pending.remove(pending.size() - 1);
+            if (o == null || seen.put(o, o) != null) {
+                continue;
+            }
+            if (o instanceof Object[]) {
+                pending.addAll(Arrays.asList((Object[]) o));
+            } else if (o instanceof Collection) {
+                pending.addAll((Collection<?>) o);
+            } else if (!(o instanceof Enum)) {
+                for (Class<?> c = o.getClass(); isLookedInto(c); c = c.getSuperclass()) {
+                    for (Field field : c.getDeclaredFields()) {
+                        if (!Modifier.isStatic(field.getModifiers()) && !field.getType().isPrimitive()) {
+                            field.setAccessible(true);
+                            pending.add(field.get(o));
+                        }
+                    }
+                }
+            }
+        }
+        return seen.size();
+    }
+
+    private static boolean isLookedInto(Class<?> c) {
+        return c.getName().startsWith("com.vmware.") || c.getName().startsWith("net.java.dev.vcc.");
+    }
+
+    /**
+     * Checks that a class keeps only the named fields, and none of them holds a binding of the server's types, which
+     * would keep the whole of a virtual machine's raw properties reachable.
+     */
+    private static void assertKeepsOnly(Class<?> type, String... names) {
+        Set<String> fields = new TreeSet<String>();
+        for (Field field : type.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) {
+                continue;
+            }
+            fields.add(field.getName());
+            Class<?> fieldType = field.getType();
+            assertTrue(field.getName() + " is a " + fieldType.getName(),
+                    fieldType.isEnum() || !fieldType.getName().startsWith("com.vmware."));
+        }
+        assertThat(fields, is((Set<String>) new TreeSet<String>(Arrays.asList(names))));
+    }
+
+    private static VirtualMachineConfigInfo config(int i) {
+        VirtualMachineConfigInfo config = new VirtualMachineConfigInfo();
+        config.setName("vm-" + i);
+        config.setAnnotation("vm " + i);
+        config.setGuestFullName("Some Linux (64-bit)");
+        config.setUuid("4210a8a2-5c1b-11de-8a39-0800200c9a66-" + i);
+        VirtualMachineFileInfo files = new VirtualMachineFileInfo();
+        files.setVmPathName("[datastore1] vm-" + i + "/vm-" + i + ".vmx");
+        files.setLogDirectory("[datastore1] vm-" + i + "/");
+        config.setFiles(files);
+        VirtualHardware hardware = new VirtualHardware();
+        for (int d = 0; d < 12; d++) {
+            VirtualDisk disk = new VirtualDisk();
+            disk.setKey(2000 + d);
+            Description description = new Description();
+            description.setLabel("Hard disk " + d);
+            description.setSummary((d + 1) * 1048576 + " KB");
+            disk.setDeviceInfo(description);
+            disk.setCapacityInKB((d + 1) * 1048576L);
+            hardware.getDevice().add(disk);
+        }
+        config.setHardware(hardware);
+        for (int o = 0; o < 20; o++) {
+            OptionValue option = new OptionValue();
+            option.setKey("option." + o);
+            option.setValue("value " + i + "." + o);
+            config.getExtraConfig().add(option);
+        }
+        return config;
+    }
+
+    private static VirtualMachineRuntimeInfo runtime(VirtualMachinePowerState powerState) {
+        VirtualMachineRuntimeInfo runtime = new VirtualMachineRuntimeInfo();
+        runtime.setPowerState(powerState);
+        return runtime;
+    }
+
+    private static VirtualMachineSnapshotTree snapshot(String key, String name) {
+        ManagedObjectReference ref = new ManagedObjectReference();
+        ref.setType("VirtualMachineSnapshot");
+        ref.setValue(key);
+        VirtualMachineSnapshotTree tree = new VirtualMachineSnapshotTree();
+        tree.setSnapshot(ref);
+        tree.setName(name);
+        return tree;
+    }
+}
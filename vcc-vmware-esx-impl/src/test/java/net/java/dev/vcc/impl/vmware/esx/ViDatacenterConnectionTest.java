@@ -0,0 +1,43 @@
+package net.java.dev.vcc.impl.vmware.esx;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class ViDatacenterConnectionTest {
+    private final ViDatacenterConnection instance = new ViDatacenterConnection();
+
+    @Test
+    public void plainUrl() {
+        ViConnectionDetails details = instance.parseUrl("vcc+vi+https://vcenter.example.com/sdk");
+        assertThat(details.getUrl(), is("https://vcenter.example.com/sdk"));
+        assertThat(details.getParams().isEmpty(), is(true));
+    }
+
+    @Test
+    public void parameters() {
+        ViConnectionDetails details =
+                instance.parseUrl("vcc+vi+https://vcenter.example.com/sdk;changeTracking=true;foo-bar=42");
+        assertThat(details.getUrl(), is("https://vcenter.example.com/sdk"));
+        assertThat(details.getBooleanParam(ViConnectionDetails.CHANGE_TRACKING, false), is(true));
+        assertThat(details.getIntParam("foo-bar", 0), is(42));
+        assertThat(details.getIntParam("missing", 7), is(7));
+    }
+
+    @Test
+    public void listParameter() {
+        ViConnectionDetails details =
+                instance.parseUrl("vcc+vi+https://vcenter.example.com/sdk;eventTypes=VmCreatedEvent, VmRemovedEvent,");
+        assertThat(details.getListParam(ViConnectionDetails.EVENT_TYPES),
+                is(Arrays.asList("VmCreatedEvent", "VmRemovedEvent")));
+        assertThat(details.getListParam("missing").isEmpty(), is(true));
+    }
+
+    @Test
+    public void rejectsOtherSchemes() {
+        assertThat(instance.parseUrl("vcc:vmware-vix:myhost"), nullValue());
+    }
+}
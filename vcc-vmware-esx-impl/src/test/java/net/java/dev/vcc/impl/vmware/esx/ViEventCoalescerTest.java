@@ -0,0 +1,64 @@
+package net.java.dev.vcc.impl.vmware.esx;
+
+import com.vmware.vim25.Event;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.TaskEvent;
+import com.vmware.vim25.VmEventArgument;
+import com.vmware.vim25.VmPoweredOffEvent;
+import com.vmware.vim25.VmPoweredOnEvent;
+import com.vmware.vim25.VmReconfiguredEvent;
+import com.vmware.vim25.VmStartingEvent;
+import com.vmware.vim25.VmStoppingEvent;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class ViEventCoalescerTest {
+
+    @Test
+    public void keepsOnlyTheNetTransition() {
+        ViEventCoalescer instance = new ViEventCoalescer();
+        Event starting = event(new VmStartingEvent(), "vm-1");
+        Event poweredOn = event(new VmPoweredOnEvent(), "vm-1");
+        Event reconfigured1 = event(new VmReconfiguredEvent(), "vm-1");
+        Event stopping = event(new VmStoppingEvent(), "vm-1");
+        Event poweredOff = event(new VmPoweredOffEvent(), "vm-1");
+        Event reconfigured2 = event(new VmReconfiguredEvent(), "vm-1");
+        List<Event> result = instance.coalesce(
+                Arrays.asList(starting, poweredOn, reconfigured1, stopping, poweredOff, reconfigured2));
+        assertThat(result, is(Arrays.asList(poweredOff, reconfigured2)));
+        assertThat(instance.getMergedCount(), is(4L));
+    }
+
+    @Test
+    public void keepsTrailingStateChangeAndOtherObjects() {
+        ViEventCoalescer instance = new ViEventCoalescer();
+        Event poweredOn1 = event(new VmPoweredOnEvent(), "vm-1");
+        Event poweredOn2 = event(new VmPoweredOnEvent(), "vm-2");
+        Event task = event(new TaskEvent(), "vm-1");
+        Event stopping = event(new VmStoppingEvent(), "vm-1");
+        List<Event> result = instance.coalesce(Arrays.asList(poweredOn1, poweredOn2, task, stopping));
+        assertThat(result, is(Arrays.asList(poweredOn1, poweredOn2, task, stopping)));
+        assertThat(instance.getMergedCount(), is(0L));
+    }
+
+    @Test
+    public void singleEventIsUntouched() {
+        List<Event> batch = Arrays.asList(event(new VmPoweredOnEvent(), "vm-1"));
+        assertThat(new ViEventCoalescer().coalesce(batch), sameInstance(batch));
+    }
+
+    private static Event event(Event event, String vm) {
+        ManagedObjectReference ref = new ManagedObjectReference();
+        ref.setType("VirtualMachine");
+        ref.setValue(vm);
+        VmEventArgument argument = new VmEventArgument();
+        argument.setVm(ref);
+        event.setVm(argument);
+        return event;
+    }
+}
@@ -0,0 +1,46 @@
+package net.java.dev.vcc.impl.vmware.esx;
+
+import com.vmware.vim25.ManagedObjectReference;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+public class ViManagedObjectIdsTest {
+
+    private final ViDatacenterId datacenterId = new ViDatacenterId("vcc+vi+https://localhost/sdk");
+
+    private final ViManagedObjectIds instance = new ViManagedObjectIds(datacenterId);
+
+    @Test
+    public void handsOutOneIdPerReference() {
+        ViComputerId id = instance.getComputerId(ref("VirtualMachine", "vm-1"));
+
+        assertThat(instance.getComputerId(ref("VirtualMachine", "vm-1")), sameInstance(id));
+        assertThat(id.toString(), sameInstance(id.toString()));
+
+        instance.forget("vm-1");
+        ViComputerId other = instance.getComputerId(ref("VirtualMachine", "vm-1"));
+        assertThat(other, not(sameInstance(id)));
+        assertThat(other, is(id));
+    }
+
+    @Test
+    public void idsAreEqualByReferenceValue() {
+        ViComputerId one = new ViComputerId(datacenterId, ref("VirtualMachine", "vm-1"));
+        ViComputerId two = new ViComputerId(datacenterId, ref("VirtualMachine", "vm-1"));
+        ViComputerId three = new ViComputerId(datacenterId, ref("VirtualMachine", "vm-2"));
+
+        assertThat(one, is(two));
+        assertThat(one.hashCode(), is(two.hashCode()));
+        assertThat(one, not(three));
+    }
+
+    private static ManagedObjectReference ref(String type, String value) {
+        ManagedObjectReference ref = new ManagedObjectReference();
+        ref.setType(type);
+        ref.setValue(value);
+        return ref;
+    }
+}
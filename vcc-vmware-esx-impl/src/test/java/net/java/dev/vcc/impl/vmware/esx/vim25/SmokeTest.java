@@ -51,7 +51,7 @@ public class SmokeTest {
         assumeThat(URL, notNullValue()); // need a test environment to run this test
         assumeThat(URL, is(not(""))); // need a test environment to run this test
 
-        final VimPortType proxy = ConnectionManager.getConnection(URL, null);
+        final VimPortType proxy = ConnectionManager.getConnection(URL);
         final ManagedObjectReference serviceInstance = ConnectionManager.getServiceInstance();
 
         ServiceContent serviceContent = proxy.retrieveServiceContent(serviceInstance);
@@ -111,7 +111,7 @@ public class SmokeTest {
         assumeThat(URL, notNullValue()); // need a test environment to run this test
         assumeThat(URL, is(not(""))); // need a test environment to run this test
 
-        final VimPortType proxy = ConnectionManager.getConnection(URL, null);
+        final VimPortType proxy = ConnectionManager.getConnection(URL);
         final ManagedObjectReference serviceInstance = ConnectionManager.getServiceInstance();
 
         ServiceContent serviceContent = proxy.retrieveServiceContent(serviceInstance);
@@ -252,7 +252,7 @@ public class SmokeTest {
         assumeThat(URL, notNullValue()); // need a test environment to run this test
         assumeThat(URL, is(not(""))); // need a test environment to run this test
 
-        final VimPortType proxy = ConnectionManager.getConnection(URL, null);
+        final VimPortType proxy = ConnectionManager.getConnection(URL);
         final ManagedObjectReference serviceInstance = ConnectionManager.getServiceInstance();
 
         ServiceContent serviceContent = proxy.retrieveServiceContent(serviceInstance);
@@ -301,7 +301,7 @@ public class SmokeTest {
         assumeThat(URL, notNullValue()); // need a test environment to run this test
         assumeThat(URL, is(not(""))); // need a test environment to run this test
 
-        final VimPortType proxy = ConnectionManager.getConnection(URL, null);
+        final VimPortType proxy = ConnectionManager.getConnection(URL);
         final ManagedObjectReference serviceInstance = ConnectionManager.getServiceInstance();
 
         ServiceContent serviceContent = proxy.retrieveServiceContent(serviceInstance);
@@ -374,7 +374,7 @@ public class SmokeTest {
         assumeThat(URL, notNullValue()); // need a test environment to run this test
         assumeThat(URL, is(not(""))); // need a test environment to run this test
 
-        final VimPortType proxy = ConnectionManager.getConnection(URL, null);
+        final VimPortType proxy = ConnectionManager.getConnection(URL);
         final ManagedObjectReference serviceInstance = ConnectionManager.getServiceInstance();
 
         ServiceContent serviceContent = proxy.retrieveServiceContent(serviceInstance);
@@ -435,7 +435,7 @@ public class SmokeTest {
         thread.start();
         try {
             final VimPortType proxy = ConnectionManager
-                    .getConnection("http://localhost:" + server.getLocalPort() + "/sdk", null);
+                    .getConnection("http://localhost:" + server.getLocalPort() + "/sdk");
             TraversalSpec resourcePoolTraversalSpec = Helper
                     .newTraversalSpec("resourcePoolTraversalSpec", "ResourcePool", "resourcePool", false,
                             Helper.newSelectionSpec("resourcePoolTraversalSpec"));
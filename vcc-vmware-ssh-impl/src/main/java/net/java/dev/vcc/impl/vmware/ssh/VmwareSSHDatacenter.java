@@ -1,6 +1,7 @@
 package net.java.dev.vcc.impl.vmware.ssh;
 
 import net.java.dev.vcc.api.*;
+import net.java.dev.vcc.api.commands.StartComputers;
 import net.java.dev.vcc.api.profiles.BasicProfile;
 import net.java.dev.vcc.spi.AbstractDatacenter;
 import net.java.dev.vcc.util.CompletedFuture;
@@ -52,10 +53,14 @@ public class VMWareSSHDatacenter extends AbstractDatacenter {
     }
 
     public Set<Class<? extends Command>> getCommands() {
-        return Collections.emptySet(); // TODO get commands
+        return Collections.<Class<? extends Command>>singleton(StartComputers.class);
     }
 
     public <T extends Command> T execute(T command) {
+        if (command instanceof StartComputers) {
+            startEach((StartComputers) command);
+            return command;
+        }
         command.setSubmitted(new CompletedFuture("Unsupported command", new UnsupportedOperationException()));
         return command;
     }